@@ -0,0 +1,79 @@
+// ============================================
+// IntList.java
+// Growable list of primitive ints used by the catalog indexes
+// ============================================
+
+import java.util.Arrays;
+
+/**
+ * Minimal growable int array. Avoids boxing Integer values in index buckets.
+ */
+public class IntList {
+
+    private int[] values;
+    private int size;
+
+    public IntList() {
+        this(4);
+    }
+
+    public IntList(int capacity) {
+        values = new int[Math.max(capacity, 1)];
+    }
+
+    public int size() { return size; }
+
+    public boolean isEmpty() { return size == 0; }
+
+    public int get(int i) {
+        if (i < 0 || i >= size) throw new IndexOutOfBoundsException("Index " + i + " out of bounds for length " + size);
+        return values[i];
+    }
+
+    public void add(int value) {
+        if (size == values.length) values = Arrays.copyOf(values, size + (size >> 1) + 1);
+        values[size++] = value;
+    }
+
+    public void set(int i, int value) {
+        if (i < 0 || i >= size) throw new IndexOutOfBoundsException("Index " + i + " out of bounds for length " + size);
+        values[i] = value;
+    }
+
+    /**
+     * Removes the element at index i by moving the last element into its slot, in O(1).
+     * Order is not preserved.
+     *
+     * @return the element now at index i, or -1 if i was the last index
+     */
+    public int removeAt(int i) {
+        if (i < 0 || i >= size) throw new IndexOutOfBoundsException("Index " + i + " out of bounds for length " + size);
+        values[i] = values[--size];
+        return i < size ? values[i] : -1;
+    }
+
+    /**
+     * Appends copies of value until the list has at least newSize elements; elements
+     * already in the list are left as they are.
+     * Used as a dense int-by-id map.
+     */
+    public void fill(int newSize, int value) {
+        if (newSize > values.length) values = Arrays.copyOf(values, Math.max(newSize, size + (size >> 1) + 1));
+        while (size < newSize) values[size++] = value;
+    }
+
+    /**
+     * Appends all values to the target list.
+     */
+    public void addTo(IntList target) {
+        for (int i = 0; i < size; i++) target.add(values[i]);
+    }
+
+    public void sort() {
+        Arrays.sort(values, 0, size);
+    }
+
+    public int[] toArray() {
+        return Arrays.copyOf(values, size);
+    }
+}
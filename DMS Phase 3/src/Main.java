@@ -3,12 +3,27 @@
 // Entry point of the program
 // ============================================
 
+import java.util.Arrays;
+
 /**
  * Program entry point.
- * Launches the MovieGUI with persistence via "movies.csv".
+ * Without arguments, launches the MovieGUI with persistence via "movies.csv".
+ * With arguments, runs the headless command line (see MovieCli), e.g.
+ *   java Main query --in movies.csv --where "!watched && year > 2000" --sort rating:desc
+ * or, with "serve", the local HTTP/JSON server (see MovieServer), e.g.
+ *   java Main serve --catalog movies.csv --port 8080
  */
 public class Main {
     public static void main(String[] args) {
+        if (args.length > 0 && args[0].equals("serve")) {
+            int code = MovieServer.run(Arrays.copyOfRange(args, 1, args.length), System.out, System.err);
+            if (code != 0) System.exit(code);
+            return;
+        }
+        if (args.length > 0) {
+            System.exit(MovieCli.run(args, System.in, System.out, System.err));
+        }
+
         // Initialize the MovieManager (handles CSV loading/saving)
         MovieManager manager = new MovieManager("movies.csv");
 
@@ -3,8 +3,6 @@
 // Represents a single movie with validation and CSV support
 // ============================================
 
-import java.time.Year;
-
 /**
  * Represents a single movie and contains CSV-parsing, validation, and utility methods.
  */
@@ -66,11 +64,12 @@ public class Movie {
     /**
      * Convert the movie to a CSV string.
      * Format: title,year,director,rating,runtimeMinutes,votes,watched
+     * Title and director are quoted when they contain commas, quotes or line breaks.
+     * Same text as String.format("%s,%d,%s,%.1f,%d,%d,%s", ...), built without it.
      */
     @Override
     public String toString() {
-        return String.format("%s,%d,%s,%.1f,%d,%d,%s",
-                title, year, director, rating, runtimeMinutes, votes, watched);
+        return MovieCsvWriter.format(title, year, director, rating, runtimeMinutes, votes, watched);
     }
 
     /**
@@ -84,51 +83,12 @@ public class Movie {
     /**
      * Parses a CSV line into a Movie object.
      * Performs validation and throws IllegalArgumentException on errors.
+     * Delegates to MovieCsvParser, which scans the line in place instead of splitting it.
      *
      * @param line CSV line (7 fields)
      * @return Movie object
      */
     public static Movie fromCSV(String line) throws IllegalArgumentException {
-        if (line == null) throw new IllegalArgumentException("Line is null");
-
-        String[] parts = line.split(",", -1); // keep empty fields
-        if (parts.length != 7) throw new IllegalArgumentException("Expected 7 fields but found " + parts.length);
-
-        for (int i = 0; i < parts.length; i++) parts[i] = parts[i].trim();
-
-        String title = parts[0];
-        if (title.isEmpty()) throw new IllegalArgumentException("Title is empty");
-
-        int year;
-        try { year = Integer.parseInt(parts[1]); }
-        catch (NumberFormatException e) { throw new IllegalArgumentException("Year is not a valid integer: '" + parts[1] + "'"); }
-        int currentYear = Year.now().getValue();
-        if (year < 1888 || year > currentYear) throw new IllegalArgumentException("Year must be between 1888 and " + currentYear);
-
-        String director = parts[2];
-        if (director.isEmpty()) throw new IllegalArgumentException("Director is empty");
-
-        double rating;
-        try { rating = Double.parseDouble(parts[3]); }
-        catch (NumberFormatException e) { throw new IllegalArgumentException("Rating is not a valid number: '" + parts[3] + "'"); }
-        if (rating < 0.0 || rating > 10.0) throw new IllegalArgumentException("Rating must be between 0.0 and 10.0");
-
-        int runtime;
-        try { runtime = Integer.parseInt(parts[4]); }
-        catch (NumberFormatException e) { throw new IllegalArgumentException("Runtime is not a valid integer: '" + parts[4] + "'"); }
-        if (runtime <= 0) throw new IllegalArgumentException("Runtime must be a positive integer");
-
-        int votes;
-        try { votes = Integer.parseInt(parts[5]); }
-        catch (NumberFormatException e) { throw new IllegalArgumentException("Votes is not a valid integer: '" + parts[5] + "'"); }
-        if (votes < 0) throw new IllegalArgumentException("Votes must be 0 or greater");
-
-        boolean watched;
-        String w = parts[6].toLowerCase();
-        if (w.equals("true") || w.equals("yes") || w.equals("y") || w.equals("1")) watched = true;
-        else if (w.equals("false") || w.equals("no") || w.equals("n") || w.equals("0")) watched = false;
-        else throw new IllegalArgumentException("Watched must be true/false, yes/no, or 1/0: '" + parts[6] + "'");
-
-        return new Movie(title, year, director, rating, runtime, votes, watched);
+        return MovieCsvParser.parse(line);
     }
 }
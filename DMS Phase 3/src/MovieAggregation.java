@@ -0,0 +1,346 @@
+// ============================================
+// MovieAggregation.java
+// Group-by statistics over the catalog, computed in parallel and kept up to date
+// ============================================
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+
+/**
+ * Count, sum, average, min, max, percentiles and watched ratio of one field, per group
+ * (director, year, decade, watched flag, or the whole catalog).
+ *
+ * The first computation makes a single pass over a MovieStore snapshot, split into row
+ * ranges that run on a fork-join pool. Each range builds its own partial groups and the
+ * partial groups are merged pairwise. A live aggregation from MovieManager.aggregateLive
+ * is then updated movie by movie as movies are added, edited or removed.
+ *
+ * Each group keeps its values sorted so percentiles are exact. A change only updates
+ * the running count, sum and watched totals and records the value as added or removed;
+ * pending values are merged into the sorted values when the group is read, or once
+ * there are as many of them as sorted values. Methods are synchronized; groups()
+ * returns immutable Groups.
+ */
+public class MovieAggregation {
+
+    /** What movies are grouped by. */
+    public enum GroupBy { ALL, DIRECTOR, YEAR, DECADE, WATCHED }
+
+    /** The numeric field the statistics are computed over. */
+    public enum Field { RATING, VOTES, RUNTIME, YEAR, SCARINESS }
+
+    private static final int LEAF_ROWS = 16 * 1024; // rows per fork-join leaf
+
+    /**
+     * Statistics of one group.
+     */
+    public static class Group {
+        public final String key;
+        public final long count;
+        public final double sum;
+        public final double min;
+        public final double max;
+        public final long watched;
+        private final double[] sorted; // all values, ascending
+
+        public Group(String key, long count, double sum, long watched, double[] sorted) {
+            this.key = key;
+            this.count = count;
+            this.sum = sum;
+            this.watched = watched;
+            this.sorted = sorted;
+            this.min = sorted.length > 0 ? sorted[0] : Double.NaN;
+            this.max = sorted.length > 0 ? sorted[sorted.length - 1] : Double.NaN;
+        }
+
+        public double average() {
+            return count == 0 ? Double.NaN : sum / count;
+        }
+
+        /** Share of the group's movies that are watched, between 0 and 1. */
+        public double watchedRatio() {
+            return count == 0 ? Double.NaN : (double) watched / count;
+        }
+
+        /**
+         * Percentile of the values, interpolating linearly between the two closest ranks
+         * (the 50th percentile of 1, 2, 3, 4 is 2.5).
+         *
+         * @param p percentile between 0 and 100
+         */
+        public double percentile(double p) {
+            if (p < 0 || p > 100) throw new IllegalArgumentException("Percentile must be between 0 and 100");
+            if (sorted.length == 0) return Double.NaN;
+            double rank = p / 100 * (sorted.length - 1);
+            int lo = (int) Math.floor(rank);
+            int hi = Math.min(lo + 1, sorted.length - 1);
+            return sorted[lo] + (sorted[hi] - sorted[lo]) * (rank - lo);
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%s: count=%d avg=%.2f min=%.1f max=%.1f watched=%.0f%%",
+                    key, count, average(), min, max, watchedRatio() * 100);
+        }
+    }
+
+    /**
+     * Running totals of one group. Count, sum and watched count are updated on every
+     * change; values go to unsorted lists of added and removed values, which settle()
+     * merges into a new sorted array in one pass. A change therefore never sorts or
+     * shifts the group's values, and Groups can share the sorted array.
+     * settle() also sums the sorted values again, so the sum does not drift as values are
+     * added and removed and equals the sum of a fresh computation.
+     */
+    private static final class Acc {
+        private static final double[] NONE = new double[0];
+
+        long count;
+        long watched;
+        double sum;
+        double[] sorted = NONE;     // settled values, ascending; never modified once set
+        double[] added = new double[8];
+        int addedCount;
+        double[] removed = NONE;
+        int removedCount;
+
+        void add(double v, boolean w) {
+            if (addedCount == added.length) added = Arrays.copyOf(added, addedCount * 2);
+            added[addedCount++] = v;
+            count++;
+            sum += v;
+            if (w) watched++;
+        }
+
+        void remove(double v, boolean w) {
+            if (removedCount == removed.length) removed = Arrays.copyOf(removed, Math.max(8, removedCount * 2));
+            removed[removedCount++] = v;
+            count--;
+            sum -= v;
+            if (w) watched--;
+        }
+
+        /** True once settling costs no more per pending value than a sorted insert would. */
+        boolean backlogged() {
+            return addedCount + removedCount > Math.max(1024, sorted.length);
+        }
+
+        void merge(Acc other) {
+            added = append(added, addedCount, other.sorted, other.sorted.length);
+            addedCount += other.sorted.length;
+            added = append(added, addedCount, other.added, other.addedCount);
+            addedCount += other.addedCount;
+            removed = append(removed, removedCount, other.removed, other.removedCount);
+            removedCount += other.removedCount;
+            count += other.count;
+            sum += other.sum;
+            watched += other.watched;
+        }
+
+        private static double[] append(double[] a, int size, double[] b, int n) {
+            if (size + n > a.length) a = Arrays.copyOf(a, Math.max(size + n, a.length * 2));
+            System.arraycopy(b, 0, a, size, n);
+            return a;
+        }
+
+        /**
+         * Merges the pending added values into the sorted ones, leaving out one
+         * occurrence of every removed value.
+         */
+        void settle() {
+            if (addedCount == 0 && removedCount == 0) return;
+            Arrays.sort(added, 0, addedCount);
+            Arrays.sort(removed, 0, removedCount);
+            double[] out = new double[sorted.length + addedCount];
+            int i = 0, j = 0, r = 0, n = 0;
+            double total = 0;
+            while (i < sorted.length || j < addedCount) {
+                double v = j == addedCount || (i < sorted.length && Double.compare(sorted[i], added[j]) <= 0)
+                        ? sorted[i++] : added[j++];
+                while (r < removedCount && Double.compare(removed[r], v) < 0) r++;
+                if (r < removedCount && Double.compare(removed[r], v) == 0) {
+                    r++;
+                    continue;
+                }
+                out[n++] = v;
+                total += v;
+            }
+            sorted = n == out.length ? out : Arrays.copyOf(out, n);
+            count = n;
+            sum = total;
+            // Don't keep a large first computation's buffer around
+            if (added.length > 1024) added = new double[8];
+            addedCount = 0;
+            removedCount = 0;
+        }
+
+        Group toGroup(String key) {
+            settle();
+            return new Group(key, count, sum, watched, sorted);
+        }
+    }
+
+    private final GroupBy groupBy;
+    private final Field field;
+    private Map<String, Acc> groups;
+
+    private MovieAggregation(GroupBy groupBy, Field field, Map<String, Acc> groups) {
+        this.groupBy = groupBy;
+        this.field = field;
+        this.groups = groups;
+    }
+
+    // ----- Computing -----
+
+    /**
+     * Aggregates every row of a store snapshot in one parallel pass.
+     */
+    public static MovieAggregation compute(MovieStore snapshot, GroupBy groupBy, Field field, ForkJoinPool pool) {
+        Map<String, Acc> groups = pool.invoke(new Pass(snapshot, groupBy, field, 0, snapshot.size()));
+        return new MovieAggregation(groupBy, field, groups);
+    }
+
+    /**
+     * Aggregates one row range; splits in halves until a range is small enough.
+     */
+    private static final class Pass extends RecursiveTask<Map<String, Acc>> {
+        private static final long serialVersionUID = 1L;
+
+        private final MovieStore store;
+        private final GroupBy groupBy;
+        private final Field field;
+        private final int from, to;
+
+        Pass(MovieStore store, GroupBy groupBy, Field field, int from, int to) {
+            this.store = store;
+            this.groupBy = groupBy;
+            this.field = field;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected Map<String, Acc> compute() {
+            if (to - from > LEAF_ROWS) {
+                int mid = (from + to) >>> 1;
+                Pass right = new Pass(store, groupBy, field, mid, to);
+                right.fork();
+                Map<String, Acc> left = new Pass(store, groupBy, field, from, mid).compute();
+                return mergeInto(left, right.join());
+            }
+            Map<String, Acc> groups = new HashMap<>();
+            for (int row = from; row < to; row++) {
+                String key = key(groupBy, groupBy == GroupBy.DIRECTOR ? store.director(row) : null,
+                        store.year(row), store.watched(row));
+                groups.computeIfAbsent(key, k -> new Acc()).add(value(field, store, row), store.watched(row));
+            }
+            return groups;
+        }
+
+        private static Map<String, Acc> mergeInto(Map<String, Acc> a, Map<String, Acc> b) {
+            if (a.size() < b.size()) {
+                Map<String, Acc> t = a;
+                a = b;
+                b = t;
+            }
+            for (Map.Entry<String, Acc> e : b.entrySet()) {
+                Acc acc = a.get(e.getKey());
+                if (acc == null) a.put(e.getKey(), e.getValue());
+                else acc.merge(e.getValue());
+            }
+            return a;
+        }
+    }
+
+    private static String key(GroupBy groupBy, String director, int year, boolean watched) {
+        return switch (groupBy) {
+            case ALL -> "all";
+            case DIRECTOR -> director;
+            case YEAR -> Integer.toString(year);
+            case DECADE -> Math.floorDiv(year, 10) * 10 + "s";
+            case WATCHED -> watched ? "watched" : "unwatched";
+        };
+    }
+
+    private static double value(Field field, MovieStore store, int row) {
+        return switch (field) {
+            case RATING -> store.rating(row);
+            case VOTES -> store.votes(row);
+            case RUNTIME -> store.runtimeMinutes(row);
+            case YEAR -> store.year(row);
+            case SCARINESS -> store.scariness(row);
+        };
+    }
+
+    private static double value(Field field, Movie m) {
+        return switch (field) {
+            case RATING -> m.getRating();
+            case VOTES -> m.getVotes();
+            case RUNTIME -> m.getRuntimeMinutes();
+            case YEAR -> m.getYear();
+            case SCARINESS -> m.getScariness();
+        };
+    }
+
+    // ----- Incremental Updates -----
+
+    /**
+     * Applies one change: an added movie (removed == null), a removed one (added == null)
+     * or an edit (both set).
+     */
+    synchronized void apply(Movie removed, Movie added) {
+        if (removed != null) {
+            String key = key(groupBy, removed.getDirector(), removed.getYear(), removed.isWatched());
+            Acc acc = groups.get(key);
+            if (acc != null) {
+                acc.remove(value(field, removed), removed.isWatched());
+                if (acc.count == 0) groups.remove(key);
+                else if (acc.backlogged()) acc.settle();
+            }
+        }
+        if (added != null) {
+            String key = key(groupBy, added.getDirector(), added.getYear(), added.isWatched());
+            Acc acc = groups.computeIfAbsent(key, k -> new Acc());
+            acc.add(value(field, added), added.isWatched());
+            if (acc.backlogged()) acc.settle();
+        }
+    }
+
+    /**
+     * Starts over from a new snapshot, e.g. after the catalog was reloaded.
+     */
+    synchronized void recompute(MovieStore snapshot, ForkJoinPool pool) {
+        groups = compute(snapshot, groupBy, field, pool).groups;
+    }
+
+    // ----- Results -----
+
+    public GroupBy groupBy() { return groupBy; }
+
+    public Field field() { return field; }
+
+    /**
+     * All groups, ordered by key.
+     */
+    public synchronized List<Group> groups() {
+        String[] keys = groups.keySet().toArray(new String[0]);
+        Arrays.sort(keys);
+        List<Group> result = new ArrayList<>(keys.length);
+        for (String key : keys) result.add(groups.get(key).toGroup(key));
+        return result;
+    }
+
+    /**
+     * One group, or null if no movie falls into it. Keys are the director name, the year
+     * ("1994"), the decade ("1990s"), "watched"/"unwatched", or "all".
+     */
+    public synchronized Group group(String key) {
+        Acc acc = groups.get(key);
+        return acc == null ? null : acc.toGroup(key);
+    }
+}
@@ -0,0 +1,376 @@
+// ============================================
+// MovieBenchmark.java
+// Micro-benchmarks for parsing, persistence and scoring on synthetic catalogs
+// ============================================
+
+import java.io.*;
+import java.lang.management.ManagementFactory;
+import java.nio.file.*;
+import java.time.Year;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.Random;
+
+/**
+ * Self-contained benchmark runner (no build tool or JMH needed).
+ * Generates a synthetic catalog for each requested size, then runs each benchmark for
+ * a number of warmup and measured iterations on the calling thread and reports:
+ *   - throughput (operations per second; rows per second for per-row benchmarks)
+ *   - average time per operation
+ *   - bytes allocated per operation and allocation rate, summed over the allocation
+ *     counters of all live threads (the same source as the JMH gc profiler's
+ *     gc.alloc.rate), so benchmarks that run on fork-join workers are counted in full;
+ *     only a thread that exits during a measurement takes its allocations with it
+ *
+ * Usage:
+ *   java MovieBenchmark [--rows 10000,100000,1000000] [--only fromCSV,saveMovies]
+ *                       [--warmup 3] [--iterations 5]
+ * Large sizes need a larger heap, e.g. java -Xmx8g MovieBenchmark --rows 10000000
+ */
+public class MovieBenchmark {
+
+    private static final String[] BENCHMARKS = {
+            "fromCSV", "fromCSVSplit", "toString", "loadMovies", "saveMovies", "loadSegments", "saveSegment", "uploadCSV",
+            "getAll", "getScariness",
+            "scoreColumns", "scoreExpr", "scariest", "histogram", "aggregate"
+    };
+
+    private static final String[] WORDS = {
+            "Night", "House", "Dead", "Blood", "Shadow", "Witch", "Ring", "Curse", "Silent",
+            "Evil", "Dark", "Hill", "Lake", "Return", "Scream", "Thing", "Fog", "Omen"
+    };
+
+    private static volatile Object sink; // keeps results alive so the JIT cannot drop the work
+
+    private final int warmup;
+    private final int iterations;
+    private final com.sun.management.ThreadMXBean threads;
+
+    public MovieBenchmark(int warmup, int iterations) {
+        this.warmup = warmup;
+        this.iterations = iterations;
+        this.threads = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+    }
+
+    /**
+     * One benchmark body; returns a value that is kept in the sink.
+     */
+    private interface Body {
+        Object run() throws IOException;
+    }
+
+    // ----- Entry Point -----
+
+    public static void main(String[] args) throws IOException {
+        int[] sizes = {10_000, 100_000, 1_000_000};
+        List<String> only = Arrays.asList(BENCHMARKS);
+        int warmup = 3, iterations = 5;
+        for (int i = 0; i + 1 < args.length; i += 2) {
+            switch (args[i]) {
+                case "--rows" -> sizes = Arrays.stream(args[i + 1].split(",")).mapToInt(s -> Integer.parseInt(s.trim())).toArray();
+                case "--only" -> only = Arrays.asList(args[i + 1].split(","));
+                case "--warmup" -> warmup = Integer.parseInt(args[i + 1]);
+                case "--iterations" -> iterations = Integer.parseInt(args[i + 1]);
+                default -> {
+                    System.out.println("Unknown option: " + args[i]);
+                    return;
+                }
+            }
+        }
+
+        MovieBenchmark bench = new MovieBenchmark(warmup, iterations);
+        System.out.println(String.format(Locale.ROOT, "%-14s %10s %16s %14s %14s %12s",
+                "benchmark", "rows", "ops/s", "ns/op", "alloc B/op", "alloc MB/s"));
+        for (int rows : sizes) bench.runAll(rows, only);
+    }
+
+    // ----- Benchmarks -----
+
+    /**
+     * Runs every selected benchmark against a freshly generated catalog of the given size.
+     */
+    public void runAll(int rows, List<String> only) throws IOException {
+        Path dir = Files.createTempDirectory("movie-bench");
+        try {
+            Path csv = dir.resolve("catalog.csv");
+            List<Movie> movies = generate(rows, 42);
+            writeCatalog(csv, movies);
+            String[] lines = new String[rows];
+            for (int i = 0; i < rows; i++) lines[i] = movies.get(i).toString();
+            String[] plainLines = new String[rows];   // the split parser cannot read quoted fields
+            for (int i = 0; i < rows; i++) plainLines[i] = lines[i].indexOf('"') < 0 ? lines[i] : unquoted(movies.get(i));
+
+            for (String name : only) {
+                switch (name) {
+                    case "fromCSV" -> measure(name, rows, rows, () -> {
+                        Movie last = null;
+                        for (String line : lines) last = Movie.fromCSV(line);
+                        return last;
+                    });
+                    case "fromCSVSplit" -> measure(name, rows, rows, () -> {
+                        Movie last = null;
+                        for (String line : plainLines) last = splitFromCSV(line);
+                        return last;
+                    });
+                    case "toString" -> measure(name, rows, rows, () -> {
+                        long length = 0;
+                        for (Movie m : movies) length += m.toString().length();
+                        return length;
+                    });
+                    case "loadMovies" -> {
+                        MovieManager manager = new MovieManager(csv.toString());
+                        measure(name, rows, 1, () -> {
+                            manager.loadMovies();
+                            return manager.getStore();
+                        });
+                        manager.close();
+                    }
+                    case "saveMovies" -> {
+                        Path copy = dir.resolve("save.csv");
+                        Files.copy(csv, copy, StandardCopyOption.REPLACE_EXISTING);
+                        MovieManager manager = new MovieManager(copy.toString());
+                        measure(name, rows, 1, () -> {
+                            manager.saveMovies();
+                            return manager;
+                        });
+                        manager.close();
+                    }
+                    case "loadSegments" -> {
+                        MovieManager manager = new MovieManager(dir.resolve("segments").toString() + File.separator);
+                        manager.uploadCSV(csv.toString());
+                        manager.saveMovies();
+                        measure(name, rows, 1, () -> {
+                            manager.loadMovies();
+                            return manager.getStore();
+                        });
+                        manager.close();
+                    }
+                    case "saveSegment" -> {
+                        // One edit per save, so only its decade's segment is rewritten
+                        MovieManager manager = new MovieManager(dir.resolve("edits").toString() + File.separator);
+                        manager.uploadCSV(csv.toString());
+                        manager.saveMovies();
+                        measure(name, rows, 1, () -> {
+                            Movie m = manager.getAll().get(0);
+                            manager.updateMovie(manager.idAt(0), new Movie(m.getTitle(), m.getYear(), m.getDirector(),
+                                    m.getRating(), m.getRuntimeMinutes(), m.getVotes(), !m.isWatched()));
+                            manager.saveMovies();
+                            return manager;
+                        });
+                        manager.close();
+                    }
+                    case "uploadCSV" -> {
+                        List<MovieManager> managers = new ArrayList<>();
+                        measure(name, rows, 1, () -> {
+                            // Each run imports into an empty catalog of its own
+                            MovieManager manager = new MovieManager(dir.resolve("upload" + managers.size() + ".csv").toString());
+                            managers.add(manager);
+                            return manager.uploadCSV(csv.toString());
+                        });
+                        for (MovieManager manager : managers) manager.close();
+                    }
+                    case "getAll" -> {
+                        MovieManager manager = new MovieManager(csv.toString());
+                        measure(name, rows, rows, () -> {
+                            long votes = 0;
+                            for (Movie m : manager.getAll()) votes += m.getVotes();
+                            return votes;
+                        });
+                        manager.close();
+                    }
+                    case "getScariness" -> measure(name, rows, rows, () -> {
+                        double total = 0;
+                        for (Movie m : movies) total += m.getScariness();
+                        return total;
+                    });
+                    case "scoreColumns" -> {
+                        // The batch loop itself, without the per-chunk cache
+                        double[] ratings = new double[rows];
+                        int[] votes = new int[rows], runtimes = new int[rows];
+                        long[] watched = new long[(rows + 63) / 64];
+                        for (int i = 0; i < rows; i++) {
+                            Movie m = movies.get(i);
+                            ratings[i] = m.getRating();
+                            votes[i] = m.getVotes();
+                            runtimes[i] = m.getRuntimeMinutes();
+                            if (m.isWatched()) watched[i >>> 6] |= 1L << i;
+                        }
+                        double[] out = new double[rows];
+                        measure(name, rows, rows, () -> {
+                            MovieStore.scariness(ratings, votes, runtimes, watched, out, rows);
+                            return out;
+                        });
+                    }
+                    case "scoreExpr" -> {
+                        // The built-in formula as a compiled expression, over the store's chunks
+                        MovieStore store = new MovieStore();
+                        store.addAll(movies);
+                        ScoringRule rule = ScoreExpression.parse(
+                                "clamp(rating + min(votes / 500000, 2) + (runtime > 120 ? 1 : 0) - watched, 0, 10)");
+                        measure(name, rows, rows, () -> store.scores(rule));
+                    }
+                    case "scariest" -> {
+                        MovieManager manager = new MovieManager(csv.toString());
+                        measure(name, rows, 1, () -> manager.scariest(100));
+                        manager.close();
+                    }
+                    case "histogram" -> {
+                        MovieManager manager = new MovieManager(csv.toString());
+                        measure(name, rows, 1, () -> manager.scarinessHistogram(20));
+                        manager.close();
+                    }
+                    case "aggregate" -> {
+                        MovieManager manager = new MovieManager(csv.toString());
+                        measure(name, rows, rows, () -> manager.aggregate(MovieAggregation.GroupBy.DIRECTOR,
+                                MovieAggregation.Field.RATING).groups());
+                        manager.close();
+                    }
+                    default -> System.out.println("Unknown benchmark: " + name);
+                }
+            }
+        } finally {
+            deleteRecursively(dir);
+        }
+    }
+
+    /**
+     * Runs warmup and measured iterations of a body and prints one result line.
+     *
+     * @param opsPerRun operations done by one call of the body (rows for per-row benchmarks)
+     */
+    private void measure(String name, int rows, long opsPerRun, Body body) throws IOException {
+        for (int i = 0; i < warmup; i++) sink = body.run();
+
+        long[] ids = threads.getAllThreadIds();
+        long[] allocStart = threads.getThreadAllocatedBytes(ids);
+        long start = System.nanoTime();
+        for (int i = 0; i < iterations; i++) sink = body.run();
+        long elapsed = System.nanoTime() - start;
+        long allocated = allocatedSince(ids, allocStart);
+
+        long ops = opsPerRun * iterations;
+        double seconds = elapsed / 1e9;
+        System.out.println(String.format(Locale.ROOT, "%-14s %10d %16.1f %14.1f %14.1f %12.1f",
+                name, rows, ops / seconds, (double) elapsed / ops, (double) allocated / ops,
+                allocated / seconds / (1024 * 1024)));
+    }
+
+    /**
+     * Bytes allocated by all live threads since their counters read allocStart.
+     * Threads started since then count from zero.
+     */
+    private long allocatedSince(long[] ids, long[] allocStart) {
+        long[] now = threads.getAllThreadIds();
+        long[] allocNow = threads.getThreadAllocatedBytes(now);
+        long[] before = new long[now.length];
+        for (int i = 0; i < ids.length; i++) {
+            for (int j = 0; j < now.length; j++) {
+                if (now[j] == ids[i] && allocStart[i] > 0) before[j] = allocStart[i];
+            }
+        }
+        long total = 0;
+        for (int j = 0; j < now.length; j++) {
+            if (allocNow[j] > 0) total += allocNow[j] - before[j]; // -1 for a thread that just exited
+        }
+        return total;
+    }
+
+    // ----- Legacy Parser -----
+
+    /**
+     * The String.split based Movie.fromCSV that MovieCsvParser replaced, kept as the
+     * baseline for the fromCSV benchmark. It has no quoting support, so it runs on a copy
+     * of the catalog whose few quoted titles have their commas removed.
+     */
+    static Movie splitFromCSV(String line) throws IllegalArgumentException {
+        if (line == null) throw new IllegalArgumentException("Line is null");
+
+        String[] parts = line.split(",", -1); // keep empty fields
+        if (parts.length != 7) throw new IllegalArgumentException("Expected 7 fields but found " + parts.length);
+
+        for (int i = 0; i < parts.length; i++) parts[i] = parts[i].trim();
+
+        String title = parts[0];
+        if (title.isEmpty()) throw new IllegalArgumentException("Title is empty");
+
+        int year;
+        try { year = Integer.parseInt(parts[1]); }
+        catch (NumberFormatException e) { throw new IllegalArgumentException("Year is not a valid integer: '" + parts[1] + "'"); }
+        int currentYear = Year.now().getValue();
+        if (year < 1888 || year > currentYear) throw new IllegalArgumentException("Year must be between 1888 and " + currentYear);
+
+        String director = parts[2];
+        if (director.isEmpty()) throw new IllegalArgumentException("Director is empty");
+
+        double rating;
+        try { rating = Double.parseDouble(parts[3]); }
+        catch (NumberFormatException e) { throw new IllegalArgumentException("Rating is not a valid number: '" + parts[3] + "'"); }
+        if (rating < 0.0 || rating > 10.0) throw new IllegalArgumentException("Rating must be between 0.0 and 10.0");
+
+        int runtime;
+        try { runtime = Integer.parseInt(parts[4]); }
+        catch (NumberFormatException e) { throw new IllegalArgumentException("Runtime is not a valid integer: '" + parts[4] + "'"); }
+        if (runtime <= 0) throw new IllegalArgumentException("Runtime must be a positive integer");
+
+        int votes;
+        try { votes = Integer.parseInt(parts[5]); }
+        catch (NumberFormatException e) { throw new IllegalArgumentException("Votes is not a valid integer: '" + parts[5] + "'"); }
+        if (votes < 0) throw new IllegalArgumentException("Votes must be 0 or greater");
+
+        boolean watched;
+        String w = parts[6].toLowerCase();
+        if (w.equals("true") || w.equals("yes") || w.equals("y") || w.equals("1")) watched = true;
+        else if (w.equals("false") || w.equals("no") || w.equals("n") || w.equals("0")) watched = false;
+        else throw new IllegalArgumentException("Watched must be true/false, yes/no, or 1/0: '" + parts[6] + "'");
+
+        return new Movie(title, year, director, rating, runtime, votes, watched);
+    }
+
+    private static String unquoted(Movie m) {
+        return new Movie(m.getTitle().replace(",", ""), m.getYear(), m.getDirector(), m.getRating(),
+                m.getRuntimeMinutes(), m.getVotes(), m.isWatched()).toString();
+    }
+
+    // ----- Synthetic Data -----
+
+    /**
+     * Generates a reproducible catalog. Titles are mostly unique, directors come from a
+     * pool of a few thousand names, and a small share of titles need CSV quoting.
+     */
+    public static List<Movie> generate(int rows, long seed) {
+        Random r = new Random(seed);
+        int currentYear = MovieCsvParser.currentYear();
+        List<Movie> movies = new ArrayList<>(rows);
+        for (int i = 0; i < rows; i++) {
+            String title = WORDS[r.nextInt(WORDS.length)] + " " + WORDS[r.nextInt(WORDS.length)] + " " + i;
+            if (r.nextInt(50) == 0) title = title + ", Part " + (1 + r.nextInt(5));
+            String director = "Director " + r.nextInt(5000);
+            movies.add(new Movie(title, 1920 + r.nextInt(currentYear - 1919), director,
+                    r.nextInt(101) / 10.0, 70 + r.nextInt(120), r.nextInt(2_000_000), r.nextBoolean()));
+        }
+        return movies;
+    }
+
+    private static void writeCatalog(Path path, List<Movie> movies) throws IOException {
+        try (BufferedWriter bw = Files.newBufferedWriter(path)) {
+            bw.write("title,year,director,rating,runtimeMinutes,votes,watched");
+            bw.newLine();
+            for (Movie m : movies) {
+                bw.write(m.toString());
+                bw.newLine();
+            }
+        }
+    }
+
+    private static void deleteRecursively(Path dir) throws IOException {
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(dir)) {
+            for (Path f : files) {
+                if (Files.isDirectory(f)) deleteRecursively(f);
+                else Files.delete(f);
+            }
+        }
+        Files.delete(dir);
+    }
+}
@@ -0,0 +1,584 @@
+// ============================================
+// MovieCli.java
+// Headless command line: streams a CSV file through filter/score/sort stages
+// ============================================
+
+import java.io.*;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Locale;
+import java.util.PriorityQueue;
+
+/**
+ * Command line for batch jobs on machines without a display. Nothing is loaded into a
+ * MovieManager: the input is read record by record and flows through these stages:
+ *
+ *   read     Movie.fromCSV, invalid lines are reported on stderr and skipped
+ *   where    keep rows for which a ScoreExpression is non-zero
+ *   score    compute an extra "score" column with a ScoreExpression
+ *   select   pick and order the output columns
+ *   sort     order by a column; with --limit only the best rows are kept in a heap,
+ *            without it rows are sorted in runs of --buffer-rows and merged from disk
+ *   limit    stop after N rows
+ *
+ * --in may also be a catalog directory (see MoviePartitions): its segments are read one
+ * after another, and decade segments outside the years --where allows are skipped.
+ *
+ * Memory use is bounded by the block size, --limit or --buffer-rows, whatever the
+ * input size. Expressions are evaluated on blocks of rows like MovieStore scores.
+ *
+ * Example: all unwatched movies after 2000 with scariness above 7, scariest first
+ *   java Main query --in movies.csv --where "!watched && year > 2000 && scariness > 7"
+ *                   --sort scariness:desc --out scary.csv
+ */
+public class MovieCli {
+
+    static final String USAGE = String.join(System.lineSeparator(),
+            "Usage: java Main query [options]",
+            "  --in FILE|DIR      CSV file (may be .gz) or catalog directory to read (default: stdin)",
+            "  --out FILE         CSV file to write (default: stdout)",
+            "  --where EXPR       keep rows where EXPR is non-zero, e.g. \"year > 2000 && !watched\"",
+            "  --score EXPR       add a 'score' column computed by EXPR",
+            "  --select COLS      output columns, comma separated (default: all movie columns, plus score)",
+            "                     title, year, director, rating, runtimeMinutes, votes, watched, scariness, score",
+            "  --sort COL[:desc]  sort by a column; ties keep input order",
+            "  --limit N          write at most N rows",
+            "  --buffer-rows N    rows sorted in memory before spilling a run to disk (default 200000)",
+            "  --tmp DIR          directory for sort runs (default: java.io.tmpdir)",
+            "  --strict           stop at the first invalid line instead of skipping it",
+            "  --quiet            do not report skipped lines and totals on stderr",
+            "Expressions use the ScoreExpression syntax with the variables rating, votes,",
+            "runtime, year, watched and scariness.");
+
+    private static final int BLOCK = 1024;          // rows per expression evaluation
+    private static final int DEFAULT_BUFFER_ROWS = 200_000;
+    private static final int MERGE_FAN_IN = 64;     // runs merged at once
+
+    private static final List<String> VALUE_OPTIONS = List.of(
+            "--in", "--out", "--tmp", "--where", "--score", "--select", "--sort", "--limit", "--buffer-rows");
+
+    private static final List<String> MOVIE_COLUMNS = List.of(
+            "title", "year", "director", "rating", "runtimeMinutes", "votes", "watched");
+
+    /**
+     * Runs a command and returns the process exit code: 0 on success, 1 if the job
+     * failed, 2 for bad arguments.
+     */
+    public static int run(String[] args, InputStream stdin, PrintStream stdout, PrintStream stderr) {
+        Options options;
+        try {
+            options = Options.parse(args);
+        } catch (IllegalArgumentException e) {
+            stderr.println(e.getMessage());
+            stderr.println(USAGE);
+            return 2;
+        }
+        if (options == null) {
+            stdout.println(USAGE);
+            return 0;
+        }
+        try {
+            new MovieCli(options, stderr).query(stdin, stdout);
+            return 0;
+        } catch (IOException | UncheckedIOException e) {
+            stderr.println("Error: " + e.getMessage());
+            return 1;
+        } catch (IllegalArgumentException e) {
+            stderr.println("Error: " + e.getMessage());
+            return 1;
+        }
+    }
+
+    // ----- Options -----
+
+    /**
+     * Parsed command line of the query command.
+     */
+    static final class Options {
+        String in, out, tmp;
+        ScoringRule where, score;
+        List<String> select;
+        String sortColumn;
+        boolean descending, strict, quiet;
+        long limit = Long.MAX_VALUE;
+        int bufferRows = DEFAULT_BUFFER_ROWS;
+
+        /**
+         * @return the options, or null if help was asked for
+         * @throws IllegalArgumentException for unknown options or bad values
+         */
+        static Options parse(String[] args) {
+            if (args.length == 0 || args[0].equals("help") || args[0].equals("--help") || args[0].equals("-h")) {
+                return null;
+            }
+            if (!args[0].equals("query")) throw new IllegalArgumentException("Unknown command '" + args[0] + "'");
+            Options o = new Options();
+            for (int i = 1; i < args.length; i++) {
+                String arg = args[i];
+                switch (arg) {
+                    case "--strict" -> o.strict = true;
+                    case "--quiet" -> o.quiet = true;
+                    case "--help", "-h" -> {
+                        return null;
+                    }
+                    default -> {
+                        if (!VALUE_OPTIONS.contains(arg)) throw new IllegalArgumentException("Unknown option '" + arg + "'");
+                        if (i + 1 >= args.length) throw new IllegalArgumentException("Missing value for " + arg);
+                        String value = args[++i];
+                        switch (arg) {
+                            case "--in" -> o.in = value;
+                            case "--out" -> o.out = value;
+                            case "--tmp" -> o.tmp = value;
+                            case "--where" -> o.where = ScoreExpression.parse(value);
+                            case "--score" -> o.score = ScoreExpression.parse(value);
+                            case "--select" -> o.select = Arrays.asList(value.split("\\s*,\\s*"));
+                            case "--sort" -> {
+                                int colon = value.indexOf(':');
+                                o.sortColumn = colon < 0 ? value : value.substring(0, colon);
+                                String order = colon < 0 ? "asc" : value.substring(colon + 1).toLowerCase(Locale.ROOT);
+                                if (!order.equals("asc") && !order.equals("desc")) {
+                                    throw new IllegalArgumentException("Sort order must be asc or desc: '" + value + "'");
+                                }
+                                o.descending = order.equals("desc");
+                            }
+                            case "--limit" -> o.limit = positive(arg, value);
+                            default -> o.bufferRows = (int) Math.min(positive(arg, value), Integer.MAX_VALUE - 8);
+                        }
+                    }
+                }
+            }
+            if (o.select == null) {
+                o.select = new ArrayList<>(MOVIE_COLUMNS);
+                if (o.score != null) o.select.add("score");
+            }
+            for (int i = 0; i < o.select.size(); i++) o.select.set(i, column(o.select.get(i), o));
+            if (o.sortColumn != null) o.sortColumn = column(o.sortColumn, o);
+            return o;
+        }
+
+        private static long positive(String option, String value) {
+            try {
+                long n = Long.parseLong(value.trim());
+                if (n > 0) return n;
+            } catch (NumberFormatException e) {
+                // reported below
+            }
+            throw new IllegalArgumentException(option + " must be a positive number: '" + value + "'");
+        }
+
+        /** Canonical column name. */
+        private static String column(String name, Options o) {
+            String c = name.equals("runtime") ? "runtimeMinutes" : name;
+            if (MOVIE_COLUMNS.contains(c) || c.equals("scariness")) return c;
+            if (c.equals("score")) {
+                if (o.score == null) throw new IllegalArgumentException("Column 'score' needs --score");
+                return c;
+            }
+            throw new IllegalArgumentException("Unknown column '" + name + "'");
+        }
+    }
+
+    // ----- Pipeline -----
+
+    /** A row on its way to the output, with its sort key and input position. */
+    private static final class Record {
+        final long seq;
+        final double number;    // numeric sort key
+        final String text;      // text sort key (title, director), else null
+        Movie movie;            // null once the row has been spilled to a run
+        double score;
+        String line;            // formatted output, made on demand
+
+        Record(long seq, double number, String text, Movie movie, double score) {
+            this.seq = seq;
+            this.number = number;
+            this.text = text;
+            this.movie = movie;
+            this.score = score;
+        }
+
+        Record(long seq, double number, String text, String line) {
+            this(seq, number, text, null, 0);
+            this.line = line;
+        }
+    }
+
+    /** Receives the rows that pass the filter, in input order. */
+    private interface Sink {
+        /** @return false if no more rows are needed */
+        boolean accept(Record r) throws IOException;
+
+        void finish() throws IOException;
+    }
+
+    private final Options options;
+    private final PrintStream stderr;
+    private final boolean plainRows;     // output is exactly Movie.toString
+    private final Comparator<Record> order;
+    private BufferedWriter writer;
+    private long read, invalid, written;
+
+    MovieCli(Options options, PrintStream stderr) {
+        this.options = options;
+        this.stderr = stderr;
+        this.plainRows = options.select.equals(MOVIE_COLUMNS);
+        Comparator<Record> byKey = (a, b) -> {
+            if (a.text != null) {
+                int c = a.text.compareToIgnoreCase(b.text);
+                return c != 0 ? c : a.text.compareTo(b.text);
+            }
+            return Double.compare(a.number, b.number);
+        };
+        if (options.descending) byKey = byKey.reversed();
+        this.order = byKey.thenComparingLong(r -> r.seq);
+    }
+
+    /**
+     * Reads the input, runs every row through the stages and writes the result.
+     */
+    void query(InputStream stdin, PrintStream stdout) throws IOException {
+        long start = System.nanoTime();
+        Charset charset = Charset.defaultCharset(); // same as FileReader/FileWriter
+        List<Path> segments = segments();
+        Reader in = segments != null ? null : options.in == null ? new InputStreamReader(stdin, charset)
+                : new InputStreamReader(MovieCompression.open(Paths.get(options.in)), charset);
+        OutputStream outStream = options.out == null ? stdout : new FileOutputStream(options.out);
+        try (BufferedWriter out = new BufferedWriter(new OutputStreamWriter(outStream, charset), 1 << 16)) {
+            writer = out;
+            writeLine(String.join(",", options.select));
+            Sink sink = options.sortColumn == null ? new Direct()
+                    : options.limit != Long.MAX_VALUE ? new TopK((int) Math.min(options.limit, Integer.MAX_VALUE - 8))
+                    : new ExternalSort();
+            if (segments == null) {
+                try (MovieCsvReader reader = new MovieCsvReader(in)) {
+                    stream(reader, sink, false);
+                }
+            } else {
+                for (Path segment : segments) {
+                    try (MovieCsvReader reader = new MovieCsvReader(
+                            new InputStreamReader(MovieCompression.open(segment), charset))) {
+                        if (!stream(reader, sink, true)) break;
+                    }
+                }
+            }
+            sink.finish();
+        } finally {
+            if (options.out == null) stdout.flush();
+        }
+        if (!options.quiet) {
+            stderr.printf("Read %,d rows, skipped %,d invalid lines, wrote %,d rows in %,d ms%n",
+                    read, invalid, written, (System.nanoTime() - start) / 1_000_000);
+        }
+    }
+
+    /**
+     * Segment files to read when --in is a catalog directory, without those that cannot
+     * hold a year --where accepts; null when --in is a file or stdin.
+     */
+    private List<Path> segments() throws IOException {
+        if (options.in == null || !Files.isDirectory(Paths.get(options.in))) return null;
+        int[] years = options.where instanceof ScoreExpression
+                ? ((ScoreExpression) options.where).yearRange() : new int[]{Integer.MIN_VALUE, Integer.MAX_VALUE};
+        if (years[0] > years[1]) return List.of();
+        return MoviePartitions.segments(Paths.get(options.in), years[0], years[1]);
+    }
+
+    /**
+     * Parses records into blocks of BLOCK movies and evaluates the expressions a block
+     * at a time.
+     *
+     * @param segment the input is a catalog segment, whose lines end in a seq column
+     * @return false if the sink needs no more rows
+     */
+    private boolean stream(MovieCsvReader reader, Sink sink, boolean segment) throws IOException {
+        Movie[] movies = new Movie[BLOCK];
+        double[] ratings = new double[BLOCK];
+        int[] votes = new int[BLOCK], runtimes = new int[BLOCK], years = new int[BLOCK];
+        long[] watched = new long[BLOCK / 64];
+        double[] keep = new double[BLOCK], scores = new double[BLOCK], scariness = new double[BLOCK];
+        boolean needScariness = options.select.contains("scariness") || "scariness".equals(options.sortColumn);
+
+        boolean more = true;
+        while (more) {
+            int n = 0;
+            Arrays.fill(watched, 0);
+            String line;
+            while (n < BLOCK && (line = reader.next()) != null) {
+                int lineNum = reader.recordLine();
+                line = line.trim();
+                if (line.isEmpty()) continue;
+                if (lineNum == 1 && line.toLowerCase().contains("title")) continue;
+                Movie m;
+                try {
+                    m = Movie.fromCSV(segment ? MoviePartitions.stripSeq(line) : line);
+                } catch (IllegalArgumentException ex) {
+                    if (reader.retryAsLines()) continue;
+                    invalid++;
+                    if (options.strict) throw new IllegalArgumentException("Line " + lineNum + ": " + ex.getMessage());
+                    if (!options.quiet) stderr.println("Skipping invalid CSV line " + lineNum + ": " + ex.getMessage());
+                    continue;
+                }
+                movies[n] = m;
+                ratings[n] = m.getRating();
+                votes[n] = m.getVotes();
+                runtimes[n] = m.getRuntimeMinutes();
+                years[n] = m.getYear();
+                if (m.isWatched()) watched[n >>> 6] |= 1L << n;
+                n++;
+            }
+            if (n < BLOCK) more = false;
+            if (n == 0) break;
+
+            if (options.where != null) options.where.scoreAll(ratings, votes, runtimes, years, watched, keep, n);
+            if (options.score != null) options.score.scoreAll(ratings, votes, runtimes, years, watched, scores, n);
+            if (needScariness) MovieStore.scariness(ratings, votes, runtimes, watched, scariness, n);
+            for (int i = 0; i < n; i++) {
+                long seq = read++;
+                if (options.where != null && (keep[i] == 0 || Double.isNaN(keep[i]))) continue;
+                Record r = record(seq, movies[i], scores[i], scariness[i]);
+                if (!sink.accept(r)) return false;
+            }
+            Arrays.fill(movies, 0, n, null);
+        }
+        return true;
+    }
+
+    private Record record(long seq, Movie m, double score, double scariness) {
+        String column = options.sortColumn;
+        if (column == null) return new Record(seq, 0, null, m, score);
+        return switch (column) {
+            case "title" -> new Record(seq, 0, m.getTitle(), m, score);
+            case "director" -> new Record(seq, 0, m.getDirector(), m, score);
+            case "year" -> new Record(seq, m.getYear(), null, m, score);
+            case "rating" -> new Record(seq, m.getRating(), null, m, score);
+            case "runtimeMinutes" -> new Record(seq, m.getRuntimeMinutes(), null, m, score);
+            case "votes" -> new Record(seq, m.getVotes(), null, m, score);
+            case "watched" -> new Record(seq, m.isWatched() ? 1 : 0, null, m, score);
+            case "scariness" -> new Record(seq, scariness, null, m, score);
+            default -> new Record(seq, score, null, m, score);
+        };
+    }
+
+    // ----- Output -----
+
+    /** The output line of a record, formatted once. */
+    private String line(Record r) {
+        if (r.line != null) return r.line;
+        Movie m = r.movie;
+        if (plainRows) return r.line = m.toString();
+        StringBuilder sb = new StringBuilder(96);
+        for (int i = 0; i < options.select.size(); i++) {
+            if (i > 0) sb.append(',');
+            switch (options.select.get(i)) {
+                case "title" -> sb.append(MovieCsvParser.escape(m.getTitle()));
+                case "year" -> sb.append(m.getYear());
+                case "director" -> sb.append(MovieCsvParser.escape(m.getDirector()));
+                case "rating" -> sb.append(MovieCsvWriter.formatRating(m.getRating()));
+                case "runtimeMinutes" -> sb.append(m.getRuntimeMinutes());
+                case "votes" -> sb.append(m.getVotes());
+                case "watched" -> sb.append(m.isWatched());
+                case "scariness" -> appendDecimal(sb, m.getScariness());
+                case "score" -> appendDecimal(sb, r.score);
+            }
+        }
+        return r.line = sb.toString();
+    }
+
+    /**
+     * Appends a value rounded to two decimals ("7.25", "-0.5", "12"), always with a dot.
+     */
+    static void appendDecimal(StringBuilder sb, double v) {
+        if (Double.isNaN(v) || Double.isInfinite(v) || Math.abs(v) >= 1e15) {
+            sb.append(v);
+            return;
+        }
+        long hundredths = Math.round(v * 100);
+        if (hundredths < 0) {
+            sb.append('-');
+            hundredths = -hundredths;
+        }
+        sb.append(hundredths / 100);
+        long frac = hundredths % 100;
+        if (frac != 0) {
+            sb.append('.').append(frac / 10);
+            if (frac % 10 != 0) sb.append(frac % 10);
+        }
+    }
+
+    private void writeLine(String line) throws IOException {
+        writer.write(line);
+        writer.write(System.lineSeparator());
+    }
+
+    private boolean emit(Record r) throws IOException {
+        writeLine(line(r));
+        return ++written < options.limit;
+    }
+
+    // ----- Sinks -----
+
+    /** No sorting: rows are written as they come, and reading stops at the limit. */
+    private final class Direct implements Sink {
+        @Override public boolean accept(Record r) throws IOException { return emit(r); }
+
+        @Override public void finish() {}
+    }
+
+    /**
+     * Sort with a limit: keeps the best k rows in a heap whose head is the worst of them,
+     * so memory is O(k) however many rows pass the filter.
+     */
+    private final class TopK implements Sink {
+        private final int k;
+        private final PriorityQueue<Record> heap;
+
+        TopK(int k) {
+            this.k = k;
+            this.heap = new PriorityQueue<>(Math.min(k, 1024), order.reversed());
+        }
+
+        @Override
+        public boolean accept(Record r) {
+            if (heap.size() < k) heap.add(r);
+            else if (order.compare(r, heap.peek()) < 0) {
+                heap.poll();
+                heap.add(r);
+            }
+            return true;
+        }
+
+        @Override
+        public void finish() throws IOException {
+            Record[] best = heap.toArray(new Record[0]);
+            Arrays.sort(best, order);
+            for (Record r : best) emit(r);
+        }
+    }
+
+    /**
+     * Sort without a limit: buffers up to --buffer-rows rows, sorts them and spills them
+     * to a run file, then merges the runs MERGE_FAN_IN at a time. Runs hold the
+     * formatted line with its key and input position, so merging is a pure comparison.
+     */
+    private final class ExternalSort implements Sink {
+        private final List<Record> buffer = new ArrayList<>();
+        private final List<Path> runs = new ArrayList<>();
+
+        @Override
+        public boolean accept(Record r) throws IOException {
+            buffer.add(r);
+            if (buffer.size() >= options.bufferRows) spill();
+            return true;
+        }
+
+        private void spill() throws IOException {
+            buffer.sort(order);
+            Path run = Files.createTempFile(options.tmp == null ? Paths.get(System.getProperty("java.io.tmpdir"))
+                    : Paths.get(options.tmp), "movies-sort-", ".run");
+            runs.add(run);
+            try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(run), 1 << 16))) {
+                for (Record r : buffer) write(out, r);
+                out.writeBoolean(false);
+            }
+            buffer.clear();
+        }
+
+        @Override
+        public void finish() throws IOException {
+            try {
+                if (runs.isEmpty()) {
+                    buffer.sort(order);
+                    for (Record r : buffer) emit(r);
+                    return;
+                }
+                if (!buffer.isEmpty()) spill();
+                while (runs.size() > MERGE_FAN_IN) {
+                    List<Path> merged = new ArrayList<>();
+                    for (int i = 0; i < runs.size(); i += MERGE_FAN_IN) {
+                        List<Path> group = runs.subList(i, Math.min(i + MERGE_FAN_IN, runs.size()));
+                        Path run = Files.createTempFile(group.get(0).getParent(), "movies-sort-", ".run");
+                        try (DataOutputStream out = new DataOutputStream(
+                                new BufferedOutputStream(Files.newOutputStream(run), 1 << 16))) {
+                            merge(group, r -> {
+                                write(out, r);
+                                return true;
+                            });
+                            out.writeBoolean(false);
+                        }
+                        for (Path p : group) Files.deleteIfExists(p);
+                        merged.add(run);
+                    }
+                    runs.clear();
+                    runs.addAll(merged);
+                }
+                merge(runs, MovieCli.this::emit);
+            } finally {
+                for (Path p : runs) Files.deleteIfExists(p);
+            }
+        }
+
+        /** Action on merged records; false stops the merge. */
+        private interface Target {
+            boolean accept(Record r) throws IOException;
+        }
+
+        private void merge(List<Path> group, Target target) throws IOException {
+            List<DataInputStream> inputs = new ArrayList<>();
+            try {
+                PriorityQueue<Object[]> heads = new PriorityQueue<>(group.size(),
+                        (a, b) -> order.compare((Record) a[0], (Record) b[0]));
+                for (Path p : group) {
+                    DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(p), 1 << 16));
+                    inputs.add(in);
+                    Record r = read(in);
+                    if (r != null) heads.add(new Object[]{r, in});
+                }
+                while (!heads.isEmpty()) {
+                    Object[] head = heads.poll();
+                    if (!target.accept((Record) head[0])) return;
+                    Record next = read((DataInputStream) head[1]);
+                    if (next != null) heads.add(new Object[]{next, head[1]});
+                }
+            } finally {
+                for (DataInputStream in : inputs) in.close();
+            }
+        }
+
+        /** A run is a sequence of records, each preceded by true, and a final false. */
+        private void write(DataOutputStream out, Record r) throws IOException {
+            out.writeBoolean(true);
+            out.writeLong(r.seq);
+            out.writeDouble(r.number);
+            writeString(out, r.text);
+            writeString(out, line(r));
+        }
+
+        private Record read(DataInputStream in) throws IOException {
+            if (!in.readBoolean()) return null;
+            long seq = in.readLong();
+            double number = in.readDouble();
+            String text = readString(in);
+            return new Record(seq, number, text, readString(in));
+        }
+
+        /** Strings are written as UTF-16 chars so any title round-trips unchanged. */
+        private void writeString(DataOutputStream out, String s) throws IOException {
+            out.writeInt(s == null ? -1 : s.length());
+            if (s != null) out.writeChars(s);
+        }
+
+        private String readString(DataInputStream in) throws IOException {
+            int n = in.readInt();
+            if (n < 0) return null;
+            char[] chars = new char[n];
+            for (int i = 0; i < n; i++) chars[i] = in.readChar();
+            return new String(chars);
+        }
+    }
+}
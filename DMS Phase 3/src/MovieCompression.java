@@ -0,0 +1,252 @@
+// ============================================
+// MovieCompression.java
+// gzip/deflate codecs for CSV snapshots and imports, with inflation on its own thread
+// ============================================
+
+import java.io.BufferedInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Locale;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+import java.util.zip.InflaterInputStream;
+
+/**
+ * Compressed CSV files, using only the JDK's zip codecs.
+ *
+ * A path ending in ".gz" is gzip, one ending in ".deflate", ".zz" or ".zlib" is a zlib
+ * (deflate) stream, anything else is plain text. When reading, gzip is also recognized
+ * by its magic bytes, so a compressed vendor feed is read correctly whatever its name.
+ *
+ * open() inflates on a separate thread that hands filled buffers to the reader through
+ * a small queue, so decompression and parsing run at the same time.
+ */
+public final class MovieCompression {
+
+    /** Deflate level for writing; fast levels already shrink CSV several times. */
+    public static final int LEVEL = Deflater.BEST_SPEED;
+
+    private static final int BLOCK_BYTES = 256 * 1024;
+    private static final int QUEUED_BLOCKS = 4;
+
+    public enum Codec {
+        NONE, GZIP, DEFLATE;
+
+        /** Codec implied by a file name. */
+        public static Codec forPath(String path) {
+            String p = path.toLowerCase(Locale.ROOT);
+            if (p.endsWith(".gz")) return GZIP;
+            if (p.endsWith(".deflate") || p.endsWith(".zz") || p.endsWith(".zlib")) return DEFLATE;
+            return NONE;
+        }
+    }
+
+    private MovieCompression() {}
+
+    // ----- Reading -----
+
+    /**
+     * Codec of an existing file: gzip if it starts with the gzip magic bytes, otherwise
+     * whatever its name implies.
+     */
+    public static Codec detect(Path path) throws IOException {
+        try (InputStream in = Files.newInputStream(path)) {
+            int b1 = in.read(), b2 = in.read();
+            if (b1 == 0x1f && b2 == 0x8b) return Codec.GZIP;
+        }
+        Codec byName = Codec.forPath(path.toString());
+        return byName == Codec.GZIP ? Codec.NONE : byName;
+    }
+
+    /**
+     * Opens a file for reading, decompressing it if detect() finds a codec. Compressed
+     * files are inflated on a background thread.
+     */
+    public static InputStream open(Path path) throws IOException {
+        Codec codec = detect(path);
+        InputStream raw = new BufferedInputStream(Files.newInputStream(path), 1 << 16);
+        return switch (codec) {
+            case NONE -> raw;
+            case GZIP -> new Pipe(new GZIPInputStream(raw, 1 << 16));
+            case DEFLATE -> new Pipe(new InflaterInputStream(raw));
+        };
+    }
+
+    /**
+     * InputStream fed by a thread that reads (and so inflates) the source ahead of the
+     * consumer. Blocks are recycled, so a long file allocates QUEUED_BLOCKS + 2 of them.
+     */
+    private static final class Pipe extends InputStream {
+        private static final class Block {
+            final byte[] data = new byte[BLOCK_BYTES];
+            int length;
+        }
+
+        private static final Block END = new Block();
+
+        private final BlockingQueue<Block> full = new ArrayBlockingQueue<>(QUEUED_BLOCKS + 1);
+        private final BlockingQueue<Block> free = new ArrayBlockingQueue<>(QUEUED_BLOCKS + 2);
+        private volatile boolean closed;
+        private volatile IOException failure;
+        private Block current;
+        private int pos;
+
+        Pipe(InputStream source) {
+            Thread t = new Thread(() -> produce(source), "csv-inflater");
+            t.setDaemon(true);
+            t.start();
+        }
+
+        private void produce(InputStream source) {
+            try (InputStream in = source) {
+                while (!closed) {
+                    Block b = free.poll();
+                    if (b == null) b = new Block();
+                    int n = 0;
+                    while (n < b.data.length) {
+                        int r = in.read(b.data, n, b.data.length - n);
+                        if (r < 0) break;
+                        n += r;
+                    }
+                    b.length = n;
+                    if (n > 0 && !hand(b)) return;
+                    if (n < b.data.length) break;
+                }
+            } catch (IOException e) {
+                failure = e;
+            }
+            hand(END);
+        }
+
+        /** Queues a block, giving up once the consumer has closed the stream. */
+        private boolean hand(Block b) {
+            try {
+                while (!full.offer(b, 100, TimeUnit.MILLISECONDS)) {
+                    if (closed) return false;
+                }
+                return true;
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return false;
+            }
+        }
+
+        /** Makes current a block with unread bytes; false at the end of the data. */
+        private boolean fill() throws IOException {
+            if (current == END) return false;
+            if (current != null && pos < current.length) return true;
+            if (current != null) free.offer(current);
+            try {
+                current = full.take();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Interrupted while decompressing");
+            }
+            pos = 0;
+            if (current == END) {
+                if (failure != null) throw failure;
+                return false;
+            }
+            return true;
+        }
+
+        @Override
+        public int read() throws IOException {
+            return fill() ? current.data[pos++] & 0xff : -1;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            if (len == 0) return 0;
+            if (!fill()) return -1;
+            int n = Math.min(len, current.length - pos);
+            System.arraycopy(current.data, pos, b, off, n);
+            pos += n;
+            return n;
+        }
+
+        @Override
+        public void close() {
+            closed = true;
+            full.clear();
+        }
+    }
+
+    // ----- Writing -----
+
+    /**
+     * Wraps a stream so that what is written to it is compressed with the codec.
+     * Call finish(result) or close it to write the trailer.
+     */
+    public static OutputStream compress(OutputStream out, Codec codec) throws IOException {
+        return switch (codec) {
+            case NONE -> out;
+            case GZIP -> new GZIPOutputStream(out, 1 << 16) {
+                { def.setLevel(LEVEL); }
+            };
+            case DEFLATE -> new DeflaterOutputStream(out) {
+                { def.setLevel(LEVEL); buf = new byte[1 << 16]; }
+            };
+        };
+    }
+
+    /**
+     * Writes out everything a stream from compress() still holds, including the trailer,
+     * without closing the stream underneath.
+     */
+    public static void finish(OutputStream out) throws IOException {
+        if (out instanceof DeflaterOutputStream) ((DeflaterOutputStream) out).finish();
+        else out.flush();
+    }
+
+    /**
+     * Compresses bytes into a complete gzip member (header, deflate data, CRC trailer).
+     * Members written one after another form a valid gzip file, which GZIPInputStream
+     * and the gzip tool read as one stream; this lets chunks be compressed in parallel.
+     *
+     * @return the member
+     */
+    static byte[] gzipMember(byte[] data, int length) {
+        Deflater deflater = new Deflater(LEVEL, true);
+        try {
+            deflater.setInput(data, 0, length);
+            deflater.finish();
+            byte[] out = new byte[Math.max(64, length / 3)];
+            out[0] = 0x1f;
+            out[1] = (byte) 0x8b;
+            out[2] = 8;          // deflate
+            out[9] = (byte) 0xff; // unknown OS
+            int n = 10;
+            while (!deflater.finished()) {
+                if (n == out.length) out = Arrays.copyOf(out, out.length * 2);
+                n += deflater.deflate(out, n, out.length - n);
+            }
+            CRC32 crc = new CRC32();
+            crc.update(data, 0, length);
+            if (n + 8 > out.length) out = Arrays.copyOf(out, n + 8);
+            putIntLE(out, n, (int) crc.getValue());
+            putIntLE(out, n + 4, length);
+            return Arrays.copyOf(out, n + 8);
+        } finally {
+            deflater.end();
+        }
+    }
+
+    private static void putIntLE(byte[] b, int at, int v) {
+        b[at] = (byte) v;
+        b[at + 1] = (byte) (v >>> 8);
+        b[at + 2] = (byte) (v >>> 16);
+        b[at + 3] = (byte) (v >>> 24);
+    }
+}
@@ -0,0 +1,378 @@
+// ============================================
+// MovieCsvParser.java
+// Cursor-based CSV line parser used by Movie.fromCSV
+// ============================================
+
+import java.time.Year;
+import java.time.ZoneId;
+
+/**
+ * Parses a CSV line into a Movie by scanning the characters in place.
+ * Quoted fields (RFC 4180) are supported: records without a quote take the fast path,
+ * records with quotes are split on commas outside quotes and unescaped first.
+ * Numbers and the watched flag are read directly from field offsets; only the title and
+ * director are turned into Strings. Validation rules and error messages are the same as
+ * the original String.split based implementation.
+ */
+public final class MovieCsvParser {
+
+    private static final int FIELD_COUNT = 7;
+    private static final long INVALID = Long.MIN_VALUE;
+    private static final double[] POW10 = {
+            1e0, 1e1, 1e2, 1e3, 1e4, 1e5, 1e6, 1e7, 1e8, 1e9, 1e10, 1e11,
+            1e12, 1e13, 1e14, 1e15, 1e16, 1e17, 1e18, 1e19, 1e20, 1e21, 1e22
+    };
+
+    // Year.now() allocates on every call, so the value is cached until the next new year
+    private static volatile int cachedYear;
+    private static volatile long cachedYearExpiresAt;
+
+    private MovieCsvParser() {}
+
+    /** Why a line was rejected, for counting rejections by cause. */
+    public enum Reason {
+        FIELD_COUNT, QUOTING, TITLE, YEAR, YEAR_RANGE, DIRECTOR, RATING, RATING_RANGE,
+        RUNTIME, RUNTIME_RANGE, VOTES, VOTES_RANGE, WATCHED
+    }
+
+    /**
+     * Thrown for an invalid line. Callers can keep catching IllegalArgumentException;
+     * the reason is there for MovieMetrics.
+     */
+    public static class InvalidLineException extends IllegalArgumentException {
+        private static final long serialVersionUID = 1L;
+
+        public final Reason reason;
+
+        public InvalidLineException(Reason reason, String message) {
+            super(message);
+            this.reason = reason;
+        }
+    }
+
+    private static InvalidLineException invalid(Reason reason, String message) {
+        return new InvalidLineException(reason, message);
+    }
+
+    // ----- Parsing -----
+
+    /**
+     * Parses a whole line.
+     */
+    public static Movie parse(CharSequence line) {
+        if (line == null) throw invalid(Reason.FIELD_COUNT, "Line is null");
+        return parse(line, 0, line.length());
+    }
+
+    /**
+     * Parses the characters in [from, to) as one CSV record.
+     * Throws IllegalArgumentException with the same messages as Movie.fromCSV.
+     */
+    public static Movie parse(CharSequence s, int from, int to) {
+        int fields = 1;
+        boolean quoted = false;
+        for (int i = from; i < to; i++) {
+            char c = s.charAt(i);
+            if (c == ',') fields++;
+            else if (c == '"') quoted = true;
+        }
+        if (quoted) return parseQuoted(s, from, to);
+        if (fields != FIELD_COUNT) throw invalid(Reason.FIELD_COUNT, "Expected 7 fields but found " + fields);
+
+        int end = nextComma(s, from, to);
+        int a = trimStart(s, from, end);
+        String title = title(s, a, trimEnd(s, a, end));
+
+        from = end + 1;
+        end = nextComma(s, from, to);
+        a = trimStart(s, from, end);
+        int year = year(s, a, trimEnd(s, a, end));
+
+        from = end + 1;
+        end = nextComma(s, from, to);
+        a = trimStart(s, from, end);
+        String director = director(s, a, trimEnd(s, a, end));
+
+        from = end + 1;
+        end = nextComma(s, from, to);
+        a = trimStart(s, from, end);
+        double rating = rating(s, a, trimEnd(s, a, end));
+
+        from = end + 1;
+        end = nextComma(s, from, to);
+        a = trimStart(s, from, end);
+        int runtime = runtime(s, a, trimEnd(s, a, end));
+
+        from = end + 1;
+        end = nextComma(s, from, to);
+        a = trimStart(s, from, end);
+        int votes = votes(s, a, trimEnd(s, a, end));
+
+        from = end + 1;
+        a = trimStart(s, from, to);
+        boolean watched = watched(s, a, trimEnd(s, a, to));
+
+        return new Movie(title, year, director, rating, runtime, votes, watched);
+    }
+
+    /**
+     * Slow path for records containing quotes: splits on commas outside quotes and
+     * unescapes "" inside quoted fields before running the same field checks.
+     * A field is quoted only if it starts with a quote and the closing quote is followed
+     * by a comma or the end of the record. Other quotes, as in The 5" Monster or
+     * "Weird" Al, are kept as plain text, the way String.split read them.
+     */
+    private static Movie parseQuoted(CharSequence s, int from, int to) {
+        String[] parts = new String[FIELD_COUNT];
+        StringBuilder field = new StringBuilder();
+        int count = 0;
+        int i = from;
+        while (true) {
+            field.setLength(0);
+            i = trimStart(s, i, to);
+            int start = i;
+            boolean closed = false;
+            if (i < to && s.charAt(i) == '"') {
+                i++;
+                while (i < to) {
+                    char c = s.charAt(i++);
+                    if (c == '"') {
+                        if (i < to && s.charAt(i) == '"') {
+                            field.append('"');
+                            i++;
+                        } else {
+                            closed = true;
+                            break;
+                        }
+                    } else field.append(c);
+                }
+                i = trimStart(s, i, to);
+                closed &= i >= to || s.charAt(i) == ',';
+            }
+            if (!closed) {
+                int end = nextComma(s, start, to);
+                for (int j = start; j < end; j++) {
+                    if (s.charAt(j) == '\n') throw invalid(Reason.QUOTING, "Unterminated quoted field");
+                }
+                field.setLength(0);
+                field.append(s, start, end);
+                i = end;
+            }
+            if (count < FIELD_COUNT) parts[count] = field.toString().trim();
+            count++;
+            if (i >= to) break;
+            i++; // skip comma
+        }
+        if (count != FIELD_COUNT) throw invalid(Reason.FIELD_COUNT, "Expected 7 fields but found " + count);
+
+        return new Movie(
+                title(parts[0], 0, parts[0].length()),
+                year(parts[1], 0, parts[1].length()),
+                director(parts[2], 0, parts[2].length()),
+                rating(parts[3], 0, parts[3].length()),
+                runtime(parts[4], 0, parts[4].length()),
+                votes(parts[5], 0, parts[5].length()),
+                watched(parts[6], 0, parts[6].length()));
+    }
+
+    /**
+     * Checks field values that were parsed elsewhere (e.g. from a JSON body) by the same
+     * rules and with the same messages as a CSV line. Title and director are trimmed like
+     * CSV fields; the rating is kept exactly as given.
+     */
+    static Movie validate(String title, long year, String director, double rating, long runtime,
+                          long votes, boolean watched) {
+        title = title.trim();
+        director = director.trim();
+        return new Movie(title(title, 0, title.length()), year(year), director(director, 0, director.length()),
+                rating(rating), runtime(runtime), votes(votes), watched);
+    }
+
+    // ----- Field Validation -----
+
+    private static String title(CharSequence s, int a, int b) {
+        if (a >= b) throw invalid(Reason.TITLE, "Title is empty");
+        return s.subSequence(a, b).toString();
+    }
+
+    private static int year(CharSequence s, int a, int b) {
+        long year = parseInt(s, a, b);
+        if (year == INVALID) throw invalid(Reason.YEAR, "Year is not a valid integer: '" + text(s, a, b) + "'");
+        return year(year);
+    }
+
+    private static int year(long year) {
+        int currentYear = currentYear();
+        if (year < 1888 || year > currentYear) throw invalid(Reason.YEAR_RANGE, "Year must be between 1888 and " + currentYear);
+        return (int) year;
+    }
+
+    private static String director(CharSequence s, int a, int b) {
+        if (a >= b) throw invalid(Reason.DIRECTOR, "Director is empty");
+        return s.subSequence(a, b).toString();
+    }
+
+    private static double rating(CharSequence s, int a, int b) {
+        return rating(parseDouble(s, a, b));
+    }
+
+    private static double rating(double rating) {
+        if (rating < 0.0 || rating > 10.0) throw invalid(Reason.RATING_RANGE, "Rating must be between 0.0 and 10.0");
+        return rating;
+    }
+
+    private static int runtime(CharSequence s, int a, int b) {
+        long runtime = parseInt(s, a, b);
+        if (runtime == INVALID) throw invalid(Reason.RUNTIME, "Runtime is not a valid integer: '" + text(s, a, b) + "'");
+        return runtime(runtime);
+    }
+
+    private static int runtime(long runtime) {
+        if (runtime <= 0) throw invalid(Reason.RUNTIME_RANGE, "Runtime must be a positive integer");
+        return (int) runtime;
+    }
+
+    private static int votes(CharSequence s, int a, int b) {
+        long votes = parseInt(s, a, b);
+        if (votes == INVALID) throw invalid(Reason.VOTES, "Votes is not a valid integer: '" + text(s, a, b) + "'");
+        return votes(votes);
+    }
+
+    private static int votes(long votes) {
+        if (votes < 0) throw invalid(Reason.VOTES_RANGE, "Votes must be 0 or greater");
+        return (int) votes;
+    }
+
+    private static boolean watched(CharSequence s, int a, int b) {
+        if (equalsIgnoreCase(s, a, b, "true") || equalsIgnoreCase(s, a, b, "yes")
+                || equalsIgnoreCase(s, a, b, "y") || equalsIgnoreCase(s, a, b, "1")) return true;
+        if (equalsIgnoreCase(s, a, b, "false") || equalsIgnoreCase(s, a, b, "no")
+                || equalsIgnoreCase(s, a, b, "n") || equalsIgnoreCase(s, a, b, "0")) return false;
+        throw invalid(Reason.WATCHED, "Watched must be true/false, yes/no, or 1/0: '" + text(s, a, b) + "'");
+    }
+
+    private static String text(CharSequence s, int a, int b) {
+        return s.subSequence(a, b).toString();
+    }
+
+    // ----- Writing -----
+
+    /**
+     * Quotes a text field if it contains a comma, quote or line break, doubling inner quotes.
+     */
+    public static String escape(String value) {
+        boolean needsQuotes = false;
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c == ',' || c == '"' || c == '\n' || c == '\r') {
+                needsQuotes = true;
+                break;
+            }
+        }
+        if (!needsQuotes) return value;
+        return '"' + value.replace("\"", "\"\"") + '"';
+    }
+
+    // ----- Field Helpers -----
+
+    private static int nextComma(CharSequence s, int from, int to) {
+        for (int i = from; i < to; i++) if (s.charAt(i) == ',') return i;
+        return to;
+    }
+
+    /** Same whitespace rule as String.trim(). */
+    private static int trimStart(CharSequence s, int from, int to) {
+        while (from < to && s.charAt(from) <= ' ') from++;
+        return from;
+    }
+
+    private static int trimEnd(CharSequence s, int from, int to) {
+        while (to > from && s.charAt(to - 1) <= ' ') to--;
+        return to;
+    }
+
+    /**
+     * Parses an int with Integer.parseInt rules, returning INVALID instead of throwing.
+     */
+    static long parseInt(CharSequence s, int from, int to) {
+        if (from >= to) return INVALID;
+        boolean negative = false;
+        char first = s.charAt(from);
+        if (first == '-' || first == '+') {
+            negative = first == '-';
+            if (++from == to) return INVALID;
+        }
+        long limit = negative ? -(long) Integer.MIN_VALUE : Integer.MAX_VALUE;
+        long value = 0;
+        for (int i = from; i < to; i++) {
+            int digit = Character.digit(s.charAt(i), 10);
+            if (digit < 0) return INVALID;
+            value = value * 10 + digit;
+            if (value > limit) return INVALID;
+        }
+        return negative ? -value : value;
+    }
+
+    /**
+     * Parses a double. Plain decimals with up to 15 significant digits are computed
+     * exactly from the digits; anything else (exponents, NaN, long mantissas) goes
+     * through Double.parseDouble so results always match it.
+     */
+    static double parseDouble(CharSequence s, int from, int to) {
+        int i = from;
+        boolean negative = false;
+        if (i < to && (s.charAt(i) == '-' || s.charAt(i) == '+')) {
+            negative = s.charAt(i) == '-';
+            i++;
+        }
+        long mantissa = 0;
+        int digits = 0, fractionDigits = 0;
+        boolean seenDot = false, fast = true;
+        for (; i < to; i++) {
+            char c = s.charAt(i);
+            if (c >= '0' && c <= '9') {
+                mantissa = mantissa * 10 + (c - '0');
+                digits++;
+                if (seenDot) fractionDigits++;
+            } else if (c == '.' && !seenDot) {
+                seenDot = true;
+            } else {
+                fast = false;
+                break;
+            }
+        }
+        if (fast && digits > 0 && digits <= 15) {
+            double value = mantissa / POW10[fractionDigits];
+            return negative ? -value : value;
+        }
+
+        String text = s.subSequence(from, to).toString();
+        try {
+            return Double.parseDouble(text);
+        } catch (NumberFormatException e) {
+            throw invalid(Reason.RATING, "Rating is not a valid number: '" + text + "'");
+        }
+    }
+
+    private static boolean equalsIgnoreCase(CharSequence s, int from, int to, String expected) {
+        if (to - from != expected.length()) return false;
+        for (int i = 0; i < expected.length(); i++) {
+            if (Character.toLowerCase(s.charAt(from + i)) != expected.charAt(i)) return false;
+        }
+        return true;
+    }
+
+    /**
+     * Current year in the default time zone, refreshed when the cached year runs out.
+     */
+    static int currentYear() {
+        long now = System.currentTimeMillis();
+        if (now >= cachedYearExpiresAt) {
+            Year year = Year.now();
+            cachedYear = year.getValue();
+            cachedYearExpiresAt = year.plusYears(1).atDay(1).atStartOfDay(ZoneId.systemDefault())
+                    .toInstant().toEpochMilli();
+        }
+        return cachedYear;
+    }
+}
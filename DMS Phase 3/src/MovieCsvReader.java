@@ -0,0 +1,140 @@
+// ============================================
+// MovieCsvReader.java
+// Streaming reader that returns one CSV record at a time
+// ============================================
+
+import java.io.*;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Reads CSV records from a Reader following RFC 4180 quoting.
+ * A record normally is one line. A quote opens a quoted field only when it is the first
+ * non-blank character of a field; if such a field is still open at the end of a line,
+ * the following lines are joined with '\n' until it closes. A quote anywhere else (as in
+ * The 5" Monster) is plain text. Lines without quotes are returned as-is, so plain files
+ * are read at BufferedReader.readLine() speed.
+ *
+ * A record that spans lines but does not parse can be re-read line by line with
+ * retryAsLines(), so a stray quote costs one row instead of the rest of the file.
+ */
+public class MovieCsvReader implements Closeable {
+
+    /** A record stops taking lines once it is this long, even if a quote is still open. */
+    static final int MAX_RECORD_LENGTH = 1 << 20;
+
+    // Scanner states, also used by ParallelCsvImporter to find record ends in bytes
+    static final int FIELD_START = 0;       // before the first non-blank character of a field
+    static final int UNQUOTED = 1;          // inside a plain field
+    static final int QUOTED = 2;            // inside a quoted field
+    static final int QUOTE_IN_QUOTED = 3;   // just after a quote inside a quoted field
+
+    private final BufferedReader in;
+    private final ArrayDeque<String> pending = new ArrayDeque<>();  // lines to read again
+    private List<String> lines;     // physical lines of the last record if there were several
+    private boolean single;         // return the next line alone
+    private int lineNumber;         // physical lines consumed so far
+    private int recordLine;         // physical line on which the last record started
+
+    public MovieCsvReader(Reader reader) {
+        this.in = reader instanceof BufferedReader ? (BufferedReader) reader : new BufferedReader(reader);
+    }
+
+    /**
+     * Returns the next record without its line terminator, or null at end of input.
+     * A quoted field left open at the end of the input (or past MAX_RECORD_LENGTH) ends
+     * the record where it stands; the parser then reports it as an error.
+     */
+    public String next() throws IOException {
+        lines = null;
+        String line = readLine();
+        if (line == null) return null;
+        recordLine = lineNumber;
+        if (single) {
+            single = false;
+            return line;
+        }
+        if (line.indexOf('"') < 0 || scan(line, FIELD_START) != QUOTED) return line;
+
+        List<String> parts = new ArrayList<>();
+        parts.add(line);
+        StringBuilder record = new StringBuilder(line.length() * 2).append(line);
+        int state = QUOTED;
+        while (state == QUOTED && record.length() < MAX_RECORD_LENGTH) {
+            String more = readLine();
+            if (more == null) break;
+            parts.add(more);
+            record.append('\n').append(more);
+            state = scan(more, QUOTED);
+        }
+        if (parts.size() > 1) lines = parts;
+        return record.toString();
+    }
+
+    /**
+     * Call when the last record could not be parsed. If it spanned several lines, the
+     * next call to next() returns its first line on its own and the lines after it are
+     * read again as records of their own.
+     *
+     * @return true if the record will be read again line by line, false if it was one line
+     */
+    public boolean retryAsLines() {
+        if (lines == null) return false;
+        for (int i = lines.size() - 1; i >= 0; i--) pending.push(lines.get(i));
+        lineNumber -= lines.size();
+        lines = null;
+        single = true;
+        return true;
+    }
+
+    /**
+     * 1-based line number where the last returned record started.
+     */
+    public int recordLine() { return recordLine; }
+
+    /**
+     * Number of physical lines consumed so far.
+     */
+    public int lineCount() { return lineNumber; }
+
+    private String readLine() throws IOException {
+        String line = pending.isEmpty() ? in.readLine() : pending.poll();
+        if (line != null) lineNumber++;
+        return line;
+    }
+
+    /**
+     * Runs the scanner over one line and returns its state at the end of the line.
+     */
+    private static int scan(String line, int state) {
+        for (int i = 0; i < line.length(); i++) state = step(state, line.charAt(i));
+        return state;
+    }
+
+    /**
+     * Scanner state after character c. A line break ends the record in every state
+     * but QUOTED; callers handle it before calling this.
+     */
+    static int step(int state, int c) {
+        switch (state) {
+            case FIELD_START:
+                if (c == '"') return QUOTED;
+                return c == ',' || c <= ' ' ? FIELD_START : UNQUOTED;
+            case UNQUOTED:
+                return c == ',' ? FIELD_START : UNQUOTED;
+            case QUOTED:
+                return c == '"' ? QUOTE_IN_QUOTED : QUOTED;
+            default:
+                // "" is an escaped quote; anything else closes the field, and text after
+                // the closing quote is kept as plain text up to the next comma
+                if (c == '"') return QUOTED;
+                return c == ',' ? FIELD_START : UNQUOTED;
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        in.close();
+    }
+}
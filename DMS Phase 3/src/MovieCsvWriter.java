@@ -0,0 +1,430 @@
+// ============================================
+// MovieCsvWriter.java
+// Formats the catalog as CSV bytes in parallel and writes it in order
+// ============================================
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CodingErrorAction;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.text.DecimalFormatSymbols;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Locale;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+
+/**
+ * Writes a MovieStore as CSV, byte for byte the same as writing Movie.toString() per row
+ * through a FileWriter, without String.format.
+ *
+ * Rows are cut into chunks that are formatted on a fork-join pool straight from the
+ * store's columns into byte arrays: numbers are written digit by digit and text fields
+ * byte by byte while they are ASCII. Finished chunks are written in order with gathering
+ * writes; only a few chunks are in flight at a time and their arrays are reused.
+ *
+ * Ratings take the fast path when they have at most one decimal (anything read from a
+ * CSV file); other values, locales with other digits and charsets that do not encode
+ * ASCII as single bytes fall back to String.format and a CharsetEncoder.
+ *
+ * With MovieCompression.Codec.GZIP every chunk is also compressed by its formatting task
+ * into a gzip member of its own; the members written back to back are one valid gzip
+ * file. DEFLATE output is a single zlib stream, so it is compressed by the writer.
+ *
+ * MoviePartitions writes a subset of the rows into each segment file, with a trailing
+ * "seq" column holding the catalog order.
+ */
+public final class MovieCsvWriter {
+
+    public static final String HEADER = "title,year,director,rating,runtimeMinutes,votes,watched";
+
+    /** Extra column appended by the segment variant of write. */
+    static final String SEQ_COLUMN = "seq";
+
+    private static final int CHUNK_ROWS = 16 * 1024;
+    private static final int LEGACY_BUFFER_BYTES = 1 << 20;
+
+    private MovieCsvWriter() {}
+
+    // ----- Writing -----
+
+    /**
+     * Writes a header line and every row of the store to path and fsyncs the file.
+     * Uses the common fork-join pool and the platform charset (same as FileWriter).
+     */
+    public static void write(Path path, MovieStore store) throws IOException {
+        write(path, store, MovieCompression.Codec.NONE);
+    }
+
+    /**
+     * Same, compressing the file with codec.
+     */
+    public static void write(Path path, MovieStore store, MovieCompression.Codec codec) throws IOException {
+        write(path, store, ForkJoinPool.commonPool(), Charset.defaultCharset(), codec);
+    }
+
+    public static void write(Path path, MovieStore store, ForkJoinPool pool, Charset charset) throws IOException {
+        write(path, store, pool, charset, MovieCompression.Codec.NONE);
+    }
+
+    public static void write(Path path, MovieStore store, ForkJoinPool pool, Charset charset,
+                             MovieCompression.Codec codec) throws IOException {
+        write(path, store, null, null, pool, charset, codec);
+    }
+
+    /**
+     * Writes only the given rows, in the given order, adding a last "seq" column with
+     * seqs[id] of each row (see MoviePartitions).
+     */
+    static void write(Path path, MovieStore store, int[] rows, long[] seqs, MovieCompression.Codec codec)
+            throws IOException {
+        write(path, store, rows, seqs, ForkJoinPool.commonPool(), Charset.defaultCharset(), codec);
+    }
+
+    /**
+     * @param rows rows to write, or null for all of them
+     * @param seqs per-id values of a trailing seq column, or null for none
+     */
+    private static void write(Path path, MovieStore store, int[] rows, long[] seqs, ForkJoinPool pool,
+                              Charset charset, MovieCompression.Codec codec) throws IOException {
+        try (FileChannel ch = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING)) {
+            if (asciiCompatible(charset)) writeChunks(ch, store, rows, seqs, pool, charset, codec);
+            else writeEncoded(ch, store, rows, seqs, charset, codec);
+            ch.force(true);
+        }
+    }
+
+    private static String header(long[] seqs) {
+        return seqs == null ? HEADER : HEADER + "," + SEQ_COLUMN;
+    }
+
+    /**
+     * Formats chunks of rows in parallel and writes them in file order. At most a few
+     * chunks per worker are formatted ahead of the writer, so memory stays bounded.
+     */
+    private static void writeChunks(FileChannel ch, MovieStore store, int[] rows, long[] seqs, ForkJoinPool pool,
+                                    Charset charset, MovieCompression.Codec codec) throws IOException {
+        Format format = Format.current();
+        byte[] newline = System.lineSeparator().getBytes(charset);
+        ConcurrentLinkedQueue<byte[]> free = new ConcurrentLinkedQueue<>();
+        boolean gzip = codec == MovieCompression.Codec.GZIP;
+        OutputStream deflate = codec == MovieCompression.Codec.DEFLATE
+                ? MovieCompression.compress(Channels.newOutputStream(ch), codec) : null;
+        byte[] header = (header(seqs) + System.lineSeparator()).getBytes(charset);
+        Chunk head = new Chunk(gzip ? MovieCompression.gzipMember(header, header.length) : header);
+        head.length = head.bytes.length;
+        write(ch, deflate, new Chunk[]{head}, 1);
+
+        int size = rows == null ? store.size() : rows.length;
+        int window = Math.max(2, pool.getParallelism() * 2);
+        ArrayDeque<ForkJoinTask<Chunk>> inFlight = new ArrayDeque<>();
+        int next = 0;
+        try {
+            while (next < size || !inFlight.isEmpty()) {
+                while (next < size && inFlight.size() < window) {
+                    int from = next, to = (int) Math.min(size, (long) next + CHUNK_ROWS);
+                    inFlight.add(pool.submit(() -> {
+                        Chunk chunk = format(store, rows, seqs, from, to, format, charset, newline, free);
+                        return gzip ? chunk.compress(free) : chunk;
+                    }));
+                    next = to;
+                }
+                // Write the oldest chunk together with any finished ones right behind it
+                Chunk first = inFlight.poll().join();
+                int n = 1;
+                Chunk[] ready = {first};
+                while (!inFlight.isEmpty() && inFlight.peek().isDone()) {
+                    if (n == ready.length) ready = Arrays.copyOf(ready, n * 2);
+                    ready[n++] = inFlight.poll().join();
+                }
+                write(ch, deflate, ready, n);
+                if (!gzip) for (int i = 0; i < n; i++) free.add(ready[i].bytes);
+            }
+            if (deflate != null) MovieCompression.finish(deflate);
+        } finally {
+            for (ForkJoinTask<Chunk> task : inFlight) task.cancel(false);
+        }
+    }
+
+    /** Writes chunks to the channel, or through the deflate stream if there is one. */
+    private static void write(FileChannel ch, OutputStream deflate, Chunk[] ready, int n) throws IOException {
+        if (deflate != null) {
+            for (int i = 0; i < n; i++) deflate.write(ready[i].bytes, 0, ready[i].length);
+            return;
+        }
+        ByteBuffer[] buffers = new ByteBuffer[n];
+        for (int i = 0; i < n; i++) buffers[i] = ByteBuffer.wrap(ready[i].bytes, 0, ready[i].length);
+        writeFully(ch, buffers);
+    }
+
+    private static void writeFully(FileChannel ch, ByteBuffer[] buffers) throws IOException {
+        int first = 0;
+        while (first < buffers.length) {
+            ch.write(buffers, first, buffers.length - first);
+            while (first < buffers.length && !buffers[first].hasRemaining()) first++;
+        }
+    }
+
+    /**
+     * Fallback for charsets such as UTF-16: rows are formatted with Movie.toString and
+     * run through one encoder, like a FileWriter would.
+     */
+    private static void writeEncoded(FileChannel file, MovieStore store, int[] rows, long[] seqs, Charset charset,
+                                     MovieCompression.Codec codec) throws IOException {
+        OutputStream compressed = codec == MovieCompression.Codec.NONE
+                ? null : MovieCompression.compress(Channels.newOutputStream(file), codec);
+        WritableByteChannel ch = compressed == null ? file : Channels.newChannel(compressed);
+        CharsetEncoder encoder = charset.newEncoder()
+                .onMalformedInput(CodingErrorAction.REPLACE)
+                .onUnmappableCharacter(CodingErrorAction.REPLACE);
+        String newline = System.lineSeparator();
+        ByteBuffer out = ByteBuffer.allocateDirect(LEGACY_BUFFER_BYTES);
+        StringBuilder text = new StringBuilder(LEGACY_BUFFER_BYTES / 4 + 256);
+        text.append(header(seqs)).append(newline);
+        int size = rows == null ? store.size() : rows.length;
+        for (int i = 0; i < size; i++) {
+            int row = rows == null ? i : rows[i];
+            text.append(store.get(row).toString());
+            if (seqs != null) text.append(',').append(seqs[store.id(row)]);
+            text.append(newline);
+            if (text.length() >= LEGACY_BUFFER_BYTES / 4) encode(encoder, text, out, ch, false);
+        }
+        encode(encoder, text, out, ch, true);
+        if (compressed != null) MovieCompression.finish(compressed);
+    }
+
+    /**
+     * Encodes the collected text into out, writing out to the channel whenever it is full.
+     *
+     * @param last end of the file: also flush the encoder and the rest of out
+     */
+    private static void encode(CharsetEncoder encoder, StringBuilder text, ByteBuffer out, WritableByteChannel ch,
+                               boolean last) throws IOException {
+        CharBuffer chars = CharBuffer.wrap(text);
+        while (encoder.encode(chars, out, last).isOverflow()) drain(out, ch);
+        if (last) {
+            while (encoder.flush(out).isOverflow()) drain(out, ch);
+            drain(out, ch);
+        }
+        text.delete(0, chars.position());
+    }
+
+    private static void drain(ByteBuffer out, WritableByteChannel ch) throws IOException {
+        out.flip();
+        while (out.hasRemaining()) ch.write(out);
+        out.clear();
+    }
+
+    /**
+     * True if the charset writes printable ASCII, CR and LF as the same single bytes and
+     * needs no byte order mark, so fields can be encoded independently.
+     */
+    static boolean asciiCompatible(Charset charset) {
+        StringBuilder probe = new StringBuilder("\r\n");
+        for (char c = 0x20; c < 0x7f; c++) probe.append(c);
+        byte[] bytes = probe.toString().getBytes(charset);
+        if (bytes.length != probe.length()) return false;
+        for (int i = 0; i < bytes.length; i++) {
+            if (bytes[i] != probe.charAt(i)) return false;
+        }
+        return true;
+    }
+
+    // ----- Formatting -----
+
+    /** Bytes of one formatted chunk; length may be less than bytes.length. */
+    private static final class Chunk {
+        byte[] bytes;
+        int length;
+
+        Chunk(byte[] bytes) { this.bytes = bytes; }
+
+        void ensure(int extra) {
+            if (length + extra > bytes.length) bytes = Arrays.copyOf(bytes, Math.max(bytes.length * 2, length + extra));
+        }
+
+        void put(byte b) {
+            bytes[length++] = b;
+        }
+
+        /** Replaces the bytes by a gzip member holding them and recycles the old array. */
+        Chunk compress(ConcurrentLinkedQueue<byte[]> free) {
+            byte[] plain = bytes;
+            bytes = MovieCompression.gzipMember(plain, length);
+            length = bytes.length;
+            free.add(plain);
+            return this;
+        }
+
+        void put(byte[] b) {
+            ensure(b.length);
+            System.arraycopy(b, 0, bytes, length, b.length);
+            length += b.length;
+        }
+
+        void putInt(long v) {
+            if (v < 0) {
+                put((byte) '-');
+                v = -v;
+            }
+            int digits = 1;
+            for (long p = 10; p <= v && digits < 19; p *= 10) digits++;
+            for (int i = length + digits - 1; i >= length; i--) {
+                bytes[i] = (byte) ('0' + v % 10);
+                v /= 10;
+            }
+            length += digits;
+        }
+
+        /** Puts a text field, quoted like MovieCsvParser.escape. */
+        void putText(String s, Charset charset) {
+            boolean quote = false;
+            for (int i = 0; i < s.length(); i++) {
+                char c = s.charAt(i);
+                if (c >= 0x80) {
+                    put(MovieCsvParser.escape(s).getBytes(charset));
+                    return;
+                }
+                if (c == ',' || c == '"' || c == '\n' || c == '\r') quote = true;
+            }
+            ensure(s.length() * 2 + 2);
+            if (quote) put((byte) '"');
+            for (int i = 0; i < s.length(); i++) {
+                char c = s.charAt(i);
+                if (c == '"' && quote) put((byte) '"');
+                put((byte) c);
+            }
+            if (quote) put((byte) '"');
+        }
+    }
+
+    /**
+     * Formats positions from..to of rows (rows themselves if rows is null).
+     */
+    private static Chunk format(MovieStore store, int[] rows, long[] seqs, int from, int to, Format format,
+                                Charset charset, byte[] newline, ConcurrentLinkedQueue<byte[]> free) {
+        byte[] reused = free.poll();
+        Chunk out = new Chunk(reused != null ? reused : new byte[(to - from) * 64]);
+        for (int i = from; i < to; i++) {
+            int row = rows == null ? i : rows[i];
+            double rating = store.rating(row);
+            long tenths = format.plain ? tenths(rating) : -1;
+            if (tenths < 0) {
+                out.put(store.get(row).toString().getBytes(charset));
+                if (seqs != null) {
+                    out.ensure(24);
+                    out.put((byte) ',');
+                    out.putInt(seqs[store.id(row)]);
+                }
+                out.put(newline);
+                continue;
+            }
+            out.putText(store.title(row), charset);
+            out.ensure(64);
+            out.put((byte) ',');
+            out.putInt(store.year(row));
+            out.put((byte) ',');
+            out.putText(store.director(row), charset);
+            out.ensure(64 + newline.length);
+            out.put((byte) ',');
+            out.putInt(tenths / 10);
+            out.put((byte) format.decimalSeparator);
+            out.put((byte) ('0' + tenths % 10));
+            out.put((byte) ',');
+            out.putInt(store.runtimeMinutes(row));
+            out.put((byte) ',');
+            out.putInt(store.votes(row));
+            out.put((byte) ',');
+            out.put(store.watched(row) ? TRUE : FALSE);
+            if (seqs != null) {
+                out.ensure(24 + newline.length);
+                out.put((byte) ',');
+                out.putInt(seqs[store.id(row)]);
+            }
+            out.put(newline);
+        }
+        return out;
+    }
+
+    private static final byte[] TRUE = {'t', 'r', 'u', 'e'};
+    private static final byte[] FALSE = {'f', 'a', 'l', 's', 'e'};
+
+    /**
+     * The rating in tenths if String.format("%.1f") would print it exactly, i.e. it is the
+     * double closest to a number with one decimal; otherwise -1. Negative values, -0.0,
+     * NaN and very large values return -1 as well.
+     */
+    static long tenths(double value) {
+        if (!(value >= 0 && value < 1e9) || Double.doubleToRawLongBits(value) < 0) return -1;
+        double scaled = Math.rint(value * 10);
+        return scaled / 10 == value ? (long) scaled : -1;
+    }
+
+    /**
+     * Formats one movie like String.format("%s,%d,%s,%.1f,%d,%d,%s", ...) with the
+     * title and director escaped. Used by Movie.toString.
+     */
+    static String format(String title, int year, String director, double rating, int runtimeMinutes,
+                         int votes, boolean watched) {
+        Format format = Format.current();
+        long tenths = format.plain ? tenths(rating) : -1;
+        if (tenths < 0) {
+            return String.format("%s,%d,%s,%.1f,%d,%d,%s", MovieCsvParser.escape(title), year,
+                    MovieCsvParser.escape(director), rating, runtimeMinutes, votes, watched);
+        }
+        String t = MovieCsvParser.escape(title), d = MovieCsvParser.escape(director);
+        return new StringBuilder(t.length() + d.length() + 40)
+                .append(t).append(',').append(year).append(',').append(d).append(',')
+                .append(tenths / 10).append(format.decimalSeparator).append((char) ('0' + tenths % 10))
+                .append(',').append(runtimeMinutes).append(',').append(votes).append(',').append(watched)
+                .toString();
+    }
+
+    /**
+     * A rating as Movie.toString prints it, e.g. "7.5".
+     */
+    static String formatRating(double rating) {
+        Format format = Format.current();
+        long tenths = format.plain ? tenths(rating) : -1;
+        if (tenths < 0) return String.format("%.1f", rating);
+        return new StringBuilder(8).append(tenths / 10).append(format.decimalSeparator)
+                .append((char) ('0' + tenths % 10)).toString();
+    }
+
+    /**
+     * Number symbols of the default format locale, which String.format uses. "plain"
+     * means digits are 0-9 and the decimal separator is ASCII, so numbers can be written
+     * by hand.
+     */
+    private static final class Format {
+        private static volatile Format cached;
+
+        final Locale locale;
+        final boolean plain;
+        final char decimalSeparator;
+
+        private Format(Locale locale) {
+            DecimalFormatSymbols symbols = DecimalFormatSymbols.getInstance(locale);
+            this.locale = locale;
+            this.decimalSeparator = symbols.getDecimalSeparator();
+            this.plain = symbols.getZeroDigit() == '0' && decimalSeparator < 0x80;
+        }
+
+        static Format current() {
+            Locale locale = Locale.getDefault(Locale.Category.FORMAT);
+            Format f = cached;
+            if (f == null || f.locale != locale) cached = f = new Format(locale);
+            return f;
+        }
+    }
+}
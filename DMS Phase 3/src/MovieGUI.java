@@ -4,35 +4,119 @@
 
 import javax.swing.*;
 import javax.swing.table.*;
+import javax.swing.event.DocumentEvent;
+import javax.swing.event.DocumentListener;
 import java.awt.*;
+import java.awt.event.MouseAdapter;
+import java.awt.event.MouseEvent;
+import java.awt.event.WindowAdapter;
+import java.awt.event.WindowEvent;
+import java.io.IOException;
 import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 /**
  * Enhanced Graphical User Interface for managing movies.
  * Uses MovieDialogGUI for adding/editing movies and displaying scariness.
+ * Changes and imports run on a single background thread, in the order they were
+ * requested, so the window stays responsive; results are shown back on the EDT.
+ * The filter bar and column headers run searches on another background thread as the
+ * user types (debounced); a newer search cancels the one still running.
  */
 public class MovieGUI extends JFrame {
 
     private final MovieManager manager;
-    private final DefaultTableModel tableModel;
+    private final MovieTableModel tableModel;
     private final JTable movieTable;
+    private final JButton uploadButton;
+
+    // ----- Background Work -----
+    private final ExecutorService background = Executors.newSingleThreadExecutor(r -> {
+        Thread t = new Thread(r, "movie-gui-worker");
+        t.setDaemon(true);
+        return t;
+    });
+    private final JPanel progressPanel = new JPanel(new BorderLayout(10, 0));
+    private final JProgressBar progressBar = new JProgressBar();
+    private final AtomicBoolean importCancelled = new AtomicBoolean();
+    private boolean closing;    // set once the window was asked to close
+
+    // ----- Filtering and Sorting -----
+    private static final int FIRST_PAGE = 200;        // rows shown before the full result is ready
+    private static final int FILTER_DELAY_MS = 150;   // typing pause before a search starts
+    private final ExecutorService searcher = Executors.newSingleThreadExecutor(r -> {
+        Thread t = new Thread(r, "movie-gui-search");
+        t.setDaemon(true);
+        return t;
+    });
+    private final JTextField searchField = new JTextField(16);
+    private final JTextField minYearField = new JTextField(4);
+    private final JTextField maxYearField = new JTextField(4);
+    private final JTextField minRatingField = new JTextField(3);
+    private final JTextField maxRatingField = new JTextField(3);
+    private final JComboBox<String> watchedBox = new JComboBox<>(new String[]{"Any", "Watched", "Not watched"});
+    private final JLabel statusLabel = new JLabel();
+    private final Timer filterTimer = new Timer(FILTER_DELAY_MS, e -> runSearch());
+    private AtomicBoolean searchCancelled;   // flag of the latest search, set to drop it
+    private MovieQuery.SortKey sortKey;      // null = catalog order
+    private boolean sortDescending;
+
+    // Created once; the renderer runs for every visible cell while scrolling
+    private static final Color SELECTED_BG = new Color(0, 120, 215);
+    private static final Color EVEN_ROW_BG = new Color(45, 45, 45);
+    private static final Color ODD_ROW_BG = new Color(60, 60, 60);
 
     public MovieGUI(MovieManager manager) {
         super("🎬 Horror Movies Manager (GUI)");
         this.manager = manager;
 
         setSize(950, 500);
-        setDefaultCloseOperation(JFrame.EXIT_ON_CLOSE);
+        setDefaultCloseOperation(JFrame.DO_NOTHING_ON_CLOSE);
         setLocationRelativeTo(null);
         setLayout(new BorderLayout());
         getContentPane().setBackground(new Color(30, 30, 30));
 
-        // ----- Table Setup -----
-        String[] columns = {"Title", "Year", "Director", "Rating", "Runtime", "Votes", "Watched"};
-        tableModel = new DefaultTableModel(columns, 0) {
+        // Let queued changes finish, then flush the journal into the CSV snapshot before the JVM exits
+        addWindowListener(new WindowAdapter() {
             @Override
-            public boolean isCellEditable(int row, int column) { return false; }
-        };
+            public void windowClosing(WindowEvent e) {
+                if (closing) return;
+                closing = true;
+                importCancelled.set(true);
+                if (searchCancelled != null) searchCancelled.set(true);
+                background.shutdown();
+                progressBar.setIndeterminate(true);
+                progressBar.setString("Saving changes...");
+                progressPanel.setVisible(true);
+                revalidate();
+                setEnabled(false);
+                new Thread(MovieGUI.this::shutDown, "movie-gui-shutdown").start();
+            }
+        });
+
+        // ----- Progress Bar (shown while importing) -----
+        JButton cancelButton = createButton("Cancel", new Color(244, 67, 54));
+        cancelButton.addActionListener(e -> importCancelled.set(true));
+        progressBar.setStringPainted(true);
+        progressPanel.setBackground(new Color(30, 30, 30));
+        progressPanel.setBorder(BorderFactory.createEmptyBorder(8, 15, 0, 15));
+        progressPanel.add(progressBar, BorderLayout.CENTER);
+        progressPanel.add(cancelButton, BorderLayout.EAST);
+        progressPanel.setVisible(false);
+
+        JPanel northPanel = new JPanel();
+        northPanel.setLayout(new BoxLayout(northPanel, BoxLayout.Y_AXIS));
+        northPanel.setBackground(new Color(30, 30, 30));
+        northPanel.add(createFilterBar());
+        northPanel.add(progressPanel);
+        add(northPanel, BorderLayout.NORTH);
+
+        // ----- Table Setup -----
+        tableModel = new MovieTableModel(manager);
         movieTable = new JTable(tableModel);
         movieTable.setSelectionMode(ListSelectionModel.SINGLE_SELECTION);
         movieTable.setFont(new Font("SansSerif", Font.PLAIN, 14));
@@ -48,16 +132,25 @@ public class MovieGUI extends JFrame {
                                                            int row, int column) {
                 Component c = super.getTableCellRendererComponent(table, value, isSelected, hasFocus, row, column);
                 if (isSelected) {
-                    c.setBackground(new Color(0, 120, 215));
+                    c.setBackground(SELECTED_BG);
                     c.setForeground(Color.WHITE);
                 } else {
-                    c.setBackground(row % 2 == 0 ? new Color(45, 45, 45) : new Color(60, 60, 60));
+                    c.setBackground(row % 2 == 0 ? EVEN_ROW_BG : ODD_ROW_BG);
                     c.setForeground(Color.WHITE);
                 }
                 return c;
             }
         });
 
+        // Click a column header to sort: ascending, descending, then back to catalog order
+        movieTable.getTableHeader().addMouseListener(new MouseAdapter() {
+            @Override
+            public void mouseClicked(MouseEvent e) {
+                int column = movieTable.columnAtPoint(e.getPoint());
+                if (column >= 0) toggleSort(movieTable.convertColumnIndexToModel(column));
+            }
+        });
+
         add(new JScrollPane(movieTable), BorderLayout.CENTER);
 
         // ----- Button Panel -----
@@ -68,7 +161,7 @@ public class MovieGUI extends JFrame {
         JButton addButton = createButton("Add Movie", new Color(76, 175, 80));
         JButton editButton = createButton("Edit Movie", new Color(255, 193, 7));
         JButton deleteButton = createButton("Delete Movie", new Color(244, 67, 54));
-        JButton uploadButton = createButton("Upload CSV", new Color(33, 150, 243));
+        uploadButton = createButton("Upload CSV", new Color(33, 150, 243));
         JButton scarinessButton = createButton("Calculate Scariness", new Color(156, 39, 176));
 
         buttonPanel.add(addButton);
@@ -86,8 +179,8 @@ public class MovieGUI extends JFrame {
         uploadButton.addActionListener(e -> uploadCSV());
         scarinessButton.addActionListener(e -> calculateScariness());
 
-        // Load existing movies
-        refreshTable();
+        filterTimer.setRepeats(false);
+        statusLabel.setText(String.format("%,d movies", tableModel.getRowCount()));
     }
 
     private JButton createButton(String text, Color bg) {
@@ -100,29 +193,216 @@ public class MovieGUI extends JFrame {
         return btn;
     }
 
-    private void refreshTable() {
-        tableModel.setRowCount(0);
-        List<Movie> movies = manager.getAll();
-        for (Movie m : movies) {
-            tableModel.addRow(new Object[]{
-                    m.getTitle(),
-                    m.getYear(),
-                    m.getDirector(),
-                    m.getRating(),
-                    m.getRuntimeMinutes(),
-                    m.getVotes(),
-                    m.isWatched() ? "Yes" : "No"
-            });
+    private JPanel createFilterBar() {
+        JPanel bar = new JPanel(new FlowLayout(FlowLayout.LEFT, 8, 8));
+        bar.setBackground(new Color(30, 30, 30));
+
+        DocumentListener restartTimer = new DocumentListener() {
+            @Override public void insertUpdate(DocumentEvent e) { filterTimer.restart(); }
+            @Override public void removeUpdate(DocumentEvent e) { filterTimer.restart(); }
+            @Override public void changedUpdate(DocumentEvent e) { filterTimer.restart(); }
+        };
+        bar.add(createLabel("Search:"));
+        bar.add(searchField);
+        bar.add(createLabel("Year:"));
+        bar.add(minYearField);
+        bar.add(createLabel("-"));
+        bar.add(maxYearField);
+        bar.add(createLabel("Rating:"));
+        bar.add(minRatingField);
+        bar.add(createLabel("-"));
+        bar.add(maxRatingField);
+        for (JTextField field : new JTextField[]{searchField, minYearField, maxYearField, minRatingField, maxRatingField}) {
+            field.getDocument().addDocumentListener(restartTimer);
+        }
+        watchedBox.addActionListener(e -> filterTimer.restart());
+        bar.add(watchedBox);
+        statusLabel.setForeground(Color.LIGHT_GRAY);
+        bar.add(statusLabel);
+        return bar;
+    }
+
+    private JLabel createLabel(String text) {
+        JLabel label = new JLabel(text);
+        label.setForeground(Color.WHITE);
+        label.setFont(new Font("SansSerif", Font.BOLD, 13));
+        return label;
+    }
+
+    // ----- Filtering and Sorting -----
+
+    private void toggleSort(int column) {
+        MovieQuery.SortKey key = tableModel.sortKey(column);
+        if (sortKey != key) {
+            sortKey = key;
+            sortDescending = false;
+        } else if (!sortDescending) {
+            sortDescending = true;
+        } else {
+            sortKey = null;
         }
+        for (int i = 0; i < movieTable.getColumnCount(); i++) {
+            int modelColumn = movieTable.convertColumnIndexToModel(i);
+            String name = tableModel.getColumnName(modelColumn);
+            if (sortKey != null && tableModel.sortKey(modelColumn) == sortKey) name += sortDescending ? " ▼" : " ▲";
+            movieTable.getColumnModel().getColumn(i).setHeaderValue(name);
+        }
+        movieTable.getTableHeader().repaint();
+        runSearch();
+    }
+
+    /**
+     * Builds a query from the filter bar and sort column, or null if nothing is set.
+     * Fields that do not hold a valid number are shown in red and ignored.
+     */
+    private MovieQuery buildQuery() {
+        MovieQuery q = MovieQuery.all();
+        boolean any = false;
+        String text = searchField.getText().trim();
+        if (!text.isEmpty()) {
+            q.titleOrDirectorContains(text);
+            any = true;
+        }
+        Double minYear = number(minYearField), maxYear = number(maxYearField);
+        if (minYear != null || maxYear != null) {
+            q.yearBetween(minYear != null ? minYear.intValue() : Integer.MIN_VALUE,
+                    maxYear != null ? maxYear.intValue() : Integer.MAX_VALUE);
+            any = true;
+        }
+        Double minRating = number(minRatingField), maxRating = number(maxRatingField);
+        if (minRating != null || maxRating != null) {
+            q.ratingBetween(minRating != null ? minRating : Double.NEGATIVE_INFINITY,
+                    maxRating != null ? maxRating : Double.POSITIVE_INFINITY);
+            any = true;
+        }
+        if (watchedBox.getSelectedIndex() > 0) {
+            q.watched(watchedBox.getSelectedIndex() == 1);
+            any = true;
+        }
+        if (sortKey != null) {
+            q.orderBy(sortKey, sortDescending);
+            any = true;
+        }
+        return any ? q : null;
+    }
+
+    private static Double number(JTextField field) {
+        String text = field.getText().trim();
+        field.setForeground(Color.BLACK);
+        if (text.isEmpty()) return null;
+        try {
+            return Double.parseDouble(text);
+        } catch (NumberFormatException e) {
+            field.setForeground(Color.RED);
+            return null;
+        }
+    }
+
+    /**
+     * Starts a search for the current filter and sort, dropping the previous one.
+     * Without an orderBy a first page is shown as soon as it is found, then the full result.
+     */
+    private void runSearch() {
+        filterTimer.stop();
+        if (searchCancelled != null) searchCancelled.set(true);
+        MovieQuery q = buildQuery();
+        if (q == null) {
+            searchCancelled = null;
+            tableModel.showAll();
+            statusLabel.setText(String.format("%,d movies", tableModel.getRowCount()));
+            return;
+        }
+
+        AtomicBoolean cancelled = new AtomicBoolean();
+        searchCancelled = cancelled;
+        statusLabel.setText("Searching...");
+        searcher.execute(() -> {
+            try {
+                if (cancelled.get()) return;
+                MovieManager.QueryResult first = manager.search(q, FIRST_PAGE, cancelled::get);
+                boolean complete = first.rows.length < FIRST_PAGE;
+                showSearchResult(first, cancelled, complete);
+                if (!complete) showSearchResult(manager.search(q, Integer.MAX_VALUE, cancelled::get), cancelled, true);
+            } catch (CancellationException e) {
+                // a newer search replaced this one
+            }
+        });
+    }
+
+    private void showSearchResult(MovieManager.QueryResult result, AtomicBoolean cancelled, boolean complete) {
+        SwingUtilities.invokeLater(() -> {
+            if (cancelled.get()) return;
+            tableModel.showResult(result);
+            statusLabel.setText(complete
+                    ? String.format("%,d of %,d movies", result.rows.length, result.store.size())
+                    : String.format("First %,d matches, still searching...", result.rows.length));
+        });
+    }
+
+    /**
+     * Brings the table up to date after a change: the search is re-run while a filter or
+     * sort is active, otherwise the model applies a fine-grained update.
+     */
+    private void refresh(Runnable modelUpdate) {
+        if (tableModel.isFiltered()) {
+            runSearch();
+        } else {
+            modelUpdate.run();
+            statusLabel.setText(String.format("%,d movies", tableModel.getRowCount()));
+        }
+    }
+
+    /**
+     * Runs work on the background thread, then onDone on the EDT. If the work fails,
+     * the error is shown on the EDT instead and onDone does not run.
+     */
+    private void runInBackground(Runnable work, Runnable onDone) {
+        background.execute(() -> {
+            try {
+                work.run();
+            } catch (RuntimeException e) {
+                SwingUtilities.invokeLater(() -> JOptionPane.showMessageDialog(this,
+                        "❌ " + e.getMessage(), "Operation failed", JOptionPane.ERROR_MESSAGE));
+                return;
+            }
+            SwingUtilities.invokeLater(onDone);
+        });
+    }
+
+    /**
+     * Waits for the queued changes (a running import is cancelled), saves the catalog,
+     * then closes the window and exits. Runs on its own thread so the EDT keeps painting
+     * the window meanwhile.
+     */
+    private void shutDown() {
+        try {
+            background.awaitTermination(1, TimeUnit.MINUTES);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        String error = null;
+        try {
+            manager.close();
+        } catch (IOException e) {
+            error = "Save failed: " + e.getMessage()
+                    + "\nYour changes are kept in the journal and restored on the next start.";
+        }
+        String message = error;
+        SwingUtilities.invokeLater(() -> {
+            if (message != null) JOptionPane.showMessageDialog(this, message);
+            dispose();
+            System.exit(0);
+        });
     }
 
     // ----- GUI Actions using MovieDialogGUI -----
     private void addMovie() {
         Movie m = MovieDialogGUI.showDialog(this, null);
         if (m != null) {
-            manager.addMovie(m);
-            refreshTable();
-            JOptionPane.showMessageDialog(this, "✅ Movie added successfully!");
+            runInBackground(() -> manager.addMovie(m), () -> {
+                refresh(tableModel::moviesAdded);
+                JOptionPane.showMessageDialog(this, "✅ Movie added successfully!");
+            });
         }
     }
 
@@ -132,13 +412,14 @@ public class MovieGUI extends JFrame {
             JOptionPane.showMessageDialog(this, "⚠️ Please select a movie to edit.");
             return;
         }
-        Movie oldMovie = manager.getAll().get(row);
+        int id = tableModel.idAt(row);
+        Movie oldMovie = manager.getById(id);
         Movie updatedMovie = MovieDialogGUI.showDialog(this, oldMovie);
         if (updatedMovie != null) {
-            manager.removeMovie(row);
-            manager.addMovie(updatedMovie);
-            refreshTable();
-            JOptionPane.showMessageDialog(this, "✅ Movie updated successfully!");
+            runInBackground(() -> manager.updateMovie(id, updatedMovie), () -> {
+                refresh(() -> tableModel.movieUpdated(id));
+                JOptionPane.showMessageDialog(this, "✅ Movie updated successfully!");
+            });
         }
     }
 
@@ -150,9 +431,11 @@ public class MovieGUI extends JFrame {
         }
         int confirm = JOptionPane.showConfirmDialog(this, "Are you sure you want to delete this movie?", "Confirm Delete", JOptionPane.YES_NO_OPTION);
         if (confirm == JOptionPane.YES_OPTION) {
-            manager.removeMovie(row);
-            refreshTable();
-            JOptionPane.showMessageDialog(this, "🗑️ Movie deleted successfully.");
+            int id = tableModel.idAt(row);
+            runInBackground(() -> manager.removeById(id), () -> {
+                refresh(() -> tableModel.movieRemoved(id));
+                JOptionPane.showMessageDialog(this, "🗑️ Movie deleted successfully.");
+            });
         }
     }
 
@@ -161,9 +444,82 @@ public class MovieGUI extends JFrame {
         int result = chooser.showOpenDialog(this);
         if (result == JFileChooser.APPROVE_OPTION) {
             String path = chooser.getSelectedFile().getAbsolutePath();
-            MovieManager.UploadReport report = manager.uploadCSV(path);
-            refreshTable();
-            JOptionPane.showMessageDialog(this, "Upload finished. Inserted: " + report.inserted + ", Errors: " + report.errors.size());
+            MovieUpsert.Mode mode = chooseImportMode();
+            if (mode == null) return;
+            importCancelled.set(false);
+            uploadButton.setEnabled(false);
+            progressBar.setIndeterminate(true);
+            progressBar.setString("Reading " + chooser.getSelectedFile().getName() + "...");
+            progressPanel.setVisible(true);
+            revalidate();
+            background.execute(new ImportWorker(path, mode));
+        }
+    }
+
+    /**
+     * Asks what to do with imported movies that are already in the catalog.
+     *
+     * @return the chosen mode, or null if the dialog was closed
+     */
+    private MovieUpsert.Mode chooseImportMode() {
+        String[] options = {"Add all", "Keep existing", "Overwrite", "Merge votes"};
+        int choice = JOptionPane.showOptionDialog(this,
+                "Movies with the same title, year and director may already be in the catalog.\n"
+                        + "What should happen to them?",
+                "Upload CSV", JOptionPane.DEFAULT_OPTION, JOptionPane.QUESTION_MESSAGE, null, options, options[1]);
+        if (choice < 0) return null;
+        return MovieUpsert.Mode.values()[choice];
+    }
+
+    /**
+     * Imports a CSV file off the EDT. Progress snapshots are published to the progress bar
+     * (Swing coalesces them, so the bar updates a few times per second at most) and the
+     * imported rows reach the table as one insert event when the import is committed.
+     * Cancel sets a flag the import polls; a cancelled import adds no movies.
+     */
+    private class ImportWorker extends SwingWorker<MovieManager.UploadReport, ParallelCsvImporter.Progress> {
+        private final String path;
+        private final MovieUpsert.Mode mode;
+
+        ImportWorker(String path, MovieUpsert.Mode mode) {
+            this.path = path;
+            this.mode = mode;
+        }
+
+        @Override
+        protected MovieManager.UploadReport doInBackground() {
+            return manager.uploadCSVParallel(path, mode, this::publish, importCancelled::get);
+        }
+
+        @Override
+        protected void process(List<ParallelCsvImporter.Progress> updates) {
+            ParallelCsvImporter.Progress p = updates.get(updates.size() - 1);
+            progressBar.setString(String.format("%,d rows parsed, %,d errors (%,.0f rows/s)",
+                    p.rowsParsed, p.errors, p.rowsPerSecond));
+        }
+
+        @Override
+        protected void done() {
+            progressPanel.setVisible(false);
+            progressBar.setIndeterminate(false);
+            uploadButton.setEnabled(true);
+            revalidate();
+            try {
+                MovieManager.UploadReport report = get();
+                refresh(report.updated > 0 ? tableModel::reload : tableModel::moviesAdded);
+                if (importCancelled.get() && report.inserted == 0 && report.updated == 0) {
+                    JOptionPane.showMessageDialog(MovieGUI.this, "Upload cancelled. No movies were added.");
+                } else if (mode == MovieUpsert.Mode.APPEND) {
+                    JOptionPane.showMessageDialog(MovieGUI.this, "Upload finished. Inserted: " + report.inserted + ", Errors: " + report.errors.size());
+                } else {
+                    JOptionPane.showMessageDialog(MovieGUI.this, "Upload finished. Inserted: " + report.inserted
+                            + ", Updated: " + report.updated + ", Duplicates: " + report.duplicates
+                            + ", Errors: " + report.errors.size());
+                }
+            } catch (Exception e) {
+                refresh(tableModel::moviesAdded);
+                JOptionPane.showMessageDialog(MovieGUI.this, "Upload failed: " + e.getMessage());
+            }
         }
     }
 
@@ -173,7 +529,7 @@ public class MovieGUI extends JFrame {
             JOptionPane.showMessageDialog(this, "⚠️ Please select a movie to calculate scariness.");
             return;
         }
-        Movie m = manager.getAll().get(row);
+        Movie m = manager.getById(tableModel.idAt(row));
         MovieDialogGUI.showScarinessDialog(this, m);
     }
 }
@@ -0,0 +1,210 @@
+// ============================================
+// MovieIndex.java
+// Secondary indexes over the movie store, keyed by stable movie id
+// ============================================
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.TreeMap;
+
+/**
+ * Hash and sorted indexes used to answer MovieQuery without scanning the catalog.
+ *   - title    : hash map for exact lookups plus a sorted map for prefix lookups
+ *   - director : hash map
+ *   - year     : sorted map for range lookups
+ *   - rating   : sorted map for range lookups
+ * Buckets hold movie ids (see MovieStore.id), so they stay valid when rows shift.
+ * Keys are normalized with MovieQuery.normalize.
+ * For each index the position of every id inside its bucket is kept as well, so a
+ * movie is removed in O(1) however large its year or rating bucket is.
+ */
+public class MovieIndex {
+
+    private final Map<String, IntList> byTitle = new HashMap<>();
+    private final TreeMap<String, IntList> titlesSorted = new TreeMap<>();
+    private final Map<String, IntList> byDirector = new HashMap<>();
+    private final TreeMap<Integer, IntList> byYear = new TreeMap<>();
+    private final TreeMap<Double, IntList> byRating = new TreeMap<>();
+
+    // Position of each id in its bucket, by id; -1 for ids not indexed
+    private final IntList titleSlots = new IntList();
+    private final IntList directorSlots = new IntList();
+    private final IntList yearSlots = new IntList();
+    private final IntList ratingSlots = new IntList();
+
+    // ----- Building -----
+
+    /**
+     * Builds all indexes from the current contents of the store.
+     */
+    public static MovieIndex build(MovieStore store) {
+        MovieIndex index = new MovieIndex();
+        for (int row = 0; row < store.size(); row++) index.add(store, row);
+        return index;
+    }
+
+    /**
+     * Indexes the movie currently at the given row.
+     */
+    public void add(MovieStore store, int row) {
+        add(store.id(row), store.title(row), store.director(row), store.year(row), store.rating(row));
+    }
+
+    /**
+     * Indexes a movie under the given id.
+     */
+    public void add(int id, Movie m) {
+        add(id, m.getTitle(), m.getDirector(), m.getYear(), m.getRating());
+    }
+
+    private void add(int id, String rawTitle, String director, int year, double rating) {
+        String title = MovieQuery.normalize(rawTitle);
+        IntList titleIds = byTitle.get(title);
+        if (titleIds == null) {
+            titleIds = new IntList(1);
+            byTitle.put(title, titleIds);
+            titlesSorted.put(title, titleIds);
+        }
+        addTo(titleIds, titleSlots, id);
+        addTo(byDirector.computeIfAbsent(MovieQuery.normalize(director), k -> new IntList()), directorSlots, id);
+        addTo(byYear.computeIfAbsent(year, k -> new IntList()), yearSlots, id);
+        addTo(byRating.computeIfAbsent(rating + 0.0, k -> new IntList()), ratingSlots, id); // + 0.0 folds -0.0 into 0.0
+    }
+
+    private static void addTo(IntList ids, IntList slots, int id) {
+        if (id >= slots.size()) slots.fill(id + 1, -1);
+        slots.set(id, ids.size());
+        ids.add(id);
+    }
+
+    /**
+     * Removes the movie currently at the given row. Must be called before the store changes.
+     */
+    public void remove(MovieStore store, int row) {
+        remove(store.id(row), store.get(row));
+    }
+
+    /**
+     * Removes a movie indexed under the given id; m must hold the values it was indexed with.
+     */
+    public void remove(int id, Movie m) {
+        String title = MovieQuery.normalize(m.getTitle());
+        if (removeFrom(byTitle, title, titleSlots, id)) titlesSorted.remove(title);
+        removeFrom(byDirector, MovieQuery.normalize(m.getDirector()), directorSlots, id);
+        removeFrom(byYear, m.getYear(), yearSlots, id);
+        removeFrom(byRating, m.getRating() + 0.0, ratingSlots, id);
+    }
+
+    /**
+     * Swaps the last id of the bucket into the removed id's slot.
+     *
+     * @return true if the bucket became empty and was dropped
+     */
+    private static <K> boolean removeFrom(Map<K, IntList> map, K key, IntList slots, int id) {
+        IntList ids = map.get(key);
+        if (ids == null || id >= slots.size()) return false;
+        int slot = slots.get(id);
+        if (slot < 0 || slot >= ids.size() || ids.get(slot) != id) return false;
+        int moved = ids.removeAt(slot);
+        if (moved >= 0) slots.set(moved, slot);
+        slots.set(id, -1);
+        if (!ids.isEmpty()) return false;
+        map.remove(key);
+        return true;
+    }
+
+    // ----- Lookups -----
+
+    /**
+     * Returns candidate ids from the most selective indexed criterion of the query,
+     * or null if the query has no indexed criterion (a full scan is needed).
+     * Candidates still have to be checked against the whole query.
+     */
+    public IntList candidates(MovieQuery q) {
+        IntList best = null;
+        if (q.titleEquals != null) best = smaller(best, bucket(byTitle.get(q.titleEquals)));
+        if (q.director != null) best = smaller(best, bucket(byDirector.get(q.director)));
+        if (best != null && best.size() <= 1) return best;
+
+        // Range lookups: count first so only the smallest range is collected
+        NavigableMap<String, IntList> prefixRange = null;
+        NavigableMap<Integer, IntList> yearRange = null;
+        NavigableMap<Double, IntList> ratingRange = null;
+        long prefixCount = Long.MAX_VALUE, yearCount = Long.MAX_VALUE, ratingCount = Long.MAX_VALUE;
+        if (q.titlePrefix != null) {
+            prefixRange = titlesSorted.subMap(q.titlePrefix, true, q.titlePrefix + Character.MAX_VALUE, false);
+            prefixCount = count(prefixRange);
+        }
+        if (q.hasYearRange()) {
+            if (q.minYear > q.maxYear) return new IntList(0);
+            yearRange = byYear.subMap(q.minYear, true, q.maxYear, true);
+            yearCount = count(yearRange);
+        }
+        if (q.hasRatingRange()) {
+            if (!(q.minRating <= q.maxRating)) return new IntList(0);
+            ratingRange = byRating.subMap(q.minRating, true, q.maxRating, true);
+            ratingCount = count(ratingRange);
+        }
+
+        long bestCount = best == null ? Long.MAX_VALUE : best.size();
+        long minRange = Math.min(prefixCount, Math.min(yearCount, ratingCount));
+        if (minRange >= bestCount) return best;
+        if (minRange == prefixCount) return collect(prefixRange, prefixCount);
+        if (minRange == yearCount) return collect(yearRange, yearCount);
+        return collect(ratingRange, ratingCount);
+    }
+
+    private static IntList bucket(IntList ids) {
+        return ids == null ? new IntList(0) : ids;
+    }
+
+    private static IntList smaller(IntList a, IntList b) {
+        return a == null || b.size() < a.size() ? b : a;
+    }
+
+    // ----- Ordering -----
+
+    /**
+     * Position of every indexed id in case-insensitive title order, read off the sorted
+     * title index. Movies with the same title share a rank.
+     *
+     * @param idLimit one more than the largest id that can occur
+     */
+    public int[] titleRanks(int idLimit) {
+        int[] ranks = new int[idLimit];
+        int rank = 0;
+        for (IntList ids : titlesSorted.values()) {
+            for (int i = 0; i < ids.size(); i++) ranks[ids.get(i)] = rank;
+            rank++;
+        }
+        return ranks;
+    }
+
+    /**
+     * Position of every indexed id in case-insensitive director order.
+     *
+     * @param idLimit one more than the largest id that can occur
+     */
+    public int[] directorRanks(int idLimit) {
+        int[] ranks = new int[idLimit];
+        int rank = 0;
+        for (IntList ids : new TreeMap<>(byDirector).values()) {
+            for (int i = 0; i < ids.size(); i++) ranks[ids.get(i)] = rank;
+            rank++;
+        }
+        return ranks;
+    }
+
+    private static long count(Map<?, IntList> range) {
+        long n = 0;
+        for (IntList ids : range.values()) n += ids.size();
+        return n;
+    }
+
+    private static IntList collect(Map<?, IntList> range, long count) {
+        IntList out = new IntList((int) Math.min(count, Integer.MAX_VALUE));
+        for (IntList ids : range.values()) ids.addTo(out);
+        return out;
+    }
+}
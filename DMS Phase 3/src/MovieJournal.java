@@ -0,0 +1,406 @@
+// ============================================
+// MovieJournal.java
+// Append-only write-ahead log for MovieManager mutations
+// ============================================
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.*;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.zip.CRC32;
+
+/**
+ * Append-only journal of add/remove/update operations.
+ * Each record is written as [length][crc32][seq, op, index, movie fields], so a mutation
+ * costs one small append instead of a full CSV rewrite. A torn tail (the last record,
+ * cut short or damaged by a crash mid-write) is detected by the checksum and discarded
+ * on replay. A damaged record with more data after it is not a torn write; replay
+ * fails then instead of dropping the records that follow.
+ *
+ * Appended records are buffered in memory until flush(), which writes them with one
+ * write call and optionally forces them to disk. MovieManager decides when to flush
+ * according to its durability mode, so many records can share a single fsync.
+ * A flush that fails leaves the file as it was and the records buffered; records of a
+ * change that is given up can then be dropped with rollback().
+ *
+ * Two files are used next to the CSV snapshot:
+ *   - "<csv>.journal"   : the active journal receiving new records
+ *   - "<csv>.journal.1" : a rotated segment that is being compacted into the snapshot
+ */
+public class MovieJournal implements Closeable {
+
+    /** Kind of mutation stored in a record. */
+    public enum Op { ADD, REMOVE, UPDATE }
+
+    /**
+     * A single replayed journal record.
+     */
+    public static class Entry {
+        public final long seq;
+        public final Op op;
+        public final int index;     // position for REMOVE/UPDATE, -1 for ADD
+        public final Movie movie;   // null for REMOVE
+
+        public Entry(long seq, Op op, int index, Movie movie) {
+            this.seq = seq;
+            this.op = op;
+            this.index = index;
+            this.movie = movie;
+        }
+    }
+
+    /**
+     * End of the buffered records at some moment, to drop the records appended after it.
+     */
+    public static final class Mark {
+        final int bytes;
+        final int records;
+
+        Mark(int bytes, int records) {
+            this.bytes = bytes;
+            this.records = records;
+        }
+    }
+
+    private static final int MAX_RECORD_BYTES = 1 << 20; // sanity limit while replaying
+
+    private final Path activePath;
+    private final Path segmentPath;
+    private FileChannel channel;
+    private long nextSeq = 1;
+    private ByteArrayOutputStream pending = new ByteArrayOutputStream(4096); // encoded, not yet written
+    private int pendingRecords;
+    private boolean unsynced;   // bytes were written since the last force
+
+    // ----- Constructor -----
+
+    /**
+     * Creates a journal for the given CSV snapshot path. Nothing is opened until replay().
+     *
+     * @param snapshotPath path to the CSV snapshot the journal belongs to
+     */
+    public MovieJournal(String snapshotPath) {
+        this.activePath = Paths.get(snapshotPath + ".journal");
+        this.segmentPath = Paths.get(snapshotPath + ".journal.1");
+    }
+
+    // ----- Replay -----
+
+    /**
+     * Reads the rotated segment (if any) followed by the active journal and returns all
+     * valid records in order. A torn tail of the active journal is truncated so that
+     * new records are appended after the last good one.
+     *
+     * @throws IOException if a file cannot be read or is damaged before its end; the
+     *                     files are left as they are then
+     */
+    public synchronized List<Entry> replay() throws IOException {
+        writePending();
+        closeChannel();
+        List<Entry> entries = new ArrayList<>();
+        if (Files.exists(segmentPath)) readRecords(segmentPath, entries);
+        long validBytes = Files.exists(activePath) ? readRecords(activePath, entries) : 0;
+
+        channel = FileChannel.open(activePath, StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+        if (channel.size() > validBytes) {
+            System.out.println("Discarding corrupted journal tail in '" + activePath + "' after byte " + validBytes);
+            channel.truncate(validBytes);
+        }
+        channel.position(validBytes);
+
+        nextSeq = entries.isEmpty() ? 1 : entries.get(entries.size() - 1).seq + 1;
+        return entries;
+    }
+
+    /**
+     * Reads records from one file until EOF or a torn tail.
+     *
+     * @return number of bytes that belong to valid records
+     * @throws IOException if an invalid record is followed by more data
+     */
+    private long readRecords(Path path, List<Entry> out) throws IOException {
+        long size = Files.size(path);
+        long valid = 0;
+        long lastSeq = out.isEmpty() ? 0 : out.get(out.size() - 1).seq;
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(path)))) {
+            while (true) {
+                int length;
+                int crc;
+                try {
+                    length = in.readInt();
+                    crc = in.readInt();
+                } catch (EOFException e) {
+                    break;
+                }
+                if (length <= 0 || length > MAX_RECORD_BYTES) {
+                    if (onlyZeros(in)) break; // space the file system allocated for a write that never landed
+                    throw damaged(path, valid);
+                }
+
+                byte[] payload = new byte[length];
+                try {
+                    in.readFully(payload);
+                } catch (EOFException e) {
+                    break; // torn write
+                }
+                boolean last = valid + 8 + length == size;
+                CRC32 checksum = new CRC32();
+                checksum.update(payload);
+                if ((int) checksum.getValue() != crc) {
+                    if (last) break; // torn write
+                    throw damaged(path, valid);
+                }
+
+                Entry entry;
+                try {
+                    entry = decode(payload);
+                } catch (IOException | IllegalArgumentException e) {
+                    if (last) break;
+                    throw damaged(path, valid);
+                }
+                if (entry.seq <= lastSeq) break; // stale bytes from an older generation
+                lastSeq = entry.seq;
+                out.add(entry);
+                valid += 8 + length;
+            }
+        }
+        return valid;
+    }
+
+    // ----- Append -----
+
+    /**
+     * Adds a single record to the journal buffer. It reaches the file on the next flush().
+     */
+    public synchronized void append(Op op, int index, Movie movie) throws IOException {
+        encodeRecord(pending, op, index, movie);
+        pendingRecords++;
+    }
+
+    /**
+     * Adds ADD records for several movies to the journal buffer.
+     */
+    public synchronized void appendAdds(List<Movie> added) throws IOException {
+        for (Movie m : added) encodeRecord(pending, Op.ADD, -1, m);
+        pendingRecords += added.size();
+    }
+
+    /**
+     * Marks the end of the buffered records.
+     */
+    public synchronized Mark mark() {
+        return new Mark(pending.size(), pendingRecords);
+    }
+
+    /**
+     * Drops the records appended since mark that have not been written yet. Called when
+     * a change could not be saved, so that its records are not written by a later flush.
+     */
+    public synchronized void rollback(Mark mark) {
+        if (pending.size() <= mark.bytes) return;
+        byte[] kept = Arrays.copyOf(pending.toByteArray(), mark.bytes);
+        pending.reset();
+        pending.write(kept, 0, kept.length);
+        pendingRecords = mark.records;
+    }
+
+    /**
+     * Number of records appended since the last flush.
+     */
+    public synchronized int pendingRecords() {
+        return pendingRecords;
+    }
+
+    /**
+     * Writes all buffered records with a single write.
+     *
+     * @param sync also force the journal to disk (fsync), including bytes written by
+     *             earlier flushes without sync
+     */
+    public synchronized void flush(boolean sync) throws IOException {
+        long start = write();
+        if (sync && unsynced) {
+            try {
+                channel.force(false);
+            } catch (IOException e) {
+                if (start >= 0) truncate(start, e);
+                throw e;
+            }
+            unsynced = false;
+        }
+        if (start >= 0) clearPending();
+    }
+
+    private void writePending() throws IOException {
+        if (write() >= 0) clearPending();
+    }
+
+    /**
+     * Writes the buffered records but keeps them buffered. If the write fails, the part
+     * of them that reached the file is cut off again.
+     *
+     * @return file position the records were written at, or -1 if there were none
+     */
+    private long write() throws IOException {
+        if (pending.size() == 0) return -1;
+        ensureOpen();
+        long start = channel.position();
+        ByteBuffer bb = ByteBuffer.wrap(pending.toByteArray());
+        try {
+            while (bb.hasRemaining()) channel.write(bb);
+        } catch (IOException e) {
+            truncate(start, e);
+            throw e;
+        }
+        unsynced = true;
+        return start;
+    }
+
+    private void truncate(long size, IOException cause) {
+        try {
+            channel.truncate(size);
+            channel.position(size);
+        } catch (IOException e) {
+            cause.addSuppressed(e);
+        }
+    }
+
+    private void clearPending() {
+        // Don't keep a large import's buffer around
+        if (pending.size() > (1 << 20)) pending = new ByteArrayOutputStream(4096);
+        else pending.reset();
+        pendingRecords = 0;
+    }
+
+    private void encodeRecord(ByteArrayOutputStream buf, Op op, int index, Movie movie) throws IOException {
+        ByteArrayOutputStream payloadBytes = new ByteArrayOutputStream(96);
+        DataOutputStream payload = new DataOutputStream(payloadBytes);
+        payload.writeLong(nextSeq++);
+        payload.writeByte(op.ordinal());
+        payload.writeInt(index);
+        if (movie != null) {
+            payload.writeUTF(movie.getTitle());
+            payload.writeInt(movie.getYear());
+            payload.writeUTF(movie.getDirector());
+            payload.writeDouble(movie.getRating());
+            payload.writeInt(movie.getRuntimeMinutes());
+            payload.writeInt(movie.getVotes());
+            payload.writeBoolean(movie.isWatched());
+        }
+        payload.flush();
+
+        byte[] bytes = payloadBytes.toByteArray();
+        CRC32 checksum = new CRC32();
+        checksum.update(bytes);
+
+        DataOutputStream out = new DataOutputStream(buf);
+        out.writeInt(bytes.length);
+        out.writeInt((int) checksum.getValue());
+        out.write(bytes);
+        out.flush();
+    }
+
+    private static boolean onlyZeros(InputStream in) throws IOException {
+        int b;
+        while ((b = in.read()) >= 0) {
+            if (b != 0) return false;
+        }
+        return true;
+    }
+
+    private static IOException damaged(Path path, long offset) {
+        return new IOException("Journal '" + path + "' is damaged at byte " + offset
+                + " and has more records after that point");
+    }
+
+    private Entry decode(byte[] payload) throws IOException {
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(payload));
+        long seq = in.readLong();
+        int opCode = in.readByte();
+        if (opCode < 0 || opCode >= Op.values().length) throw new IOException("Unknown op " + opCode);
+        Op op = Op.values()[opCode];
+        int index = in.readInt();
+        Movie movie = null;
+        if (op != Op.REMOVE) {
+            movie = new Movie(in.readUTF(), in.readInt(), in.readUTF(), in.readDouble(),
+                    in.readInt(), in.readInt(), in.readBoolean());
+        }
+        return new Entry(seq, op, index, movie);
+    }
+
+    // ----- Rotation / Compaction Support -----
+
+    /**
+     * Size of the active journal in bytes, including records not flushed yet.
+     */
+    public synchronized long size() throws IOException {
+        return (channel == null ? 0 : channel.size()) + pending.size();
+    }
+
+    /**
+     * True if a rotated segment exists, i.e. a compaction has not finished yet.
+     */
+    public boolean hasSegment() {
+        return Files.exists(segmentPath);
+    }
+
+    /**
+     * Moves the active journal's records into the rotated segment and starts an empty
+     * active journal. If a segment already exists (a previous compaction failed), the
+     * active records are appended to it so nothing is lost. Buffered records are written
+     * first, so they end up in the segment too.
+     */
+    public synchronized void rotate() throws IOException {
+        writePending();
+        closeChannel();
+        if (Files.exists(activePath)) {
+            if (Files.exists(segmentPath)) {
+                try (FileChannel src = FileChannel.open(activePath, StandardOpenOption.READ);
+                     FileChannel dst = FileChannel.open(segmentPath, StandardOpenOption.WRITE, StandardOpenOption.APPEND)) {
+                    long pos = 0, size = src.size();
+                    while (pos < size) pos += src.transferTo(pos, size - pos, dst);
+                    dst.force(true);
+                }
+                Files.delete(activePath);
+            } else {
+                Files.move(activePath, segmentPath, StandardCopyOption.ATOMIC_MOVE);
+            }
+        }
+        ensureOpen();
+    }
+
+    /**
+     * Deletes the rotated segment once its records are contained in a durable snapshot.
+     */
+    public void discardSegment() throws IOException {
+        Files.deleteIfExists(segmentPath);
+    }
+
+    private void ensureOpen() throws IOException {
+        if (channel == null || !channel.isOpen()) {
+            channel = FileChannel.open(activePath, StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+            channel.position(channel.size());
+        }
+    }
+
+    private void closeChannel() throws IOException {
+        if (channel != null) {
+            if (unsynced) channel.force(false); // rotated records must be durable too
+            channel.close();
+            channel = null;
+        }
+        unsynced = false;
+    }
+
+    /**
+     * Writes and forces any buffered records, then closes the file.
+     */
+    @Override
+    public synchronized void close() throws IOException {
+        flush(true);
+        closeChannel();
+    }
+}
@@ -0,0 +1,265 @@
+// ============================================
+// MovieLoadGenerator.java
+// Closed-loop HTTP load test for MovieServer
+// ============================================
+
+import java.io.*;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.file.*;
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.Locale;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Load generator for MovieServer (no external tools needed). Each simulated client keeps
+ * one request in flight: it sends the next one as soon as the previous answer arrives,
+ * over its own keep-alive connection, so --connections is also the number of open
+ * sockets. Requests are a mix of reads (get by id, queries, list pages, scariest) and,
+ * with --writes, updates of random movies.
+ *
+ * Without --url it generates a synthetic catalog (see MovieBenchmark.generate) in a
+ * temporary directory and starts an embedded server on a free local port. The clients
+ * then share the CPUs with the server; for numbers about the server alone, start it
+ * with "java Main serve" and point --url at it.
+ *
+ * After --warmup seconds it records the latency of every request for --seconds and
+ * reports throughput, p50/p90/p99/max latency and the number of failed requests.
+ *
+ * Usage:
+ *   java MovieLoadGenerator [--connections 2000] [--seconds 10] [--warmup 3]
+ *                           [--rows 100000] [--writes 5] [--url http://127.0.0.1:8080/movies]
+ * Thousands of connections need as many file descriptors on both sides (ulimit -n).
+ */
+public class MovieLoadGenerator {
+
+    private static final Pattern TOTAL = Pattern.compile("\"total\":(\\d+)");
+
+    private final HttpClient client;
+    private final String url;
+    private final int movies;
+    private final int writePercent;
+
+    private volatile boolean recording;
+    private volatile boolean running = true;
+    private final AtomicLong failures = new AtomicLong();
+    private final AtomicReference<String> firstFailure = new AtomicReference<>();
+
+    public MovieLoadGenerator(String url, int movies, int writePercent) {
+        this.client = HttpClient.newBuilder()
+                .version(HttpClient.Version.HTTP_1_1)
+                .connectTimeout(Duration.ofSeconds(30))
+                .build();
+        this.url = url;
+        this.movies = Math.max(movies, 1);
+        this.writePercent = writePercent;
+    }
+
+    // ----- Entry Point -----
+
+    public static void main(String[] args) throws Exception {
+        String url = null;
+        int connections = 2000, seconds = 10, warmup = 3, rows = 100_000, writes = 5;
+        for (int i = 0; i + 1 < args.length; i += 2) {
+            switch (args[i]) {
+                case "--url" -> url = args[i + 1];
+                case "--connections" -> connections = Integer.parseInt(args[i + 1]);
+                case "--seconds" -> seconds = Integer.parseInt(args[i + 1]);
+                case "--warmup" -> warmup = Integer.parseInt(args[i + 1]);
+                case "--rows" -> rows = Integer.parseInt(args[i + 1]);
+                case "--writes" -> writes = Integer.parseInt(args[i + 1]);
+                default -> {
+                    System.out.println("Unknown option: " + args[i]);
+                    return;
+                }
+            }
+        }
+
+        if (url != null) {
+            MovieLoadGenerator generator = new MovieLoadGenerator(url, total(url), writes);
+            generator.run(connections, warmup, seconds).print(connections);
+            return;
+        }
+
+        Path dir = Files.createTempDirectory("movie-load");
+        try {
+            MovieManager manager = new MovieManager(dir.resolve("catalog.csv").toString());
+            manager.beginBatch();
+            for (Movie m : MovieBenchmark.generate(rows, 42)) manager.addMovie(m);
+            manager.commit();
+            manager.saveMovies();
+            try (MovieServer server = new MovieServer(manager, "127.0.0.1", 0, 256)) {
+                System.out.println("Serving " + rows + " movies on " + server.url()
+                        + (server.usesVirtualThreads() ? " (virtual threads)" : " (platform thread pool)"));
+                MovieLoadGenerator generator = new MovieLoadGenerator(server.url(), rows, writes);
+                generator.run(connections, warmup, seconds).print(connections);
+            }
+            manager.close();
+        } finally {
+            deleteRecursively(dir);
+        }
+    }
+
+    /**
+     * Asks a running server how many movies it has, so ids can be picked from that range.
+     */
+    private static int total(String url) throws IOException, InterruptedException {
+        HttpClient client = HttpClient.newHttpClient();
+        HttpResponse<String> r = client.send(HttpRequest.newBuilder(URI.create(url + "?limit=0")).build(),
+                HttpResponse.BodyHandlers.ofString());
+        Matcher m = TOTAL.matcher(r.body());
+        if (r.statusCode() != 200 || !m.find()) throw new IOException("Unexpected answer from " + url + ": " + r.body());
+        return Integer.parseInt(m.group(1));
+    }
+
+    // ----- Load -----
+
+    /**
+     * Latencies recorded by one simulated client. Only that client's callbacks touch it,
+     * one after another, so it needs no locking.
+     */
+    private static final class Samples {
+        long[] nanos = new long[1024];
+        int size;
+
+        void add(long n) {
+            if (size == nanos.length) nanos = Arrays.copyOf(nanos, size * 2);
+            nanos[size++] = n;
+        }
+    }
+
+    /**
+     * Runs the clients for warmup + seconds and returns what was recorded after the warmup.
+     */
+    public Report run(int connections, int warmupSeconds, int seconds) throws InterruptedException {
+        Samples[] samples = new Samples[connections];
+        CountDownLatch done = new CountDownLatch(connections);
+        for (int c = 0; c < connections; c++) {
+            samples[c] = new Samples();
+            next(samples[c], done);
+        }
+        Thread.sleep(warmupSeconds * 1000L);
+        failures.set(0);
+        firstFailure.set(null);
+        recording = true;
+        long start = System.nanoTime();
+        Thread.sleep(seconds * 1000L);
+        recording = false;
+        long elapsed = System.nanoTime() - start;
+        running = false;
+        done.await();
+
+        int total = 0;
+        for (Samples s : samples) total += s.size;
+        long[] all = new long[total];
+        int at = 0;
+        for (Samples s : samples) {
+            System.arraycopy(s.nanos, 0, all, at, s.size);
+            at += s.size;
+        }
+        Arrays.sort(all);
+        return new Report(all, failures.get(), firstFailure.get(), elapsed);
+    }
+
+    /**
+     * Sends one request and, when it completes, the next one, until the run ends.
+     */
+    private void next(Samples samples, CountDownLatch done) {
+        if (!running) {
+            done.countDown();
+            return;
+        }
+        boolean measured = recording;
+        long t = System.nanoTime();
+        client.sendAsync(request(), HttpResponse.BodyHandlers.discarding()).whenComplete((r, e) -> {
+            boolean ok = e == null && r.statusCode() / 100 == 2;
+            if (measured && recording) {
+                if (ok) samples.add(System.nanoTime() - t);
+                else {
+                    failures.incrementAndGet();
+                    firstFailure.compareAndSet(null, e != null ? e.toString() : "HTTP " + r.statusCode());
+                }
+            }
+            next(samples, done);
+        });
+    }
+
+    private HttpRequest request() {
+        ThreadLocalRandom r = ThreadLocalRandom.current();
+        int id = r.nextInt(movies);
+        if (r.nextInt(100) < writePercent) {
+            return HttpRequest.newBuilder(URI.create(url + "/" + id))
+                    .header("Content-Type", "application/json")
+                    .PUT(HttpRequest.BodyPublishers.ofString("{\"watched\":" + r.nextBoolean() + "}"))
+                    .timeout(Duration.ofSeconds(30))
+                    .build();
+        }
+        int pick = r.nextInt(100);
+        String target;
+        if (pick < 40) target = url + "/" + id;
+        else if (pick < 55) target = url + "/query?director=Director+" + r.nextInt(5000) + "&limit=20";
+        else if (pick < 65) {
+            int year = 1920 + r.nextInt(100);
+            target = url + "/query?minYear=" + year + "&maxYear=" + (year + 4) + "&sort=rating:desc&limit=20";
+        } else if (pick < 85) target = url + "?offset=" + r.nextInt(movies) + "&limit=50";
+        else target = url + "/scariest?k=10";
+        return HttpRequest.newBuilder(URI.create(target)).timeout(Duration.ofSeconds(30)).build();
+    }
+
+    // ----- Report -----
+
+    /**
+     * Sorted latencies of the successful requests of a run.
+     */
+    public static final class Report {
+        final long[] nanos;
+        final long failures;
+        final String firstFailure;
+        final long elapsedNanos;
+
+        Report(long[] nanos, long failures, String firstFailure, long elapsedNanos) {
+            this.nanos = nanos;
+            this.failures = failures;
+            this.firstFailure = firstFailure;
+            this.elapsedNanos = elapsedNanos;
+        }
+
+        /** Latency below which p percent of the requests finished, in milliseconds. */
+        public double percentileMillis(double p) {
+            if (nanos.length == 0) return 0;
+            int i = (int) Math.ceil(p / 100 * nanos.length) - 1;
+            return nanos[Math.max(0, Math.min(i, nanos.length - 1))] / 1e6;
+        }
+
+        public double requestsPerSecond() {
+            return nanos.length / (elapsedNanos / 1e9);
+        }
+
+        void print(int connections) {
+            System.out.println(String.format(Locale.ROOT, "%-12s %10s %12s %9s %9s %9s %9s %9s",
+                    "connections", "requests", "req/s", "p50 ms", "p90 ms", "p99 ms", "max ms", "failed"));
+            System.out.println(String.format(Locale.ROOT, "%-12d %10d %12.0f %9.2f %9.2f %9.2f %9.2f %9d",
+                    connections, nanos.length, requestsPerSecond(), percentileMillis(50), percentileMillis(90),
+                    percentileMillis(99), nanos.length == 0 ? 0 : nanos[nanos.length - 1] / 1e6, failures));
+            if (firstFailure != null) System.out.println("first failure: " + firstFailure);
+        }
+    }
+
+    private static void deleteRecursively(Path dir) throws IOException {
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(dir)) {
+            for (Path f : files) {
+                if (Files.isDirectory(f)) deleteRecursively(f);
+                else Files.delete(f);
+            }
+        }
+        Files.delete(dir);
+    }
+}
@@ -4,26 +4,118 @@
 // ============================================
 
 import java.io.*;
+import java.nio.channels.FileChannel;
+import java.nio.file.*;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.BooleanSupplier;
+import java.util.function.Consumer;
 
 /**
- * Manages a list of movies in memory and handles saving/loading to CSV.
+ * Manages the movies in memory (in a column-oriented MovieStore) and handles
+ * saving/loading to CSV.
+ * Mutations are persisted as small records in a MovieJournal; the CSV snapshot is
+ * rewritten in the background once the journal grows past JOURNAL_COMPACT_BYTES.
+ * A file path ending in ".bin" stores the snapshot in the MovieSnapshotFile format
+ * instead, which is memory-mapped on load and read lazily until the first change.
+ * A CSV path ending in ".gz" (or ".deflate", ".zz", ".zlib") keeps the snapshot
+ * compressed; see MovieCompression. Imports read compressed files as well.
+ * A directory path ("movies/") stores the catalog as segment files per decade or hash
+ * bucket instead (see MoviePartitions): segments load in parallel and a save rewrites
+ * only the segments that changed.
+ *
+ * The manager is thread-safe. Writers are serialized on a single lock, which also keeps
+ * journal records in the same order as the changes. After every change the writer
+ * publishes a read-only MovieStore snapshot (cheap, since chunks are copy-on-write), and
+ * all read methods work on the latest published snapshot without taking a lock.
+ *
+ * How soon a change is forced to disk is set with setDurability (see Durability).
+ * beginBatch()/commit() group many changes into one unit: other threads see none of
+ * them until commit(), which writes all their journal records at once and fsyncs them.
+ * A change is published only after its journal records were written as the mode asks.
+ * If they cannot be written, the change is undone and the change method throws
+ * UncheckedIOException (commit() returns false), so no caller is told about a change
+ * that was not saved.
  */
 public class MovieManager {
 
-    private final String filePath;  // CSV file path
-    private List<Movie> movies = new ArrayList<>();
+    /** Journal size after which the snapshot is rewritten in the background. */
+    public static final long JOURNAL_COMPACT_BYTES = 4L * 1024 * 1024;
+
+    public static final long DEFAULT_FLUSH_INTERVAL_MS = 50;
+    public static final int DEFAULT_FLUSH_OPS = 1000;
+
+    /**
+     * When journal records of a change are forced to disk (outside of a batch).
+     */
+    public enum Durability {
+        /** Written to the journal right away, but flushing to disk is left to the OS (default). */
+        UNSYNCED,
+        /** Written and fsynced before the change method returns. */
+        IMMEDIATE,
+        /** Buffered and fsynced together by a background flusher every N ms, or every N changes. */
+        BATCHED
+    }
+
+    private final String filePath;  // CSV (or binary snapshot) file path, or segment directory
+    private final boolean binary;   // true if filePath uses MovieSnapshotFile
+    private final MoviePartitions partitions; // non-null if filePath is a segment directory
+    private final MovieCompression.Codec codec; // compression of a CSV snapshot
+    private MovieStore movies = new MovieStore();     // writer's copy, guarded by writeLock
+    private volatile MovieStore view = movies.snapshot(); // latest published version for readers
+    private final MovieJournal journal;
+    private final ExecutorService compactor = Executors.newSingleThreadExecutor(r -> {
+        Thread t = new Thread(r, "movie-journal-compactor");
+        t.setDaemon(true);
+        return t;
+    });
+    private Future<?> compaction;   // pending background snapshot, if any
+    private IOException journalError; // why the journal could not be replayed; blocks changes and saves
+    private MovieIndex index;       // built on the first query, then kept in step with view
+    private MovieStore rankedView;  // snapshot the cached sort ranks belong to
+    private int[] titleRanks, directorRanks;
+    private final List<Change> pendingChanges = new ArrayList<>(); // not yet applied to index/aggregations
+    private final List<MovieAggregation> aggregations = new ArrayList<>(); // live ones, guarded by indexLock
+
+    private Durability durability = Durability.UNSYNCED;
+    private int flushOps = DEFAULT_FLUSH_OPS;
+    private ScheduledExecutorService flusher;   // created for BATCHED
+    private ScheduledFuture<?> flushTask;
+    private int batchDepth;                     // nesting of beginBatch() calls by the lock owner
+    private MovieStore batchView;               // snapshot of uncommitted changes for the batch owner
+    private MovieJournal.Mark batchMark;        // journal buffer before the open batch's records
+
+    private final ReentrantLock writeLock = new ReentrantLock(); // serializes changes and journal writes
+    private final Object indexLock = new Object(); // guards index and publishing view
 
     /**
      * Simple report returned by uploadCSV so the GUI/CLI can display results.
      */
     public static class UploadReport {
         public final int inserted;
+        public final int updated;     // existing movies changed by an upsert import
+        public final int duplicates;  // rows that matched a movie and changed nothing new
         public final List<String> errors;
 
         public UploadReport(int inserted, List<String> errors) {
+            this(inserted, 0, 0, errors);
+        }
+
+        public UploadReport(int inserted, int updated, int duplicates, List<String> errors) {
             this.inserted = inserted;
+            this.updated = updated;
+            this.duplicates = duplicates;
             this.errors = errors;
         }
     }
@@ -32,30 +124,119 @@ public class MovieManager {
 
     /**
      * Initializes the manager with a CSV file path and loads existing movies.
+     * A directory (or a path ending in a separator) is opened as a segment directory
+     * partitioned by decade, unless it already has a layout of its own.
      *
      * @param filePath path to the CSV file
      */
     public MovieManager(String filePath) {
-        this.filePath = filePath;
+        this(filePath, MoviePartitions.isPartitionedPath(filePath) ? MoviePartitions.Layout.byDecade() : null);
+    }
+
+    /**
+     * Initializes the manager with a segment directory and loads existing movies.
+     * The layout only applies to a new directory; an existing one keeps its own.
+     *
+     * @param dirPath path to the catalog directory
+     * @param layout  how movies are split into segments, e.g. Layout.byHash(16, Codec.GZIP)
+     */
+    public MovieManager(String dirPath, MoviePartitions.Layout layout) {
+        this.filePath = dirPath;
+        this.partitions = layout == null ? null : openPartitions(dirPath, layout);
+        this.binary = partitions == null && MovieSnapshotFile.isSnapshotPath(filePath);
+        this.codec = partitions != null ? partitions.layout().codec
+                : binary ? MovieCompression.Codec.NONE : MovieCompression.Codec.forPath(filePath);
+        this.journal = new MovieJournal(partitions != null ? partitions.journalBase() : filePath);
         loadMovies();
     }
 
+    private static MoviePartitions openPartitions(String dirPath, MoviePartitions.Layout layout) {
+        try {
+            return MoviePartitions.open(Paths.get(dirPath), layout);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Error reading catalog layout in '" + dirPath + "': " + e.getMessage(), e);
+        }
+    }
+
     // ----- CSV Persistence -----
 
     /**
-     * Loads movies from the CSV file.
+     * Loads movies from the CSV snapshot and replays the journal on top of it.
      * Skips invalid lines and prints warnings to console.
+     *
+     * If the journal cannot be replayed, the snapshot is shown without it and the journal
+     * is left untouched: changes throw UncheckedIOException and saveMovies throws
+     * IOException until the journal is repaired or removed and loadMovies runs again.
+     * Otherwise the next save would rotate away records that were already journaled.
      */
     public void loadMovies() {
-        movies.clear();
+        long t = MovieMetrics.start();
+        writeLock.lock();
+        try {
+            awaitCompaction();
+            movies = new MovieStore();
+            recoverSnapshot();
+            readSnapshot();
+
+            List<MovieJournal.Entry> entries;
+            try {
+                entries = journal.replay();
+                journalError = null;
+            } catch (IOException e) {
+                journalError = e;
+                publish(true);
+                MovieMetrics.LOAD_FAILURES.increment();
+                System.out.println("Error reading journal for '" + filePath + "': " + e.getMessage()
+                        + "\nThe journal is kept as it is; changes and saves are refused until it is repaired or removed.");
+                return;
+            }
+            for (MovieJournal.Entry e : entries) applyEntry(e);
+            publish(true);
+            // Fold replayed records into a fresh snapshot so the journal starts empty
+            if (!entries.isEmpty()) {
+                try {
+                    saveMovies();
+                } catch (IOException e) {
+                    System.out.println("Error saving to file '" + filePath + "': " + e.getMessage());
+                }
+            }
+        } finally {
+            MovieMetrics.LOAD.stop(t, movies.size());
+            writeLock.unlock();
+        }
+    }
+
+    /**
+     * Reads the CSV snapshot into memory, or maps the binary snapshot.
+     */
+    private void readSnapshot() {
+        if (partitions != null) {
+            try {
+                movies = partitions.load(ForkJoinPool.commonPool());
+            } catch (IOException | UncheckedIOException e) {
+                MovieMetrics.LOAD_FAILURES.increment();
+                System.out.println("Error reading directory '" + filePath + "': " + e.getMessage());
+            }
+            return;
+        }
+
         File f = new File(filePath);
         if (!f.exists()) return; // no file yet
 
-        try (BufferedReader br = new BufferedReader(new FileReader(f))) {
+        if (binary) {
+            try {
+                movies = MovieStore.fromSnapshot(MovieSnapshotFile.open(f.toPath()));
+            } catch (IOException e) {
+                MovieMetrics.LOAD_FAILURES.increment();
+                System.out.println("Error reading file '" + filePath + "': " + e.getMessage());
+            }
+            return;
+        }
+
+        try (MovieCsvReader reader = new MovieCsvReader(new InputStreamReader(MovieCompression.open(f.toPath())))) {
             String line;
-            int lineNum = 0;
-            while ((line = br.readLine()) != null) {
-                lineNum++;
+            while ((line = reader.next()) != null) {
+                int lineNum = reader.recordLine();
                 line = line.trim();
                 if (line.isEmpty()) continue;
 
@@ -65,98 +246,1127 @@ public class MovieManager {
                 try {
                     movies.add(Movie.fromCSV(line));
                 } catch (IllegalArgumentException ex) {
+                    if (reader.retryAsLines()) continue;
+                    MovieMetrics.rejected(ex);
                     System.out.println("Skipping invalid CSV line " + lineNum + ": " + ex.getMessage());
                 }
             }
         } catch (IOException e) {
+            MovieMetrics.LOAD_FAILURES.increment();
             System.out.println("Error reading file '" + filePath + "': " + e.getMessage());
         }
     }
 
     /**
-     * Saves the current list of movies to the CSV file.
+     * Replays a single journal record against the in-memory list.
+     */
+    private void applyEntry(MovieJournal.Entry e) {
+        switch (e.op) {
+            case ADD -> {
+                movies.add(e.movie);
+                if (partitions != null) partitions.touch(null, e.movie);
+            }
+            case REMOVE -> {
+                if (e.index >= 0 && e.index < movies.size()) {
+                    if (partitions != null) partitions.touch(movies.get(e.index), null);
+                    movies.remove(e.index);
+                }
+            }
+            case UPDATE -> {
+                if (e.index >= 0 && e.index < movies.size()) {
+                    if (partitions != null) partitions.touch(movies.get(e.index), e.movie);
+                    movies.set(e.index, e.movie);
+                }
+            }
+        }
+    }
+
+    /**
+     * Saves the current list of movies to the CSV file and empties the journal.
+     * In a segment directory only the segments changed since the last save are written.
+     *
+     * @throws IOException if the snapshot could not be written (e.g. disk full). The
+     *                     previous snapshot and the journal are left in place then, so
+     *                     no change is lost and the next save or load picks them up.
+     */
+    public void saveMovies() throws IOException {
+        long t = MovieMetrics.start();
+        writeLock.lock();
+        try {
+            checkJournal();
+            awaitCompaction();
+            journal.rotate();
+            writeSnapshot(movies.snapshot(), beginSave()); // the writer's state matches the rotated records
+            MovieMetrics.SAVE.stop(t, movies.size());
+        } catch (IOException | RuntimeException e) {
+            MovieMetrics.SAVE_FAILURES.increment();
+            throw e;
+        } finally {
+            writeLock.unlock();
+        }
+    }
+
+    /**
+     * Writes a snapshot covering every record in the rotated journal segment.
+     * The snapshot goes to a temp file in the same directory which is fsynced; the
+     * current snapshot is kept as "<file>.bak", the segment is dropped and the temp file
+     * is renamed over the original. recoverSnapshot() finishes or discards an interrupted
+     * run based on whether the segment still exists.
+     *
+     * @param save dirty segments to write in a segment directory, null otherwise
+     */
+    private void writeSnapshot(MovieStore snapshot, MoviePartitions.Save save) throws IOException {
+        if (save != null) {
+            writeSegments(snapshot, save);
+            return;
+        }
+        Path target = Paths.get(filePath);
+        Path tmp = Paths.get(filePath + ".tmp");
+        try {
+            if (binary) MovieSnapshotFile.write(tmp, snapshot.asList());
+            else MovieCsvWriter.write(tmp, snapshot, codec);
+        } catch (IOException | RuntimeException e) {
+            Files.deleteIfExists(tmp);
+            throw e;
+        }
+        keepBackup(target);
+        journal.discardSegment();
+        Files.move(tmp, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        syncDirectory(target);
+    }
+
+    /**
+     * Segment directory variant of writeSnapshot: every dirty segment goes to its own
+     * temp file, and all of them are moved into place once the journal segment is gone.
+     * If anything fails, the segments are marked dirty again for the next save.
+     */
+    private void writeSegments(MovieStore snapshot, MoviePartitions.Save save) throws IOException {
+        try {
+            List<Path> targets = partitions.write(save, snapshot);
+            for (Path target : targets) keepBackup(target);
+            journal.discardSegment();
+            for (Path target : targets) {
+                Files.move(MoviePartitions.tmpPath(target), target, StandardCopyOption.REPLACE_EXISTING,
+                        StandardCopyOption.ATOMIC_MOVE);
+            }
+            if (!targets.isEmpty()) syncDirectory(targets.get(0));
+        } catch (IOException | RuntimeException e) {
+            partitions.saveFailed(save);
+            throw e;
+        }
+    }
+
+    /**
+     * Dirty segments for a snapshot of the writer's current state, or null for a single
+     * snapshot file. Called with writeLock held, right where the journal is rotated.
+     */
+    private MoviePartitions.Save beginSave() {
+        return partitions == null ? null : partitions.beginSave(movies);
+    }
+
+    /**
+     * Makes "<file>.bak" refer to the current snapshot, as a hard link where the file
+     * system supports it (no copying) and as a copy otherwise.
+     */
+    private static void keepBackup(Path target) throws IOException {
+        if (!Files.exists(target)) return;
+        Path backup = Paths.get(target + ".bak");
+        Files.deleteIfExists(backup);
+        try {
+            Files.createLink(backup, target);
+        } catch (IOException | UnsupportedOperationException e) {
+            Files.copy(target, backup, StandardCopyOption.REPLACE_EXISTING);
+        }
+    }
+
+    /**
+     * Forces the directory entry of a renamed file to disk. Not every platform can open
+     * a directory (Windows cannot); the rename is still atomic there.
+     */
+    private static void syncDirectory(Path file) {
+        Path dir = file.toAbsolutePath().getParent();
+        try (FileChannel ch = FileChannel.open(dir, StandardOpenOption.READ)) {
+            ch.force(true);
+        } catch (IOException e) {
+            // not supported on this platform
+        }
+    }
+
+    /**
+     * Exports all movies to a CSV file, independent of the snapshot format in use.
+     * The file is compressed if its name asks for it ("movies.csv.gz").
+     *
+     * @param csvPath destination CSV file
+     * @return true if the file was written
+     */
+    public boolean exportCSV(String csvPath) {
+        try {
+            MovieCsvWriter.write(Paths.get(csvPath), view, MovieCompression.Codec.forPath(csvPath));
+            return true;
+        } catch (IOException e) {
+            System.out.println("Error exporting to file '" + csvPath + "': " + e.getMessage());
+            return false;
+        }
+    }
+
+    /**
+     * Completes or rolls back a snapshot write interrupted by a crash.
+     * A temp file without a journal segment is complete; with a segment it may be partial.
+     */
+    private void recoverSnapshot() {
+        if (partitions != null) {
+            try {
+                partitions.recover(journal.hasSegment());
+            } catch (IOException e) {
+                System.out.println("Error recovering segments in '" + filePath + "': " + e.getMessage());
+            }
+            return;
+        }
+        Path tmp = Paths.get(filePath + ".tmp");
+        if (!Files.exists(tmp)) return;
+        try {
+            if (journal.hasSegment()) Files.delete(tmp);
+            else Files.move(tmp, Paths.get(filePath), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            System.out.println("Error recovering snapshot '" + tmp + "': " + e.getMessage());
+        }
+    }
+
+    /**
+     * Starts a background snapshot if the journal has grown past the threshold.
+     * Failures are only reported: the records stay in the journal either way.
+     */
+    private void maybeCompact() {
+        MovieStore snapshot;
+        MoviePartitions.Save save;
+        try {
+            if (journal.size() < JOURNAL_COMPACT_BYTES) return;
+            if (compaction != null && !compaction.isDone()) return;
+
+            snapshot = movies.snapshot();
+            journal.rotate();
+            save = beginSave();
+        } catch (IOException e) {
+            System.out.println("Error compacting journal for '" + filePath + "': " + e.getMessage());
+            return;
+        }
+        compaction = compactor.submit(() -> {
+            long t = MovieMetrics.start();
+            try {
+                writeSnapshot(snapshot, save);
+                MovieMetrics.SAVE.stop(t, snapshot.size());
+            } catch (IOException e) {
+                MovieMetrics.SAVE_FAILURES.increment();
+                // The segment is kept, so its records are replayed or merged into the next rotation
+                System.out.println("Error compacting journal for '" + filePath + "': " + e.getMessage());
+            }
+        });
+    }
+
+    /**
+     * Waits for a running background snapshot to finish.
+     */
+    private void awaitCompaction() {
+        if (compaction == null) return;
+        try {
+            compaction.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (ExecutionException e) {
+            System.out.println("Error compacting journal for '" + filePath + "': " + e.getCause().getMessage());
+        }
+        compaction = null;
+    }
+
+    /**
+     * Appends a record to the journal buffer. Called before the writer's store is
+     * changed, so nothing has to be undone if the record cannot be encoded.
+     *
+     * @return mark to pass to logged() once the change is made
+     * @throws UncheckedIOException if the record cannot be encoded
+     */
+    private MovieJournal.Mark log(MovieJournal.Op op, int index, Movie m) {
+        MovieJournal.Mark mark = journal.mark();
+        try {
+            checkJournal();
+            journal.append(op, index, m);
+            return mark;
+        } catch (IOException e) {
+            journal.rollback(mark);
+            throw journalFailure(e);
+        }
+    }
+
+    /**
+     * Finishes a change of the writer's store whose records were appended since mark:
+     * flushes them as the durability mode asks and then publishes the change. Inside a
+     * batch both wait for commit().
+     *
+     * @throws UncheckedIOException if the records could not be written; the writer's
+     *                              store is back at the published state then
+     */
+    private void logged(MovieJournal.Mark mark) {
+        if (batchDepth > 0) return;
+        try {
+            switch (durability) {
+                case UNSYNCED -> journal.flush(false);
+                case IMMEDIATE -> journal.flush(true);
+                case BATCHED -> {
+                    if (journal.pendingRecords() >= flushOps) journal.flush(true);
+                }
+            }
+        } catch (IOException e) {
+            rollback(mark);
+            throw journalFailure(e);
+        }
+        publish(false);
+        maybeCompact();
+    }
+
+    /**
+     * Undoes the unpublished changes of the writer's store and drops their journal
+     * records. Called with writeLock held.
+     */
+    private void rollback(MovieJournal.Mark mark) {
+        journal.rollback(mark);
+        movies.restore(view);
+        pendingChanges.clear();
+        batchView = null;
+    }
+
+    /**
+     * Fails if the journal could not be replayed on load, since records appended after
+     * the damage would not be replayed either.
+     */
+    private void checkJournal() throws IOException {
+        if (journalError != null) {
+            throw new IOException("Journal for '" + filePath + "' could not be replayed ("
+                    + journalError.getMessage() + "); repair or remove it and reload", journalError);
+        }
+    }
+
+    private UncheckedIOException journalFailure(IOException e) {
+        MovieMetrics.JOURNAL_FAILURES.increment();
+        return new UncheckedIOException("Error writing journal for '" + filePath + "': " + e.getMessage(), e);
+    }
+
+    /**
+     * Writes a final snapshot and releases the journal. Call before exiting.
+     * Changes of a batch still open on this thread are saved as well.
+     *
+     * @throws IOException if the final snapshot could not be written; the journal is
+     *                     still flushed and closed, so the changes are replayed on next load
+     */
+    public void close() throws IOException {
+        writeLock.lock();
+        try {
+            try {
+                saveMovies();
+            } finally {
+                journal.close();
+            }
+        } finally {
+            compactor.shutdown();
+            if (flusher != null) flusher.shutdown();
+            writeLock.unlock();
+        }
+    }
+
+    // ----- Durability -----
+
+    /**
+     * Sets when changes are forced to disk, using the default flush interval and size
+     * for BATCHED.
+     */
+    public void setDurability(Durability mode) {
+        setDurability(mode, DEFAULT_FLUSH_INTERVAL_MS, DEFAULT_FLUSH_OPS);
+    }
+
+    /**
+     * Sets when changes are forced to disk. Records still buffered from the previous
+     * mode are flushed first.
+     *
+     * @param flushIntervalMs BATCHED only: the longest a change waits for its fsync
+     * @param flushOps        BATCHED only: number of buffered changes that triggers an
+     *                        fsync right away
      */
-    public void saveMovies() {
-        try (BufferedWriter bw = new BufferedWriter(new FileWriter(filePath))) {
-            bw.write("title,year,director,rating,runtimeMinutes,votes,watched");
-            bw.newLine();
-            for (Movie m : movies) {
-                bw.write(m.toString());
-                bw.newLine();
+    public void setDurability(Durability mode, long flushIntervalMs, int flushOps) {
+        if (flushIntervalMs <= 0 || flushOps <= 0) throw new IllegalArgumentException("Flush interval and size must be positive");
+        writeLock.lock();
+        try {
+            flush();
+            if (flushTask != null) {
+                flushTask.cancel(false);
+                flushTask = null;
+            }
+            durability = mode;
+            this.flushOps = flushOps;
+            if (mode == Durability.BATCHED) {
+                if (flusher == null) {
+                    flusher = Executors.newSingleThreadScheduledExecutor(r -> {
+                        Thread t = new Thread(r, "movie-journal-flusher");
+                        t.setDaemon(true);
+                        return t;
+                    });
+                }
+                flushTask = flusher.scheduleWithFixedDelay(this::flush, flushIntervalMs, flushIntervalMs,
+                        TimeUnit.MILLISECONDS);
             }
+        } finally {
+            writeLock.unlock();
+        }
+    }
+
+    public Durability getDurability() {
+        return durability;
+    }
+
+    /**
+     * Writes and fsyncs every journal record of a finished change. Records of a batch
+     * that is still open are not touched; the flusher thread waits for its commit().
+     *
+     * @return true if the records are on disk
+     */
+    public boolean flush() {
+        writeLock.lock();
+        try {
+            if (batchDepth > 0) return false;
+            journal.flush(true);
+            return true;
         } catch (IOException e) {
-            System.out.println("Error saving to file '" + filePath + "': " + e.getMessage());
+            System.out.println("Error writing journal for '" + filePath + "': " + e.getMessage());
+            return false;
+        } finally {
+            writeLock.unlock();
+        }
+    }
+
+    // ----- Batches -----
+
+    /**
+     * Starts a batch of changes made by the calling thread. Until the matching commit(),
+     * other writers wait, readers on other threads keep seeing the state before the
+     * batch, and journal records are only collected in memory. Batches may be nested;
+     * only the outermost commit() takes effect.
+     *
+     * The calling thread sees its own changes through getAll, getStore, getById and idAt;
+     * query and search keep working on the state before the batch.
+     */
+    public void beginBatch() {
+        writeLock.lock();
+        if (batchDepth++ == 0) batchMark = journal.mark();
+    }
+
+    /**
+     * Ends the batch started by beginBatch(): writes the journal records of all its
+     * changes in a single write followed by an fsync, whatever the durability mode, and
+     * then publishes the changes to readers at once.
+     *
+     * @return true if the batch's changes are on disk; false if they could not be
+     *         written, in which case the whole batch is undone
+     * @throws IllegalStateException if the calling thread has no open batch
+     */
+    public boolean commit() {
+        if (!writeLock.isHeldByCurrentThread() || batchDepth == 0) {
+            throw new IllegalStateException("commit() without beginBatch()");
+        }
+        try {
+            if (--batchDepth > 0) return true;
+            try {
+                journal.flush(true);
+            } catch (IOException e) {
+                rollback(batchMark);
+                System.out.println(journalFailure(e).getMessage());
+                return false;
+            }
+            publish(false);
+            maybeCompact();
+            return true;
+        } finally {
+            if (batchDepth == 0) batchMark = null;
+            writeLock.unlock();
+        }
+    }
+
+    /**
+     * True if the calling thread has a batch open.
+     */
+    private boolean inOwnBatch() {
+        return writeLock.isHeldByCurrentThread() && batchDepth > 0;
+    }
+
+    // ----- Publishing -----
+
+    /**
+     * One changed movie: added (removed == null), removed (added == null) or edited.
+     */
+    private static final class Change {
+        final int id;
+        final Movie removed, added;
+
+        Change(int id, Movie removed, Movie added) {
+            this.id = id;
+            this.removed = removed;
+            this.added = added;
+        }
+    }
+
+    /**
+     * Records a change of the writer's store. It is applied to the index and the live
+     * aggregations when published, which logged() does once it is journaled.
+     * Called with writeLock held.
+     */
+    private void changed(int id, Movie removed, Movie added) {
+        if (partitions != null) partitions.touch(removed, added);
+        pendingChanges.add(new Change(id, removed, added));
+        batchView = null;
+    }
+
+    /**
+     * Makes the writer's current state visible to readers, applying the pending changes
+     * to the index and live aggregations at the same moment. Called with writeLock held.
+     *
+     * @param resetIndex drop the index and recompute the aggregations because the whole
+     *                   store was replaced
+     */
+    private void publish(boolean resetIndex) {
+        synchronized (indexLock) {
+            if (resetIndex) index = null;
+            else {
+                for (Change c : pendingChanges) {
+                    if (index != null && c.removed != null) index.remove(c.id, c.removed);
+                    if (index != null && c.added != null) index.add(c.id, c.added);
+                    for (MovieAggregation a : aggregations) a.apply(c.removed, c.added);
+                }
+            }
+            pendingChanges.clear();
+            batchView = null;
+            view = movies.snapshot();
+            if (resetIndex) for (MovieAggregation a : aggregations) a.recompute(view, ForkJoinPool.commonPool());
         }
     }
 
+    /**
+     * Store the calling thread reads from: its uncommitted changes inside a batch,
+     * otherwise the latest published snapshot.
+     */
+    private MovieStore readView() {
+        if (!inOwnBatch()) return view;
+        if (batchView == null) batchView = movies.snapshot();
+        return batchView;
+    }
+
     // ----- Movie Operations -----
 
     /**
-     * Returns a copy of all movies in memory.
+     * Returns all movies as a read-only list. The list is a consistent snapshot: it is
+     * not copied and does not change when movies are added or removed later.
      */
     public List<Movie> getAll() {
-        return new ArrayList<>(movies);
+        return readView().asList();
+    }
+
+    /**
+     * Returns a read-only snapshot of the column store, consistent with getAll().
+     * Writing to it throws UnsupportedOperationException; use the manager's methods instead.
+     */
+    public MovieStore getStore() {
+        return readView();
+    }
+
+    // ----- Queries -----
+
+    /**
+     * Rows matching a query together with the snapshot they refer to.
+     */
+    public static class QueryResult {
+        public final MovieStore store;
+        public final int[] rows;
+
+        public QueryResult(MovieStore store, int[] rows) {
+            this.store = store;
+            this.rows = rows;
+        }
+    }
+
+    /**
+     * Returns the movies matching all criteria of the query, in catalog order
+     * (or in the query's orderBy order).
+     */
+    public List<Movie> query(MovieQuery q) {
+        QueryResult r = search(q, Integer.MAX_VALUE, () -> false);
+        List<Movie> result = new ArrayList<>(r.rows.length);
+        for (int row : r.rows) result.add(r.store.get(row));
+        return result;
+    }
+
+    /**
+     * Returns the row positions (as used by getAll() and removeMovie) of the movies
+     * matching the query, in ascending order unless the query sets orderBy. Uses the
+     * secondary indexes when the query has an indexed criterion, otherwise scans the store.
+     */
+    public int[] queryRows(MovieQuery q) {
+        return search(q, Integer.MAX_VALUE, () -> false).rows;
+    }
+
+    /**
+     * Evaluates the query against the latest published snapshot, for callers that run
+     * queries in the background and want to drop stale ones.
+     * Only the index lookup runs under indexLock; matching and sorting run without a lock.
+     *
+     * @param limit     maximum number of rows to return; without orderBy a scan stops as
+     *                  soon as it has found this many, so a first page comes back quickly
+     * @param cancelled polled every few thousand rows
+     * @throws CancellationException if cancelled returned true
+     */
+    public QueryResult search(MovieQuery q, int limit, BooleanSupplier cancelled) {
+        long t = MovieMetrics.start();
+        MovieStore snapshot;
+        int[] candidates;
+        int[] ranks = null;
+        synchronized (indexLock) {
+            snapshot = view;
+            if (index == null) index = MovieIndex.build(snapshot);
+            IntList ids = index.candidates(q);
+            candidates = ids == null ? null : ids.toArray();
+            if (q.sortKey == MovieQuery.SortKey.TITLE || q.sortKey == MovieQuery.SortKey.DIRECTOR) {
+                ranks = ranks(snapshot, q.sortKey);
+            }
+        }
+
+        IntList matches = new IntList();
+        if (candidates == null) {
+            int stopAt = q.sortKey == null ? limit : Integer.MAX_VALUE;
+            for (int row = 0; row < snapshot.size() && matches.size() < stopAt; row++) {
+                if ((row & 4095) == 0 && cancelled.getAsBoolean()) throw new CancellationException();
+                if (q.matches(snapshot, row)) matches.add(row);
+            }
+        } else {
+            for (int i = 0; i < candidates.length; i++) {
+                if ((i & 4095) == 0 && cancelled.getAsBoolean()) throw new CancellationException();
+                int row = snapshot.rowOf(candidates[i]);
+                if (row >= 0 && q.matches(snapshot, row)) matches.add(row);
+            }
+            matches.sort();
+        }
+        int[] rows = matches.toArray();
+        if (q.sortKey != null) {
+            if (cancelled.getAsBoolean()) throw new CancellationException();
+            if (limit < rows.length / 8) rows = topRows(snapshot, rows, q.sortKey, q.descending, ranks, limit);
+            else sortRows(snapshot, rows, q.sortKey, q.descending, ranks);
+        }
+        if (rows.length > limit) rows = Arrays.copyOf(rows, limit);
+        MovieMetrics.QUERY.stop(t, candidates == null ? snapshot.size() : candidates.length);
+        return new QueryResult(snapshot, rows);
+    }
+
+    /**
+     * Title or director rank per id, read off the sorted index and cached until the
+     * next change. Called with indexLock held.
+     */
+    private int[] ranks(MovieStore snapshot, MovieQuery.SortKey key) {
+        if (rankedView != snapshot) {
+            rankedView = snapshot;
+            titleRanks = null;
+            directorRanks = null;
+        }
+        if (key == MovieQuery.SortKey.TITLE) {
+            if (titleRanks == null) titleRanks = index.titleRanks(snapshot.idLimit());
+            return titleRanks;
+        }
+        if (directorRanks == null) directorRanks = index.directorRanks(snapshot.idLimit());
+        return directorRanks;
+    }
+
+    /**
+     * Returns the first limit rows in sort order without sorting all of them, keeping the
+     * best rows in a bounded max-heap. Used for a first page of a large sorted result.
+     */
+    private static int[] topRows(MovieStore store, int[] rows, MovieQuery.SortKey key, boolean descending,
+                                 int[] ranks, int limit) {
+        long[] keys = new long[rows.length];
+        for (int i = 0; i < rows.length; i++) {
+            int row = rows[i];
+            long k = switch (key) {
+                case TITLE, DIRECTOR -> ranks[store.id(row)];
+                case YEAR -> store.year(row);
+                case RATING -> {
+                    long bits = Double.doubleToLongBits(store.rating(row) + 0.0);
+                    yield bits < 0 ? bits ^ Long.MAX_VALUE : bits; // orders like the doubles
+                }
+                case RUNTIME -> store.runtimeMinutes(row);
+                case VOTES -> store.votes(row);
+                case WATCHED -> store.watched(row) ? 1 : 0;
+            };
+            keys[i] = descending ? ~k : k;
+        }
+
+        // Heap of positions into rows; the root is the worst of the best `limit` so far.
+        // Positions are ascending rows, so a larger position loses a tie.
+        int[] heap = new int[limit];
+        int size = 0;
+        for (int i = 0; i < rows.length; i++) {
+            if (size < limit) {
+                int c = size++;
+                while (c > 0 && worse(keys, i, heap[(c - 1) / 2])) {
+                    heap[c] = heap[(c - 1) / 2];
+                    c = (c - 1) / 2;
+                }
+                heap[c] = i;
+            } else if (worse(keys, heap[0], i)) {
+                int c = 0;
+                while (true) {
+                    int child = 2 * c + 1;
+                    if (child >= size) break;
+                    if (child + 1 < size && worse(keys, heap[child + 1], heap[child])) child++;
+                    if (!worse(keys, heap[child], i)) break;
+                    heap[c] = heap[child];
+                    c = child;
+                }
+                heap[c] = i;
+            }
+        }
+
+        Integer[] order = new Integer[size];
+        for (int i = 0; i < size; i++) order[i] = heap[i];
+        Arrays.sort(order, (a, b) -> worse(keys, a, b) ? 1 : worse(keys, b, a) ? -1 : 0);
+        int[] top = new int[size];
+        for (int i = 0; i < size; i++) top[i] = rows[order[i]];
+        return top;
+    }
+
+    /** True if position a sorts after position b. */
+    private static boolean worse(long[] keys, int a, int b) {
+        return keys[a] != keys[b] ? keys[a] > keys[b] : a > b;
+    }
+
+    /**
+     * Sorts rows (ascending on entry) by a column. Each row is packed with an int sort key
+     * into one long, so a single primitive sort does the work and equal keys keep row order.
+     */
+    private static void sortRows(MovieStore store, int[] rows, MovieQuery.SortKey key, boolean descending, int[] ranks) {
+        double[] distinctRatings = null;
+        if (key == MovieQuery.SortKey.RATING) {
+            // Ratings become their rank among the distinct ratings so they fit into an int
+            double[] values = new double[rows.length];
+            for (int i = 0; i < rows.length; i++) values[i] = store.rating(rows[i]) + 0.0;
+            Arrays.sort(values);
+            int n = 0;
+            for (int i = 0; i < values.length; i++) if (n == 0 || values[i] != values[n - 1]) values[n++] = values[i];
+            distinctRatings = Arrays.copyOf(values, n);
+        }
+
+        long[] packed = new long[rows.length];
+        for (int i = 0; i < rows.length; i++) {
+            int row = rows[i];
+            int k = switch (key) {
+                case TITLE, DIRECTOR -> ranks[store.id(row)];
+                case YEAR -> store.year(row);
+                case RATING -> Arrays.binarySearch(distinctRatings, store.rating(row) + 0.0);
+                case RUNTIME -> store.runtimeMinutes(row);
+                case VOTES -> store.votes(row);
+                case WATCHED -> store.watched(row) ? 1 : 0;
+            };
+            if (descending) k = ~k;
+            packed[i] = ((long) k << 32) | row;
+        }
+        Arrays.sort(packed);
+        for (int i = 0; i < rows.length; i++) rows[i] = (int) packed[i];
+    }
+
+    // ----- Scores -----
+
+    /**
+     * The k scariest movies, scariest first, from the cached score columns of the latest
+     * snapshot. Equal scores keep catalog order.
+     */
+    public QueryResult scariest(int k) {
+        MovieStore snapshot = readView();
+        return new QueryResult(snapshot, snapshot.scariestRows(k));
+    }
+
+    /**
+     * Number of movies per scariness range, the 0-10 scale cut into equal buckets.
+     */
+    public int[] scarinessHistogram(int buckets) {
+        return readView().scarinessHistogram(buckets);
+    }
+
+    /**
+     * The k movies with the highest score under a custom rule (see ScoreExpression),
+     * highest first.
+     */
+    public QueryResult top(ScoringRule rule, int k) {
+        MovieStore snapshot = readView();
+        return new QueryResult(snapshot, snapshot.topRows(rule, k));
+    }
+
+    /**
+     * Number of movies per score range under a custom rule, [min, max] cut into equal buckets.
+     */
+    public int[] scoreHistogram(ScoringRule rule, int buckets, double min, double max) {
+        return readView().histogram(rule, buckets, min, max);
+    }
+
+    // ----- Aggregations -----
+
+    /**
+     * Computes per-group statistics of a field over the latest snapshot in one parallel
+     * pass, e.g. aggregate(GroupBy.DIRECTOR, Field.RATING) for the number of movies and
+     * average rating per director.
+     */
+    public MovieAggregation aggregate(MovieAggregation.GroupBy groupBy, MovieAggregation.Field field) {
+        return MovieAggregation.compute(readView(), groupBy, field, ForkJoinPool.commonPool());
     }
 
     /**
-     * Adds a new movie and saves to CSV.
+     * Like aggregate, but the result is kept up to date: every later change is applied to
+     * it incrementally when it is published. Call stopAggregation when it is no longer needed.
      */
-    public void addMovie(Movie m) {
-        movies.add(m);
-        saveMovies();
+    public MovieAggregation aggregateLive(MovieAggregation.GroupBy groupBy, MovieAggregation.Field field) {
+        synchronized (indexLock) {
+            MovieAggregation a = MovieAggregation.compute(view, groupBy, field, ForkJoinPool.commonPool());
+            aggregations.add(a);
+            return a;
+        }
+    }
+
+    /**
+     * Stops updating a live aggregation.
+     */
+    public void stopAggregation(MovieAggregation a) {
+        synchronized (indexLock) {
+            aggregations.remove(a);
+        }
+    }
+
+    // ----- Changes -----
+
+    /**
+     * Adds a new movie and records it in the journal.
+     *
+     * @return stable id of the new movie
+     * @throws UncheckedIOException if the journal could not be written; nothing is added
+     */
+    public int addMovie(Movie m) {
+        writeLock.lock();
+        try {
+            MovieJournal.Mark mark = log(MovieJournal.Op.ADD, -1, m);
+            int id = movies.add(m);
+            changed(id, null, m);
+            logged(mark);
+            return id;
+        } finally {
+            writeLock.unlock();
+        }
+    }
+
+    /**
+     * Returns the stable id of the movie at the specified index.
+     * The id keeps referring to the same movie while other movies are added or removed.
+     *
+     * @param index index of the movie, as in getAll()
+     * @return movie id, or -1 if index invalid
+     */
+    public int idAt(int index) {
+        MovieStore snapshot = inOwnBatch() ? movies : view;
+        if (index >= 0 && index < snapshot.size()) return snapshot.id(index);
+        else return -1;
     }
 
     /**
-     * Removes a movie at the specified index and saves to CSV.
+     * Returns the movie with the given id, or null if there is none.
+     */
+    public Movie getById(int id) {
+        MovieStore snapshot = inOwnBatch() ? movies : view;
+        int row = snapshot.rowOf(id);
+        return row >= 0 ? snapshot.get(row) : null;
+    }
+
+    /**
+     * Replaces the movie with the given id in place (keeping its position) and records
+     * the change in the journal.
+     *
+     * @param id movie id from idAt()
+     * @param m  new movie data
+     * @return true if replaced, false if no movie has that id
+     * @throws UncheckedIOException if the journal could not be written; the movie is unchanged
+     */
+    public boolean updateMovie(int id, Movie m) {
+        writeLock.lock();
+        try {
+            int row = movies.rowOf(id);
+            if (row < 0) return false;
+            MovieJournal.Mark mark = log(MovieJournal.Op.UPDATE, row, m);
+            Movie old = movies.get(row);
+            movies.set(row, m);
+            changed(id, old, m);
+            logged(mark);
+            return true;
+        } finally {
+            writeLock.unlock();
+        }
+    }
+
+    /**
+     * Removes the movie with the given id and records it in the journal.
+     *
+     * @param id movie id from idAt()
+     * @return true if removed, false if no movie has that id
+     * @throws UncheckedIOException if the journal could not be written; nothing is removed
+     */
+    public boolean removeById(int id) {
+        writeLock.lock();
+        try {
+            int row = movies.rowOf(id);
+            if (row < 0) return false;
+            removeRow(row);
+            return true;
+        } finally {
+            writeLock.unlock();
+        }
+    }
+
+    /**
+     * Removes a movie at the specified index and records it in the journal.
      *
      * @param index index of movie to remove
      * @return true if removed, false if index invalid
+     * @throws UncheckedIOException if the journal could not be written; nothing is removed
      */
     public boolean removeMovie(int index) {
-        if (index >= 0 && index < movies.size()) {
-            movies.remove(index);
-            saveMovies();
-            return true;
-        } else return false;
+        writeLock.lock();
+        try {
+            if (index >= 0 && index < movies.size()) {
+                removeRow(index);
+                return true;
+            } else return false;
+        } finally {
+            writeLock.unlock();
+        }
+    }
+
+    /**
+     * Removes a row of the writer's store, journals the change and publishes it.
+     */
+    private void removeRow(int row) {
+        MovieJournal.Mark mark = log(MovieJournal.Op.REMOVE, row, null);
+        int id = movies.id(row);
+        Movie old = movies.get(row);
+        movies.remove(row);
+        changed(id, old, null);
+        logged(mark);
     }
 
     /**
      * Uploads movies from a CSV file and returns a report of inserted movies and errors.
+     * gzip and deflate files are decompressed on the fly (see MovieCompression).
      *
      * @param csvPath path to CSV file
      * @return UploadReport with number of inserted movies and errors
      */
     public UploadReport uploadCSV(String csvPath) {
-        int inserted = 0;
+        return uploadCSV(csvPath, MovieUpsert.Mode.APPEND, null, () -> false);
+    }
+
+    /**
+     * Uploads movies from a CSV file, matching them against the catalog by normalized
+     * title, year and director (see MovieUpsert). Matches are kept, overwritten or have
+     * their votes merged as the mode says; the report counts inserted, updated and
+     * duplicate rows. Matching is linear in the size of the catalog plus the file.
+     *
+     * @param csvPath path to CSV file
+     * @param mode    what to do with movies that are already in the catalog
+     */
+    public UploadReport uploadCSV(String csvPath, MovieUpsert.Mode mode) {
+        return uploadCSV(csvPath, mode, null, () -> false);
+    }
+
+    /**
+     * Sequential import with progress reports and cancellation.
+     * A cancelled import adds nothing: movies are only committed after the whole file is read.
+     */
+    private UploadReport uploadCSV(String csvPath, MovieUpsert.Mode mode,
+                                   Consumer<ParallelCsvImporter.Progress> progress, BooleanSupplier cancelled) {
+        long t = MovieMetrics.start();
+        int parsed = 0;
         List<String> errors = new ArrayList<>();
+        List<Movie> added = new ArrayList<>();
         File f = new File(csvPath);
         if (!f.exists()) {
             errors.add("File not found: " + csvPath);
             return new UploadReport(0, errors);
         }
 
-        try (BufferedReader br = new BufferedReader(new FileReader(f))) {
+        long start = System.nanoTime();
+        long lastReport = start;
+        int records = 0;
+        try (MovieCsvReader reader = new MovieCsvReader(new InputStreamReader(MovieCompression.open(f.toPath())))) {
             String line;
-            int lineNum = 0;
-            while ((line = br.readLine()) != null) {
-                lineNum++;
+            while ((line = reader.next()) != null) {
+                int lineNum = reader.recordLine();
+                if ((++records & 4095) == 0) {
+                    if (cancelled.getAsBoolean()) return cancelledImport();
+                    long now = System.nanoTime();
+                    if (progress != null && now - lastReport >= 250_000_000L) {
+                        progress.accept(new ParallelCsvImporter.Progress(parsed, errors.size(),
+                                parsed / ((now - start) / 1e9)));
+                        lastReport = now;
+                    }
+                }
                 line = line.trim();
                 if (line.isEmpty()) continue;
                 if (lineNum == 1 && line.toLowerCase().contains("title")) continue;
 
                 try {
                     Movie m = Movie.fromCSV(line);
-                    movies.add(m);
-                    inserted++;
+                    added.add(m);
+                    parsed++;
                 } catch (IllegalArgumentException ex) {
+                    if (reader.retryAsLines()) continue;
+                    MovieMetrics.rejected(ex);
                     errors.add("Line " + lineNum + ": " + ex.getMessage());
                 }
             }
-            if (inserted > 0) saveMovies();
         } catch (IOException e) {
+            MovieMetrics.IMPORT_FAILURES.increment();
             errors.add("I/O error while reading the file: " + e.getMessage());
         }
+        MovieMetrics.PARSE.stop(t, parsed + errors.size());
+
+        if (progress != null) {
+            progress.accept(new ParallelCsvImporter.Progress(parsed, errors.size(),
+                    parsed / Math.max((System.nanoTime() - start) / 1e9, 1e-9)));
+        }
+        UploadReport report = commitImport(added, errors, mode, cancelled);
+        MovieMetrics.IMPORT.stop(t, parsed);
+        return report != null ? report : cancelledImport();
+    }
+
+    /**
+     * Parallel variant of uploadCSV for large files. The file is split into line-aligned
+     * chunks parsed on the common fork-join pool; movies and error line numbers come back
+     * in the same order as the sequential import. Small files fall back to uploadCSV.
+     * A compressed file is inflated on its own thread and cut into chunks as it streams
+     * in, so parsing stays parallel while far fewer bytes are read from disk.
+     *
+     * @param csvPath  path to CSV file
+     * @param progress receives rows parsed, errors so far and rows/s (may be null)
+     * @return UploadReport with number of inserted movies and errors
+     */
+    public UploadReport uploadCSVParallel(String csvPath, Consumer<ParallelCsvImporter.Progress> progress) {
+        return uploadCSVParallel(csvPath, MovieUpsert.Mode.APPEND, progress, () -> false);
+    }
+
+    /**
+     * Same as uploadCSVParallel(csvPath, progress, cancelled), but adds the movies as an
+     * upsert in the given mode (see uploadCSV(csvPath, mode)).
+     */
+    public UploadReport uploadCSVParallel(String csvPath, MovieUpsert.Mode mode,
+                                          Consumer<ParallelCsvImporter.Progress> progress,
+                                          BooleanSupplier cancelled) {
+        File f = new File(csvPath);
+        long t = MovieMetrics.start();
+        List<String> errors = new ArrayList<>();
+        try {
+            // CSV shrinks at least 4:1 compressed, so compare compressed sizes accordingly
+            boolean compressed = f.exists() && MovieCompression.detect(f.toPath()) != MovieCompression.Codec.NONE;
+            long min = compressed ? ParallelCsvImporter.MIN_PARALLEL_BYTES / 4 : ParallelCsvImporter.MIN_PARALLEL_BYTES;
+            if (!f.exists() || f.length() < min) return uploadCSV(csvPath, mode, progress, cancelled);
 
-        return new UploadReport(inserted, errors);
+            ParallelCsvImporter importer = new ParallelCsvImporter();
+            ParallelCsvImporter.Result result;
+            if (compressed) {
+                try (InputStream in = MovieCompression.open(f.toPath())) {
+                    result = importer.parse(in, progress, cancelled);
+                }
+            } else {
+                result = importer.parse(f.toPath(), progress, cancelled);
+            }
+            MovieMetrics.PARSE.stop(t, result.movies.size() + result.errors.size());
+            errors.addAll(result.errors);
+            UploadReport report = commitImport(result.movies, errors, mode, cancelled);
+            MovieMetrics.IMPORT.stop(t, result.movies.size());
+            return report != null ? report : cancelledImport();
+        } catch (CancellationException e) {
+            return cancelledImport();
+        } catch (IOException e) {
+            MovieMetrics.IMPORT_FAILURES.increment();
+            errors.add("I/O error while reading the file: " + e.getMessage());
+            return new UploadReport(0, errors);
+        }
+    }
+
+    /**
+     * Same as uploadCSVParallel(csvPath, progress), but stops once cancelled returns true.
+     * The flag is polled while parsing and once more just before the movies are added, so
+     * a cancelled import leaves the catalog untouched and its report lists "Import cancelled".
+     * After that last check the import completes even if cancelled flips to true.
+     * Cancelling through the flag (rather than Thread.interrupt) also keeps the journal's
+     * FileChannel from being closed by an interrupt in the middle of a write.
+     *
+     * @param cancelled polled from the calling thread and the parser threads
+     */
+    public UploadReport uploadCSVParallel(String csvPath, Consumer<ParallelCsvImporter.Progress> progress,
+                                          BooleanSupplier cancelled) {
+        return uploadCSVParallel(csvPath, MovieUpsert.Mode.APPEND, progress, cancelled);
+    }
+
+    private static UploadReport cancelledImport() {
+        List<String> errors = new ArrayList<>();
+        errors.add("Import cancelled");
+        return new UploadReport(0, errors);
+    }
+
+    /**
+     * Matches imported movies against the catalog, applies the plan to memory and
+     * journals it in one write. Updates keep their rows; new movies go at the end.
+     * If the journal cannot be written, nothing is imported and the report says why.
+     *
+     * @return the report, or null if the import was cancelled before anything was changed
+     */
+    private UploadReport commitImport(List<Movie> parsed, List<String> errors, MovieUpsert.Mode mode,
+                                      BooleanSupplier cancelled) {
+        writeLock.lock();
+        try {
+            if (cancelled.getAsBoolean()) return null;
+            MovieUpsert.Plan plan = MovieUpsert.plan(movies, parsed, mode);
+            List<Movie> added = plan.inserts;
+            if (added.isEmpty() && plan.updates.isEmpty()) return new UploadReport(0, 0, plan.duplicates, errors);
+
+            MovieJournal.Mark mark = journal.mark();
+            try {
+                checkJournal();
+                for (int i = 0; i < plan.updates.size(); i++) {
+                    journal.append(MovieJournal.Op.UPDATE, plan.updateRows.get(i), plan.updates.get(i));
+                }
+                if (!added.isEmpty()) journal.appendAdds(added);
+            } catch (IOException e) {
+                journal.rollback(mark);
+                errors.add("I/O error while saving imported movies, nothing was imported: "
+                        + journalFailure(e).getMessage());
+                return new UploadReport(0, 0, plan.duplicates, errors);
+            }
+
+            for (int i = 0; i < plan.updates.size(); i++) {
+                int row = plan.updateRows.get(i);
+                Movie old = movies.get(row);
+                movies.set(row, plan.updates.get(i));
+                changed(movies.id(row), old, plan.updates.get(i));
+            }
+            movies.addAll(added);
+            for (int i = 0, row = movies.size() - added.size(); i < added.size(); i++, row++) {
+                changed(movies.id(row), null, added.get(i));
+            }
+            try {
+                logged(mark); // publishes the whole import at once
+            } catch (UncheckedIOException e) {
+                errors.add("I/O error while saving imported movies, nothing was imported: " + e.getMessage());
+                return new UploadReport(0, 0, plan.duplicates, errors);
+            }
+            return new UploadReport(plan.inserted, plan.updated, plan.duplicates, errors);
+        } finally {
+            writeLock.unlock();
+        }
     }
 }
@@ -0,0 +1,354 @@
+// ============================================
+// MovieMetrics.java
+// Counters and latency histograms for MovieManager, exposed over JMX and the log
+// ============================================
+
+import java.lang.management.ManagementFactory;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+/**
+ * Process-wide metrics for the hot paths of MovieManager: load, save, import, parse and
+ * query latencies, MovieServer request latencies, their rows per second, failure counters,
+ * and rows rejected by Movie.fromCSV counted per MovieCsvParser.Reason.
+ *
+ * Recording is off by default. When off, start() returns 0 and every record call returns
+ * after one volatile read, so instrumented code pays next to nothing. Turn it on with
+ * -Ddms.metrics=true or setEnabled(true); either also registers the MBean
+ * "dms:type=MovieMetrics", whose Enabled attribute switches recording off and on again.
+ * -Ddms.metrics.logSeconds=N also prints dump() every N seconds.
+ *
+ * Counters are LongAdders and histogram buckets are atomic longs, so threads recording
+ * at the same time never take a lock.
+ */
+public final class MovieMetrics {
+
+    public static final String OBJECT_NAME = "dms:type=MovieMetrics";
+
+    private static volatile boolean enabled = Boolean.getBoolean("dms.metrics");
+
+    // ----- Timers -----
+    public static final Timer LOAD = new Timer("load");
+    public static final Timer SAVE = new Timer("save");
+    public static final Timer IMPORT = new Timer("import");
+    public static final Timer PARSE = new Timer("parse");
+    public static final Timer QUERY = new Timer("query");
+    public static final Timer REQUEST = new Timer("http");
+    private static final Timer[] TIMERS = {LOAD, SAVE, IMPORT, PARSE, QUERY, REQUEST};
+
+    // ----- Counters -----
+    public static final Counter LOAD_FAILURES = new Counter("load.failures");
+    public static final Counter SAVE_FAILURES = new Counter("save.failures");
+    public static final Counter IMPORT_FAILURES = new Counter("import.failures");
+    public static final Counter JOURNAL_FAILURES = new Counter("journal.failures");
+    public static final Counter REQUEST_FAILURES = new Counter("http.failures");
+    private static final Counter[] COUNTERS = {LOAD_FAILURES, SAVE_FAILURES, IMPORT_FAILURES, JOURNAL_FAILURES,
+            REQUEST_FAILURES};
+    private static final LongAdder[] REJECTED = new LongAdder[MovieCsvParser.Reason.values().length];
+
+    private static ScheduledExecutorService logger;
+    private static ScheduledFuture<?> logTask;
+
+    static {
+        for (int i = 0; i < REJECTED.length; i++) REJECTED[i] = new LongAdder();
+        if (enabled) register();
+        long seconds = Long.getLong("dms.metrics.logSeconds", 0);
+        if (seconds > 0) startLogging(seconds);
+    }
+
+    private MovieMetrics() {}
+
+    // ----- Switch -----
+
+    public static boolean isEnabled() { return enabled; }
+
+    /**
+     * Switches recording on or off. The first switch on registers the MBean.
+     */
+    public static void setEnabled(boolean on) {
+        if (on) register();
+        enabled = on;
+    }
+
+    /**
+     * Timestamp to pass to Timer.stop, or 0 when metrics are off.
+     */
+    public static long start() {
+        return enabled ? System.nanoTime() : 0;
+    }
+
+    /**
+     * Counts a row rejected by Movie.fromCSV under its reason.
+     */
+    public static void rejected(IllegalArgumentException e) {
+        if (!enabled) return;
+        if (e instanceof MovieCsvParser.InvalidLineException) {
+            REJECTED[((MovieCsvParser.InvalidLineException) e).reason.ordinal()].increment();
+        }
+    }
+
+    // ----- Instruments -----
+
+    /**
+     * A monotonically increasing count.
+     */
+    public static final class Counter {
+        private final String name;
+        private final LongAdder count = new LongAdder();
+
+        Counter(String name) { this.name = name; }
+
+        public void increment() {
+            if (enabled) count.increment();
+        }
+
+        public long get() { return count.sum(); }
+
+        public String name() { return name; }
+    }
+
+    /**
+     * Latency histogram of one operation plus the rows it handled.
+     * Buckets are log-linear: each power of two of nanoseconds is split into 8 buckets, so
+     * a percentile is off by at most 12.5% of its value. Recording takes no lock: one
+     * atomic bucket increment plus a few LongAdder updates.
+     */
+    public static final class Timer {
+        private static final int SUB_BITS = 3;
+        private static final int SUB = 1 << SUB_BITS;
+        private static final int BUCKETS = (64 - SUB_BITS + 1) * SUB;
+
+        private final String name;
+        private final AtomicLongArray buckets = new AtomicLongArray(BUCKETS);
+        private final LongAdder count = new LongAdder();
+        private final LongAdder totalNanos = new LongAdder();
+        private final LongAdder rows = new LongAdder();
+        private final LongAccumulator maxNanos = new LongAccumulator(Math::max, 0);
+
+        Timer(String name) { this.name = name; }
+
+        /**
+         * Records the time since start (from MovieMetrics.start()) for an operation that
+         * handled the given number of rows. Does nothing if start is 0.
+         */
+        public void stop(long start, long rowCount) {
+            if (start == 0) return;
+            long nanos = Math.max(System.nanoTime() - start, 0);
+            buckets.incrementAndGet(bucket(nanos));
+            count.increment();
+            totalNanos.add(nanos);
+            rows.add(rowCount);
+            maxNanos.accumulate(nanos);
+        }
+
+        static int bucket(long nanos) {
+            if (nanos < SUB) return (int) nanos;
+            int exp = 63 - Long.numberOfLeadingZeros(nanos);     // >= SUB_BITS
+            int sub = (int) (nanos >>> (exp - SUB_BITS)) & (SUB - 1);
+            return (exp - SUB_BITS + 1) * SUB + sub;
+        }
+
+        /** Upper bound in nanoseconds of the values that land in a bucket. */
+        static long bucketLimit(int bucket) {
+            if (bucket < SUB) return bucket;
+            int exp = bucket / SUB + SUB_BITS - 1;
+            long sub = bucket % SUB;
+            return ((SUB + sub + 1) << (exp - SUB_BITS)) - 1;
+        }
+
+        public String name() { return name; }
+
+        public long count() { return count.sum(); }
+
+        public long rows() { return rows.sum(); }
+
+        public double meanMillis() {
+            long n = count.sum();
+            return n == 0 ? 0 : totalNanos.sum() / 1e6 / n;
+        }
+
+        public double maxMillis() { return maxNanos.get() / 1e6; }
+
+        /** Rows handled per second of time spent in the operation. */
+        public double rowsPerSecond() {
+            long nanos = totalNanos.sum();
+            return nanos == 0 ? 0 : rows.sum() / (nanos / 1e9);
+        }
+
+        /**
+         * Latency at the given percentile (0-100), in milliseconds.
+         */
+        public double percentileMillis(double p) {
+            long n = 0;
+            long[] counts = new long[BUCKETS];
+            for (int i = 0; i < BUCKETS; i++) n += counts[i] = buckets.get(i);
+            if (n == 0) return 0;
+            long rank = Math.max(1, (long) Math.ceil(p / 100 * n));
+            long seen = 0;
+            for (int i = 0; i < BUCKETS; i++) {
+                seen += counts[i];
+                if (seen >= rank) return Math.min(bucketLimit(i), maxNanos.get()) / 1e6;
+            }
+            return maxMillis();
+        }
+
+        void reset() {
+            for (int i = 0; i < BUCKETS; i++) buckets.set(i, 0);
+            count.reset();
+            totalNanos.reset();
+            rows.reset();
+            maxNanos.reset();
+        }
+    }
+
+    // ----- Reading -----
+
+    /**
+     * Failure counters and rejected rows ("rejected.YEAR_RANGE", ...), by name.
+     */
+    public static Map<String, Long> counters() {
+        Map<String, Long> result = new LinkedHashMap<>();
+        for (Counter c : COUNTERS) result.put(c.name, c.get());
+        for (MovieCsvParser.Reason r : MovieCsvParser.Reason.values()) {
+            result.put("rejected." + r, REJECTED[r.ordinal()].sum());
+        }
+        return result;
+    }
+
+    public static long rejected(MovieCsvParser.Reason reason) {
+        return REJECTED[reason.ordinal()].sum();
+    }
+
+    public static List<Timer> timers() {
+        return List.of(TIMERS);
+    }
+
+    /**
+     * Zeroes every counter and histogram.
+     */
+    public static void reset() {
+        for (Timer t : TIMERS) t.reset();
+        for (Counter c : COUNTERS) c.count.reset();
+        for (LongAdder a : REJECTED) a.reset();
+    }
+
+    /**
+     * One line per timer that has recorded something, then the non-zero counters.
+     */
+    public static String dump() {
+        StringBuilder sb = new StringBuilder("MovieMetrics");
+        if (!enabled) sb.append(" (disabled)");
+        for (Timer t : TIMERS) {
+            if (t.count() == 0) continue;
+            sb.append(String.format(Locale.ROOT,
+                    "%n  %-7s count=%d mean=%.2fms p50=%.2fms p99=%.2fms max=%.2fms rows/s=%,.0f",
+                    t.name, t.count(), t.meanMillis(), t.percentileMillis(50), t.percentileMillis(99),
+                    t.maxMillis(), t.rowsPerSecond()));
+        }
+        for (Map.Entry<String, Long> e : counters().entrySet()) {
+            if (e.getValue() != 0) sb.append(String.format("%n  %s=%d", e.getKey(), e.getValue()));
+        }
+        return sb.toString();
+    }
+
+    // ----- Reporting -----
+
+    /**
+     * Prints dump() every intervalSeconds on a daemon thread, replacing an earlier schedule.
+     */
+    public static synchronized void startLogging(long intervalSeconds) {
+        if (intervalSeconds <= 0) throw new IllegalArgumentException("Interval must be positive");
+        stopLogging();
+        if (logger == null) {
+            logger = Executors.newSingleThreadScheduledExecutor(r -> {
+                Thread t = new Thread(r, "movie-metrics-log");
+                t.setDaemon(true);
+                return t;
+            });
+        }
+        logTask = logger.scheduleAtFixedRate(() -> System.out.println(dump()),
+                intervalSeconds, intervalSeconds, TimeUnit.SECONDS);
+    }
+
+    public static synchronized void stopLogging() {
+        if (logTask != null) logTask.cancel(false);
+        logTask = null;
+    }
+
+    /**
+     * Management interface of the MBean registered as OBJECT_NAME.
+     */
+    public interface MetricsMXBean {
+        boolean isEnabled();
+
+        void setEnabled(boolean enabled);
+
+        Map<String, Long> getCounters();
+
+        /** Per timer: count, meanMs, p50Ms, p90Ms, p99Ms, maxMs, rowsPerSecond. */
+        Map<String, Map<String, Double>> getTimers();
+
+        String dump();
+
+        void reset();
+    }
+
+    private static final class Bean implements MetricsMXBean {
+        @Override public boolean isEnabled() { return MovieMetrics.isEnabled(); }
+
+        @Override public void setEnabled(boolean on) { MovieMetrics.setEnabled(on); }
+
+        @Override public Map<String, Long> getCounters() { return counters(); }
+
+        @Override
+        public Map<String, Map<String, Double>> getTimers() {
+            Map<String, Map<String, Double>> result = new LinkedHashMap<>();
+            for (Timer t : TIMERS) {
+                Map<String, Double> stats = new LinkedHashMap<>();
+                stats.put("count", (double) t.count());
+                stats.put("meanMs", t.meanMillis());
+                stats.put("p50Ms", t.percentileMillis(50));
+                stats.put("p90Ms", t.percentileMillis(90));
+                stats.put("p99Ms", t.percentileMillis(99));
+                stats.put("maxMs", t.maxMillis());
+                stats.put("rowsPerSecond", t.rowsPerSecond());
+                result.put(t.name, stats);
+            }
+            return result;
+        }
+
+        @Override public String dump() { return MovieMetrics.dump(); }
+
+        @Override public void reset() { MovieMetrics.reset(); }
+    }
+
+    private static boolean registered;
+
+    /**
+     * Registers the MBean with the platform MBean server once. Starting that server costs
+     * some startup time, which is why this waits until metrics are switched on.
+     */
+    private static synchronized void register() {
+        if (registered) return;
+        registered = true;
+        try {
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            ObjectName name = new ObjectName(OBJECT_NAME);
+            if (!server.isRegistered(name)) server.registerMBean(new Bean(), name);
+        } catch (JMException | SecurityException e) {
+            System.out.println("Could not register metrics MBean: " + e.getMessage());
+        }
+    }
+}
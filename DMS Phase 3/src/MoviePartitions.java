@@ -0,0 +1,428 @@
+// ============================================
+// MoviePartitions.java
+// Catalog stored as CSV segments per decade or hash bucket under one directory
+// ============================================
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.Properties;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * A catalog kept as several CSV segment files under one directory instead of one file.
+ * Every movie belongs to exactly one segment: the decade of its year ("1990s.csv") by
+ * default, or with Layout.byHash one of N buckets of its upsert key ("bucket-07.csv"),
+ * so movies that MovieUpsert matches always share a segment.
+ *
+ * The layout is stored in "catalog.properties" when the directory is created; an
+ * existing directory keeps its own layout whatever MovieManager is given.
+ *
+ * Segment rows carry a trailing "seq" column that increases in catalog order. Merging
+ * the segments by seq on load restores the row order of the last save exactly, which
+ * the positional journal records replayed on top of it rely on. Segments are parsed in
+ * parallel, one task per segment.
+ *
+ * Changes mark the segments of the old and new values dirty, and a save rewrites only
+ * the dirty ones; a segment left empty is rewritten as a header line so it cannot come
+ * back on load. MovieManager moves the rewritten segments into place like the
+ * single-file snapshot.
+ *
+ * Decade segments also know which years they can hold, so segments(dir, min, max)
+ * skips those outside a year range for queries that read the directory from disk
+ * (MovieCli query --in DIR).
+ */
+public final class MoviePartitions {
+
+    /** Layout file written into a new catalog directory. */
+    public static final String LAYOUT_FILE = "catalog.properties";
+
+    private static final Pattern DECADE_FILE = Pattern.compile("(-?\\d+)s\\.csv");
+    private static final Pattern BUCKET_FILE = Pattern.compile("bucket-(\\d+)\\.csv");
+
+    /**
+     * How movies are assigned to segments, and how segment files are compressed.
+     */
+    public static final class Layout {
+        final int buckets;      // 0 = one segment per decade
+        final MovieCompression.Codec codec;
+
+        private Layout(int buckets, MovieCompression.Codec codec) {
+            this.buckets = buckets;
+            this.codec = codec;
+        }
+
+        public static Layout byDecade() {
+            return new Layout(0, MovieCompression.Codec.NONE);
+        }
+
+        public static Layout byDecade(MovieCompression.Codec codec) {
+            return new Layout(0, codec);
+        }
+
+        /**
+         * @param buckets number of segments, 1 to 1000
+         */
+        public static Layout byHash(int buckets, MovieCompression.Codec codec) {
+            if (buckets < 1 || buckets > 1000) throw new IllegalArgumentException("Bucket count must be 1 to 1000");
+            return new Layout(buckets, codec);
+        }
+
+        /** Segment of a movie: its decade (e.g. 1990) or its hash bucket. */
+        int key(String title, int year, String director) {
+            if (buckets == 0) return Math.floorDiv(year, 10) * 10;
+            return (int) Math.floorMod(MovieUpsert.hash(title, year, director), (long) buckets);
+        }
+
+        int key(Movie m) {
+            return key(m.getTitle(), m.getYear(), m.getDirector());
+        }
+
+        String fileName(int key) {
+            String name = buckets == 0 ? key + "s.csv" : String.format(Locale.ROOT, "bucket-%02d.csv", key);
+            return name + extension(codec);
+        }
+
+        /** Segment key of a file name of this layout, or null for any other file. */
+        Integer keyOf(String fileName) {
+            String ext = extension(codec);
+            if (!fileName.endsWith(ext)) return null;
+            Matcher m = (buckets == 0 ? DECADE_FILE : BUCKET_FILE)
+                    .matcher(fileName.substring(0, fileName.length() - ext.length()));
+            if (!m.matches()) return null;
+            int key = Integer.parseInt(m.group(1));
+            return buckets == 0 || key < buckets ? key : null;
+        }
+
+        /** False if the segment cannot hold a year in [minYear, maxYear]. */
+        boolean mayContain(int key, int minYear, int maxYear) {
+            return buckets != 0 || (key <= maxYear && key + 9 >= minYear);
+        }
+
+        private static String extension(MovieCompression.Codec codec) {
+            return switch (codec) {
+                case NONE -> "";
+                case GZIP -> ".gz";
+                case DEFLATE -> ".deflate";
+            };
+        }
+
+        private static Layout read(Path file) throws IOException {
+            Properties p = new Properties();
+            try (InputStream in = Files.newInputStream(file)) {
+                p.load(in);
+            }
+            try {
+                String partition = p.getProperty("partition", "decade").trim();
+                MovieCompression.Codec codec = MovieCompression.Codec.valueOf(
+                        p.getProperty("codec", "none").trim().toUpperCase(Locale.ROOT));
+                if (partition.equals("decade")) return new Layout(0, codec);
+                if (partition.startsWith("hash:")) return byHash(Integer.parseInt(partition.substring(5)), codec);
+            } catch (IllegalArgumentException e) {
+                // reported below
+            }
+            throw new IOException("Invalid layout in '" + file + "'");
+        }
+
+        private void write(Path file) throws IOException {
+            Properties p = new Properties();
+            p.setProperty("partition", buckets == 0 ? "decade" : "hash:" + buckets);
+            p.setProperty("codec", codec.name().toLowerCase(Locale.ROOT));
+            try (OutputStream out = Files.newOutputStream(file)) {
+                p.store(out, "Movie catalog segments, see MoviePartitions");
+            }
+        }
+    }
+
+    /**
+     * Dirty segments taken for one save, with the seq of every id they may contain.
+     */
+    static final class Save {
+        final int[] keys;
+        final long[] seqs;
+
+        Save(int[] keys, long[] seqs) {
+            this.keys = keys;
+            this.seqs = seqs;
+        }
+    }
+
+    private final Path dir;
+    private final Layout layout;
+    private final TreeSet<Integer> dirty = new TreeSet<>(); // guarded by this
+    private long[] seqs = new long[0]; // seq per id below known
+    private int known;
+    private long lastSeq;
+
+    private MoviePartitions(Path dir, Layout layout) {
+        this.dir = dir;
+        this.layout = layout;
+    }
+
+    /**
+     * True if a catalog path names a segment directory: an existing directory, or a
+     * path ending in a separator.
+     */
+    public static boolean isPartitionedPath(String path) {
+        return path.endsWith("/") || path.endsWith(File.separator) || Files.isDirectory(Paths.get(path));
+    }
+
+    /**
+     * Opens a catalog directory with its stored layout, or with the given one if the
+     * directory is new. Nothing is created until load().
+     */
+    public static MoviePartitions open(Path dir, Layout layout) throws IOException {
+        Path file = dir.resolve(LAYOUT_FILE);
+        return new MoviePartitions(dir, Files.exists(file) ? Layout.read(file) : layout);
+    }
+
+    public Layout layout() {
+        return layout;
+    }
+
+    /** Path the journal files are named after ("<dir>/catalog.journal"). */
+    String journalBase() {
+        return dir.resolve("catalog").toString();
+    }
+
+    // ----- Loading -----
+
+    /** Parsed rows of one segment, in file order. */
+    private static final class Segment {
+        final List<Movie> movies = new ArrayList<>();
+        long[] seqs = new long[1024];
+    }
+
+    /**
+     * Reads every segment in parallel and merges them into one store in seq order.
+     * Creates the directory and its layout file if they do not exist yet. Invalid
+     * lines are reported and skipped like in a CSV snapshot.
+     */
+    MovieStore load(ForkJoinPool pool) throws IOException {
+        Files.createDirectories(dir);
+        Path layoutFile = dir.resolve(LAYOUT_FILE);
+        if (!Files.exists(layoutFile)) layout.write(layoutFile);
+
+        List<Path> files = new ArrayList<>(segmentFiles(dir, layout).values());
+        List<ForkJoinTask<Segment>> tasks = new ArrayList<>(files.size());
+        for (Path file : files) tasks.add(pool.submit(() -> readSegment(file)));
+        Segment[] segments = new Segment[files.size()];
+        for (int i = 0; i < segments.length; i++) {
+            try {
+                segments[i] = tasks.get(i).join();
+            } catch (RuntimeException e) {
+                for (ForkJoinTask<Segment> t : tasks) t.cancel(false);
+                if (e.getCause() instanceof IOException) throw (IOException) e.getCause();
+                throw e;
+            }
+        }
+
+        int total = 0;
+        for (Segment s : segments) total += s.movies.size();
+        List<Movie> merged = new ArrayList<>(total);
+        long[] order = new long[total];
+        // Heads of the segments by seq; ties keep segment order
+        int[] pos = new int[segments.length];
+        PriorityQueue<Integer> heads = new PriorityQueue<>((a, b) -> {
+            int c = Long.compare(segments[a].seqs[pos[a]], segments[b].seqs[pos[b]]);
+            return c != 0 ? c : Integer.compare(a, b);
+        });
+        for (int i = 0; i < segments.length; i++) if (!segments[i].movies.isEmpty()) heads.add(i);
+        long max = 0;
+        while (!heads.isEmpty()) {
+            int i = heads.poll();
+            Segment s = segments[i];
+            order[merged.size()] = s.seqs[pos[i]];
+            max = Math.max(max, s.seqs[pos[i]]);
+            merged.add(s.movies.get(pos[i]));
+            if (++pos[i] < s.movies.size()) heads.add(i);
+        }
+
+        MovieStore store = new MovieStore();
+        store.addAll(merged);
+        synchronized (this) {
+            seqs = order;
+            known = total;
+            lastSeq = max;
+            dirty.clear();
+        }
+        return store;
+    }
+
+    private Segment readSegment(Path file) {
+        Segment segment = new Segment();
+        try (MovieCsvReader reader = new MovieCsvReader(new InputStreamReader(MovieCompression.open(file)))) {
+            String line;
+            while ((line = reader.next()) != null) {
+                int lineNum = reader.recordLine();
+                line = line.trim();
+                if (line.isEmpty()) continue;
+                if (lineNum == 1 && line.toLowerCase().contains("title")) continue;
+
+                try {
+                    int comma = line.lastIndexOf(',');
+                    long seq = parseSeq(line, comma);
+                    Movie m = Movie.fromCSV(line.substring(0, comma));
+                    int n = segment.movies.size();
+                    if (n == segment.seqs.length) segment.seqs = Arrays.copyOf(segment.seqs, n * 2);
+                    segment.seqs[n] = seq;
+                    segment.movies.add(m);
+                } catch (IllegalArgumentException ex) {
+                    if (reader.retryAsLines()) continue;
+                    MovieMetrics.rejected(ex);
+                    System.out.println("Skipping invalid CSV line " + lineNum + " of '" + file + "': " + ex.getMessage());
+                }
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return segment;
+    }
+
+    private static long parseSeq(String line, int comma) {
+        try {
+            if (comma < 0) throw new NumberFormatException();
+            return Long.parseLong(line.substring(comma + 1).trim());
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Missing or invalid seq column");
+        }
+    }
+
+    /**
+     * Removes the seq column from a segment line so Movie.fromCSV can parse it.
+     */
+    static String stripSeq(String line) {
+        int comma = line.lastIndexOf(',');
+        return comma < 0 ? line : line.substring(0, comma);
+    }
+
+    /**
+     * Segment files of a catalog directory that may hold movies from minYear to maxYear,
+     * in key order (ascending decades). Hash segments can hold any year.
+     */
+    public static List<Path> segments(Path dir, int minYear, int maxYear) throws IOException {
+        Path file = dir.resolve(LAYOUT_FILE);
+        Layout layout = Files.exists(file) ? Layout.read(file) : Layout.byDecade();
+        List<Path> result = new ArrayList<>();
+        for (Map.Entry<Integer, Path> e : segmentFiles(dir, layout).entrySet()) {
+            if (layout.mayContain(e.getKey(), minYear, maxYear)) result.add(e.getValue());
+        }
+        return result;
+    }
+
+    private static TreeMap<Integer, Path> segmentFiles(Path dir, Layout layout) throws IOException {
+        TreeMap<Integer, Path> files = new TreeMap<>();
+        if (!Files.isDirectory(dir)) return files;
+        try (DirectoryStream<Path> entries = Files.newDirectoryStream(dir)) {
+            for (Path p : entries) {
+                Integer key = layout.keyOf(p.getFileName().toString());
+                if (key != null) files.put(key, p);
+            }
+        }
+        return files;
+    }
+
+    // ----- Saving -----
+
+    /**
+     * Marks the segments of a changed movie's old and new values dirty (either may be null).
+     */
+    synchronized void touch(Movie removed, Movie added) {
+        if (removed != null) dirty.add(layout.key(removed));
+        if (added != null) dirty.add(layout.key(added));
+    }
+
+    /**
+     * Takes the dirty segments for a save of the store as it is now and hands out seqs to
+     * ids added since the last call. Ids only ever grow in catalog order, so the new seqs
+     * keep increasing with the rows. Called with the manager's write lock held.
+     */
+    synchronized Save beginSave(MovieStore store) {
+        int limit = store.idLimit();
+        if (known < limit) {
+            if (seqs.length < limit) seqs = Arrays.copyOf(seqs, Math.max(limit, seqs.length * 2));
+            while (known < limit) seqs[known++] = ++lastSeq;
+        }
+        int[] keys = dirty.stream().mapToInt(Integer::intValue).toArray();
+        dirty.clear();
+        return new Save(keys, seqs);
+    }
+
+    /**
+     * Marks a save's segments dirty again after it failed.
+     */
+    synchronized void saveFailed(Save save) {
+        for (int key : save.keys) dirty.add(key);
+    }
+
+    /**
+     * Writes every segment of the save to its temp file ("<segment>.tmp"), each fsynced.
+     *
+     * @return the segment paths, for MovieManager to move the temp files over
+     */
+    List<Path> write(Save save, MovieStore snapshot) throws IOException {
+        if (save.keys.length == 0) return List.of();
+        Files.createDirectories(dir);
+        IntList[] rows = new IntList[save.keys.length];
+        for (int i = 0; i < rows.length; i++) rows[i] = new IntList();
+        for (int row = 0; row < snapshot.size(); row++) {
+            int key = layout.key(snapshot.title(row), snapshot.year(row), snapshot.director(row));
+            int i = Arrays.binarySearch(save.keys, key);
+            if (i >= 0) rows[i].add(row);
+        }
+
+        List<Path> targets = new ArrayList<>(rows.length);
+        try {
+            for (int i = 0; i < rows.length; i++) {
+                Path target = dir.resolve(layout.fileName(save.keys[i]));
+                targets.add(target);
+                MovieCsvWriter.write(tmpPath(target), snapshot, rows[i].toArray(), save.seqs, layout.codec);
+            }
+        } catch (IOException | RuntimeException e) {
+            for (Path target : targets) Files.deleteIfExists(tmpPath(target));
+            throw e;
+        }
+        return targets;
+    }
+
+    static Path tmpPath(Path segment) {
+        return segment.resolveSibling(segment.getFileName() + ".tmp");
+    }
+
+    /**
+     * Completes or rolls back segment writes interrupted by a crash, like
+     * MovieManager does for a single snapshot: the temp files are complete unless the
+     * journal segment still exists.
+     */
+    void recover(boolean journalHasSegment) throws IOException {
+        if (!Files.isDirectory(dir)) return;
+        try (DirectoryStream<Path> entries = Files.newDirectoryStream(dir, "*.tmp")) {
+            for (Path tmp : entries) {
+                String name = tmp.getFileName().toString();
+                if (layout.keyOf(name.substring(0, name.length() - 4)) == null) continue;
+                if (journalHasSegment) Files.delete(tmp);
+                else Files.move(tmp, tmp.resolveSibling(name.substring(0, name.length() - 4)),
+                        StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            }
+        }
+    }
+}
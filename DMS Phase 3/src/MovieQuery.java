@@ -0,0 +1,136 @@
+// ============================================
+// MovieQuery.java
+// Combinable search criteria for MovieManager.query
+// ============================================
+
+import java.util.Locale;
+
+/**
+ * Search criteria for MovieManager.query. Every criterion is optional and all
+ * criteria that are set must match. Title and director comparisons ignore case.
+ * Results are in catalog order unless orderBy is set.
+ *
+ * Example: MovieQuery.all().director("James Wan").yearBetween(2010, 2015)
+ */
+public class MovieQuery {
+
+    /** Columns results can be ordered by. */
+    public enum SortKey { TITLE, YEAR, DIRECTOR, RATING, RUNTIME, VOTES, WATCHED }
+
+    String titleEquals;     // normalized
+    String titlePrefix;     // normalized
+    String director;        // normalized
+    String contains;        // normalized; found in the title or the director
+    int minYear = Integer.MIN_VALUE;
+    int maxYear = Integer.MAX_VALUE;
+    double minRating = Double.NEGATIVE_INFINITY;
+    double maxRating = Double.POSITIVE_INFINITY;
+    Boolean watched;
+    SortKey sortKey;        // null = catalog order
+    boolean descending;
+
+    /**
+     * Starts an empty query that matches every movie.
+     */
+    public static MovieQuery all() {
+        return new MovieQuery();
+    }
+
+    // ----- Criteria -----
+
+    public MovieQuery title(String title) {
+        this.titleEquals = normalize(title);
+        return this;
+    }
+
+    public MovieQuery titleStartsWith(String prefix) {
+        this.titlePrefix = normalize(prefix);
+        return this;
+    }
+
+    public MovieQuery director(String director) {
+        this.director = normalize(director);
+        return this;
+    }
+
+    /** Inclusive year range. */
+    public MovieQuery yearBetween(int min, int max) {
+        this.minYear = min;
+        this.maxYear = max;
+        return this;
+    }
+
+    /** Inclusive rating range. */
+    public MovieQuery ratingBetween(double min, double max) {
+        this.minRating = min;
+        this.maxRating = max;
+        return this;
+    }
+
+    public MovieQuery watched(boolean watched) {
+        this.watched = watched;
+        return this;
+    }
+
+    /** Title or director contains the text, ignoring case. Not indexed, so it scans. */
+    public MovieQuery titleOrDirectorContains(String text) {
+        this.contains = normalize(text);
+        return this;
+    }
+
+    /**
+     * Orders the results by a column. Title and director sort ignoring case;
+     * movies with equal values keep their catalog order.
+     */
+    public MovieQuery orderBy(SortKey key, boolean descending) {
+        this.sortKey = key;
+        this.descending = descending;
+        return this;
+    }
+
+    // ----- Matching -----
+
+    boolean hasYearRange() { return minYear != Integer.MIN_VALUE || maxYear != Integer.MAX_VALUE; }
+
+    boolean hasRatingRange() {
+        return minRating != Double.NEGATIVE_INFINITY || maxRating != Double.POSITIVE_INFINITY;
+    }
+
+    /**
+     * Checks every criterion against one row of the store.
+     */
+    boolean matches(MovieStore store, int row) {
+        int year = store.year(row);
+        if (year < minYear || year > maxYear) return false;
+        double rating = store.rating(row);
+        if (rating < minRating || rating > maxRating) return false;
+        if (watched != null && store.watched(row) != watched) return false;
+        if (director != null && !normalize(store.director(row)).equals(director)) return false;
+        if (contains != null && !containsIgnoreCase(store.title(row), contains)
+                && !containsIgnoreCase(store.director(row), contains)) return false;
+        if (titleEquals != null || titlePrefix != null) {
+            String title = normalize(store.title(row));
+            if (titleEquals != null && !title.equals(titleEquals)) return false;
+            if (titlePrefix != null && !title.startsWith(titlePrefix)) return false;
+        }
+        return true;
+    }
+
+    /** Substring test without lower-casing the whole text first; needle is normalized. */
+    private static boolean containsIgnoreCase(String text, String needle) {
+        int last = text.length() - needle.length();
+        if (needle.isEmpty()) return true;
+        char first = needle.charAt(0);
+        char firstUpper = Character.toUpperCase(first);
+        for (int i = 0; i <= last; i++) {
+            char c = text.charAt(i);
+            if ((c == first || c == firstUpper || Character.toLowerCase(c) == first)
+                    && text.regionMatches(true, i, needle, 0, needle.length())) return true;
+        }
+        return false;
+    }
+
+    static String normalize(String s) {
+        return s.trim().toLowerCase(Locale.ROOT);
+    }
+}
@@ -0,0 +1,248 @@
+// ============================================
+// MovieRegressionTest.java
+// Runnable checks for bugs that were fixed, each on a fresh temporary catalog
+// ============================================
+
+import java.io.*;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.ByteBuffer;
+import java.nio.file.*;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Regression checks (no test framework needed). Every check gets its own temporary
+ * directory for its catalog; the runner prints one line per check and exits with
+ * status 1 if any of them failed.
+ *
+ * Usage:
+ *   java MovieRegressionTest [name ...]     (all checks when no name is given)
+ */
+public class MovieRegressionTest {
+
+    /**
+     * One check; throws (usually through expect) when it fails.
+     */
+    private interface Check {
+        void run(Path dir) throws Exception;
+    }
+
+    private static final Map<String, Check> CHECKS = new LinkedHashMap<>();
+
+    static {
+        CHECKS.put("serverKeepsRatingDecimals", MovieRegressionTest::serverKeepsRatingDecimals);
+        CHECKS.put("serverIgnoresDefaultLocale", MovieRegressionTest::serverIgnoresDefaultLocale);
+        CHECKS.put("damagedJournalIsKept", MovieRegressionTest::damagedJournalIsKept);
+        CHECKS.put("tornJournalTailIsDropped", MovieRegressionTest::tornJournalTailIsDropped);
+        CHECKS.put("restoreForgetsNewIds", MovieRegressionTest::restoreForgetsNewIds);
+        CHECKS.put("restoreToMappedSnapshotForgetsNewIds", MovieRegressionTest::restoreToMappedSnapshotForgetsNewIds);
+    }
+
+    // ----- Entry Point -----
+
+    public static void main(String[] args) throws IOException {
+        int failed = 0, run = 0;
+        for (Map.Entry<String, Check> e : CHECKS.entrySet()) {
+            if (args.length > 0 && !Arrays.asList(args).contains(e.getKey())) continue;
+            run++;
+            Path dir = Files.createTempDirectory("movie-check");
+            try {
+                e.getValue().run(dir);
+                System.out.println("ok      " + e.getKey());
+            } catch (Exception | AssertionError ex) {
+                failed++;
+                System.out.println("FAILED  " + e.getKey() + ": " + ex);
+            } finally {
+                deleteRecursively(dir);
+            }
+        }
+        System.out.println(run + " checks, " + failed + " failed");
+        System.exit(failed == 0 ? 0 : 1);
+    }
+
+    private static void expect(boolean condition, String message) {
+        if (!condition) throw new AssertionError(message);
+    }
+
+    // ----- MovieServer -----
+
+    private static final String HALLOWEEN = "{\"title\":\"Halloween\",\"year\":1978,\"director\":\"John Carpenter\","
+            + "\"rating\":7.25,\"runtimeMinutes\":91,\"votes\":300,\"watched\":false}";
+
+    /**
+     * A rating with two decimals is stored as sent, on create and on update.
+     */
+    private static void serverKeepsRatingDecimals(Path dir) throws Exception {
+        MovieManager manager = new MovieManager(dir.resolve("catalog.csv").toString());
+        try (MovieServer server = new MovieServer(manager, "127.0.0.1", 0, 4)) {
+            int id = created(send(server.url(), "POST", HALLOWEEN));
+            expect(manager.getById(id).getRating() == 7.25, "POST stored rating " + manager.getById(id).getRating());
+            HttpResponse<String> r = send(server.url() + "/" + id, "GET", null);
+            expect(r.body().contains("\"rating\":7.25"), "GET returned " + r.body());
+
+            r = send(server.url() + "/" + id, "PUT", "{\"rating\":8.75}");
+            expect(r.statusCode() == 200, "PUT answered " + r.statusCode() + " " + r.body());
+            expect(manager.getById(id).getRating() == 8.75, "PUT stored rating " + manager.getById(id).getRating());
+
+            r = send(server.url(), "POST", HALLOWEEN.replace("7.25", "10.5"));
+            expect(r.statusCode() == 400, "Out of range rating answered " + r.statusCode());
+        } finally {
+            manager.close();
+        }
+    }
+
+    /**
+     * Creating and updating movies works when the default locale writes decimal commas.
+     */
+    private static void serverIgnoresDefaultLocale(Path dir) throws Exception {
+        Locale locale = Locale.getDefault();
+        Locale.setDefault(Locale.GERMANY);
+        MovieManager manager = new MovieManager(dir.resolve("catalog.csv").toString());
+        try (MovieServer server = new MovieServer(manager, "127.0.0.1", 0, 4)) {
+            int id = created(send(server.url(), "POST", HALLOWEEN));
+            HttpResponse<String> r = send(server.url() + "/" + id, "PUT", "{\"rating\":6.5,\"watched\":true}");
+            expect(r.statusCode() == 200, "PUT answered " + r.statusCode() + " " + r.body());
+            Movie m = manager.getById(id);
+            expect(m.getRating() == 6.5 && m.isWatched() && m.getTitle().equals("Halloween"), "Stored " + m);
+        } finally {
+            manager.close();
+            Locale.setDefault(locale);
+        }
+    }
+
+    // ----- Journal -----
+
+    /**
+     * A journal damaged in the middle is not rotated away by a save: changes and saves
+     * fail until it is repaired, and no journaled movie is lost.
+     */
+    private static void damagedJournalIsKept(Path dir) throws Exception {
+        String path = dir.resolve("catalog.csv").toString();
+        Path journal = Paths.get(path + ".journal");
+        journaled(path, 3);
+        byte[] good = Files.readAllBytes(journal);
+        byte[] bad = good.clone();
+        int second = 8 + ByteBuffer.wrap(good).getInt(0);
+        bad[second + 8 + 10] ^= 0x55; // inside the second record's payload
+        Files.write(journal, bad);
+
+        MovieManager manager = new MovieManager(path);
+        try {
+            manager.saveMovies();
+            expect(false, "saveMovies succeeded with a damaged journal");
+        } catch (IOException expected) {
+            // refused
+        }
+        try {
+            manager.addMovie(new Movie("Added", 2000, "Someone", 5.0, 90, 1, false));
+            expect(false, "addMovie succeeded with a damaged journal");
+        } catch (UncheckedIOException expected) {
+            // refused
+        }
+        expect(Arrays.equals(Files.readAllBytes(journal), bad), "Damaged journal was modified");
+        expect(!Files.exists(Paths.get(path + ".journal.1")), "Damaged journal was rotated");
+
+        Files.write(journal, good);
+        manager.loadMovies();
+        expect(manager.getAll().size() == 3, "Repaired journal replayed " + manager.getAll().size() + " movies");
+        manager.close();
+        MovieManager reopened = new MovieManager(path);
+        expect(reopened.getAll().size() == 3, "Saved catalog has " + reopened.getAll().size() + " movies");
+        reopened.close();
+    }
+
+    /**
+     * A record cut short at the end of the journal (a crash mid-write) is still dropped.
+     */
+    private static void tornJournalTailIsDropped(Path dir) throws Exception {
+        String path = dir.resolve("catalog.csv").toString();
+        Path journal = Paths.get(path + ".journal");
+        journaled(path, 3);
+        byte[] bytes = Files.readAllBytes(journal);
+        Files.write(journal, Arrays.copyOf(bytes, bytes.length - 5));
+
+        MovieManager manager = new MovieManager(path);
+        expect(manager.getAll().size() == 2, "Loaded " + manager.getAll().size() + " movies");
+        manager.addMovie(new Movie("Added", 2000, "Someone", 5.0, 90, 1, false));
+        manager.close();
+        MovieManager reopened = new MovieManager(path);
+        expect(reopened.getAll().size() == 3, "Saved catalog has " + reopened.getAll().size() + " movies");
+        reopened.close();
+    }
+
+    /**
+     * Adds movies that only reach the journal: the manager is dropped without close(),
+     * as if the process had crashed.
+     */
+    private static void journaled(String path, int count) {
+        MovieManager manager = new MovieManager(path);
+        for (int i = 0; i < count; i++) {
+            manager.addMovie(new Movie("Journaled " + i, 1980 + i, "Director " + i, 6.0, 90, 10, false));
+        }
+    }
+
+    // ----- MovieStore -----
+
+    /**
+     * An id handed out after snapshot() has no row once the store is restored to it.
+     */
+    private static void restoreForgetsNewIds(Path dir) {
+        MovieStore store = new MovieStore();
+        for (int i = 0; i < 3; i++) store.add(new Movie("Kept " + i, 1990 + i, "Director", 6.0, 90, 10, false));
+        MovieStore snapshot = store.snapshot();
+        int id = store.add(new Movie("Undone", 2000, "Director", 5.0, 90, 1, false));
+        store.restore(snapshot);
+        expect(store.size() == 3, "Restored store has " + store.size() + " rows");
+        expect(store.rowOf(id) == -1, "Undone id " + id + " is at row " + store.rowOf(id));
+        expect(!store.contains(id), "Undone id " + id + " is still contained");
+    }
+
+    /**
+     * The same for a store still reading straight from a mapped binary snapshot.
+     */
+    private static void restoreToMappedSnapshotForgetsNewIds(Path dir) throws Exception {
+        Path file = dir.resolve("catalog" + MovieSnapshotFile.EXTENSION);
+        List<Movie> movies = new ArrayList<>();
+        for (int i = 0; i < 3; i++) movies.add(new Movie("Kept " + i, 1990 + i, "Director", 6.0, 90, 10, false));
+        MovieSnapshotFile.write(file, movies);
+        MovieStore store = MovieStore.fromSnapshot(MovieSnapshotFile.open(file));
+        MovieStore snapshot = store.snapshot();
+        int id = store.add(new Movie("Undone", 2000, "Director", 5.0, 90, 1, false));
+        store.restore(snapshot);
+        expect(store.size() == 3, "Restored store has " + store.size() + " rows");
+        expect(store.rowOf(id) == -1, "Undone id " + id + " is at row " + store.rowOf(id));
+        expect(!store.contains(id), "Undone id " + id + " is still contained");
+        expect(store.get(store.rowOf(2)).getTitle().equals("Kept 2"), "Id 2 is " + store.get(store.rowOf(2)));
+    }
+
+    // ----- Helpers -----
+
+    private static HttpResponse<String> send(String url, String method, String body) throws Exception {
+        HttpRequest.Builder b = HttpRequest.newBuilder(URI.create(url)).header("Content-Type", "application/json");
+        b.method(method, body == null ? HttpRequest.BodyPublishers.noBody() : HttpRequest.BodyPublishers.ofString(body));
+        return HttpClient.newHttpClient().send(b.build(), HttpResponse.BodyHandlers.ofString());
+    }
+
+    /** Id from the answer to a POST, which must be 201 Created. */
+    private static int created(HttpResponse<String> r) {
+        expect(r.statusCode() == 201, "POST answered " + r.statusCode() + " " + r.body());
+        return Integer.parseInt(r.body().replaceAll("\\D", ""));
+    }
+
+    private static void deleteRecursively(Path dir) throws IOException {
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(dir)) {
+            for (Path f : files) {
+                if (Files.isDirectory(f)) deleteRecursively(f);
+                else Files.delete(f);
+            }
+        }
+        Files.delete(dir);
+    }
+}
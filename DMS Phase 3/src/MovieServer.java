@@ -0,0 +1,701 @@
+// ============================================
+// MovieServer.java
+// Embedded HTTP/JSON server for querying and editing a catalog
+// ============================================
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.*;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Small HTTP server over a shared MovieManager, for scripts and other programs on the same
+ * machine. It uses the JDK's built-in com.sun.net.httpserver, so nothing is added to the
+ * class path. Endpoints (all JSON, UTF-8):
+ *
+ *   GET    /movies?offset=0&limit=100      one page of the catalog, in catalog order
+ *   GET    /movies/{id}                    one movie
+ *   POST   /movies                         add a movie, returns {"id": ...}
+ *   PUT    /movies/{id}                    replace a movie; fields left out keep their value
+ *   DELETE /movies/{id}                    remove a movie
+ *   GET    /movies/query?...               MovieQuery: title, titlePrefix, director, contains,
+ *                                          minYear, maxYear, minRating, maxRating, watched,
+ *                                          sort=COL[:desc], offset, limit
+ *   GET    /movies/scariest?k=10           the k scariest movies, with their scariness
+ *
+ * Reads work on the manager's published snapshot and never wait for writers; writes go
+ * through the manager's usual methods, so they are journaled like edits made in the GUI.
+ * Pages are streamed row by row with chunked encoding instead of being built in memory.
+ * New movies are checked by the same rules as CSV lines (Movie.fromCSV).
+ *
+ * Every exchange runs on its own virtual thread when the JDK has them (21 or later), so
+ * thousands of slow clients do not tie up platform threads. Older JDKs fall back to a
+ * fixed pool of daemon threads.
+ *
+ * Usage:
+ *   java Main serve [--catalog movies.csv] [--host 127.0.0.1] [--port 8080] [--threads 256]
+ */
+public class MovieServer implements Closeable {
+
+    static final String USAGE = String.join(System.lineSeparator(),
+            "Usage: java Main serve [options]",
+            "  --catalog PATH     CSV file or catalog directory to serve (default: movies.csv)",
+            "  --host HOST        address to listen on (default: 127.0.0.1)",
+            "  --port N           port to listen on, 0 for any free port (default: 8080)",
+            "  --threads N        request threads when the JDK has no virtual threads (default: 256)");
+
+    private static final String CONTEXT = "/movies";
+    private static final int DEFAULT_PAGE = 100;
+    private static final int MAX_PAGE = 10_000;
+    private static final int MAX_BODY = 64 * 1024;
+    private static final int BACKLOG = 4096;        // pending connections the OS may queue
+
+    static {
+        // The JDK server closes keep-alive connections beyond 200 idle ones, and clients
+        // then fail when they reuse them. Raise the cap unless it was set on the command line.
+        if (System.getProperty("sun.net.httpserver.maxIdleConnections") == null) {
+            System.setProperty("sun.net.httpserver.maxIdleConnections", "100000");
+        }
+    }
+
+    private final MovieManager manager;
+    private final HttpServer server;
+    private final ExecutorService executor;
+    private final boolean virtualThreads;
+
+    /**
+     * Binds the server to an address and starts accepting requests.
+     *
+     * @param port    port to listen on, 0 for any free port (see port())
+     * @param threads size of the fallback pool used when virtual threads are not available
+     */
+    public MovieServer(MovieManager manager, String host, int port, int threads) throws IOException {
+        this.manager = manager;
+        ExecutorService virtual = virtualThreadExecutor();
+        this.virtualThreads = virtual != null;
+        this.executor = virtual != null ? virtual : platformThreadExecutor(threads);
+        this.server = HttpServer.create(new InetSocketAddress(host, port), BACKLOG);
+        server.createContext(CONTEXT, this::handle);
+        server.setExecutor(executor);
+        server.start();
+    }
+
+    /**
+     * Executors.newVirtualThreadPerTaskExecutor(), looked up reflectively so the program
+     * still compiles and runs on JDKs without it.
+     *
+     * @return the executor, or null if this JDK has no virtual threads
+     */
+    private static ExecutorService virtualThreadExecutor() {
+        try {
+            return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+        } catch (ReflectiveOperationException | UnsupportedOperationException e) {
+            return null;
+        }
+    }
+
+    private static ExecutorService platformThreadExecutor(int threads) {
+        AtomicInteger count = new AtomicInteger();
+        return Executors.newFixedThreadPool(threads, r -> {
+            Thread t = new Thread(r, "http-" + count.incrementAndGet());
+            t.setDaemon(true);
+            return t;
+        });
+    }
+
+    /** Port the server listens on. */
+    public int port() { return server.getAddress().getPort(); }
+
+    /** Base URL of the movie endpoints, e.g. http://127.0.0.1:8080/movies */
+    public String url() {
+        return "http://" + server.getAddress().getHostString() + ":" + port() + CONTEXT;
+    }
+
+    /** True if requests run on virtual threads. */
+    public boolean usesVirtualThreads() { return virtualThreads; }
+
+    /**
+     * Stops accepting requests, lets running ones finish for up to a second, and stops
+     * the request threads. The manager stays open.
+     */
+    @Override
+    public void close() {
+        server.stop(1);
+        executor.shutdown();
+        try {
+            executor.awaitTermination(1, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    // ----- Entry Point -----
+
+    /**
+     * Opens the catalog and serves it until the process is stopped; the catalog is closed
+     * (and saved) by a shutdown hook.
+     *
+     * @return 0 once the server is running, 1 if it could not start, 2 for bad arguments
+     */
+    public static int run(String[] args, PrintStream out, PrintStream err) {
+        String catalog = "movies.csv", host = "127.0.0.1";
+        int port = 8080, threads = 256;
+        try {
+            for (int i = 0; i < args.length; i++) {
+                if (args[i].equals("--help") || args[i].equals("-h")) {
+                    out.println(USAGE);
+                    return 0;
+                }
+                if (i + 1 >= args.length) throw new IllegalArgumentException("Missing value for " + args[i]);
+                String value = args[++i];
+                switch (args[i - 1]) {
+                    case "--catalog" -> catalog = value;
+                    case "--host" -> host = value;
+                    case "--port" -> port = Integer.parseInt(value);
+                    case "--threads" -> threads = Integer.parseInt(value);
+                    default -> throw new IllegalArgumentException("Unknown option '" + args[i - 1] + "'");
+                }
+            }
+            if (port < 0 || port > 65535) throw new IllegalArgumentException("Port out of range: " + port);
+            if (threads < 1) throw new IllegalArgumentException("--threads must be at least 1");
+        } catch (IllegalArgumentException e) {
+            err.println(e.getMessage());
+            err.println(USAGE);
+            return 2;
+        }
+
+        MovieManager manager;
+        MovieServer server;
+        try {
+            manager = new MovieManager(catalog);
+        } catch (UncheckedIOException e) {
+            err.println("Error: " + e.getMessage());
+            return 1;
+        }
+        try {
+            server = new MovieServer(manager, host, port, threads);
+        } catch (IOException e) {
+            err.println("Error: cannot listen on " + host + ":" + port + ": " + e.getMessage());
+            try {
+                manager.close();
+            } catch (IOException ignored) {
+            }
+            return 1;
+        }
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+            server.close();
+            try {
+                manager.close();
+            } catch (IOException e) {
+                System.err.println("Error saving catalog: " + e.getMessage());
+            }
+        }, "movie-server-shutdown"));
+        out.println("Serving " + manager.getStore().size() + " movies from " + catalog + " on " + server.url()
+                + (server.usesVirtualThreads() ? " (virtual threads)" : " (" + threads + " threads)"));
+        return 0;
+    }
+
+    // ----- Routing -----
+
+    /**
+     * Thrown by handlers to answer with an error status and message.
+     */
+    private static final class HttpError extends RuntimeException {
+        private static final long serialVersionUID = 1L;
+        final int status;
+
+        HttpError(int status, String message) {
+            super(message);
+            this.status = status;
+        }
+    }
+
+    private void handle(HttpExchange exchange) throws IOException {
+        long t = MovieMetrics.start();
+        long rows = 0;
+        try {
+            String path = exchange.getRequestURI().getPath();
+            String rest = path.substring(CONTEXT.length());
+            if (rest.startsWith("/")) rest = rest.substring(1);
+            if (rest.endsWith("/")) rest = rest.substring(0, rest.length() - 1);
+            Map<String, String> params = params(exchange.getRequestURI().getRawQuery());
+            String method = exchange.getRequestMethod();
+
+            if (rest.isEmpty()) {
+                if (method.equals("GET")) rows = list(exchange, params);
+                else if (method.equals("POST")) add(exchange);
+                else throw notAllowed(exchange, "GET, POST");
+            } else if (rest.equals("query")) {
+                if (!method.equals("GET")) throw notAllowed(exchange, "GET");
+                rows = query(exchange, params);
+            } else if (rest.equals("scariest")) {
+                if (!method.equals("GET")) throw notAllowed(exchange, "GET");
+                rows = scariest(exchange, params);
+            } else if (rest.indexOf('/') < 0) {
+                int id = parseId(rest);
+                switch (method) {
+                    case "GET" -> rows = get(exchange, id);
+                    case "PUT" -> update(exchange, id);
+                    case "DELETE" -> remove(exchange, id);
+                    default -> throw notAllowed(exchange, "GET, PUT, DELETE");
+                }
+            } else {
+                throw new HttpError(404, "No such resource: " + path);
+            }
+        } catch (HttpError e) {
+            error(exchange, e.status, e.getMessage());
+        } catch (IllegalArgumentException e) {
+            error(exchange, 400, e.getMessage());
+        } catch (IOException e) {
+            // client went away mid-response; nothing left to tell it
+            MovieMetrics.REQUEST_FAILURES.increment();
+        } catch (RuntimeException e) {
+            MovieMetrics.REQUEST_FAILURES.increment();
+            error(exchange, 500, e.toString());
+        } finally {
+            exchange.close();
+            MovieMetrics.REQUEST.stop(t, rows);
+        }
+    }
+
+    private static HttpError notAllowed(HttpExchange exchange, String allowed) {
+        exchange.getResponseHeaders().set("Allow", allowed);
+        return new HttpError(405, "Method " + exchange.getRequestMethod() + " not allowed");
+    }
+
+    /**
+     * Sends an error body, unless a response was already started (a failure halfway
+     * through a streamed page can only end the stream).
+     */
+    private static void error(HttpExchange exchange, int status, String message) {
+        if (exchange.getResponseCode() != -1) return;
+        try {
+            StringBuilder sb = new StringBuilder("{\"error\":");
+            quote(sb, message == null ? "" : message);
+            send(exchange, status, sb.append('}').toString());
+        } catch (IOException ignored) {
+            // client went away
+        }
+    }
+
+    // ----- Handlers -----
+
+    private long list(HttpExchange exchange, Map<String, String> params) throws IOException {
+        int offset = intParam(params, "offset", 0, 0, Integer.MAX_VALUE);
+        int limit = intParam(params, "limit", DEFAULT_PAGE, 0, MAX_PAGE);
+        MovieStore snapshot = manager.getStore();
+        int from = Math.min(offset, snapshot.size());
+        int to = (int) Math.min((long) from + limit, snapshot.size());
+        try (Writer w = stream(exchange, 200)) {
+            w.write("{\"total\":" + snapshot.size() + ",\"offset\":" + offset + ",\"limit\":" + limit
+                    + ",\"movies\":[");
+            StringBuilder sb = new StringBuilder(256);
+            for (int row = from; row < to; row++) {
+                sb.setLength(0);
+                if (row > from) sb.append(',');
+                movie(sb, snapshot, row, false);
+                w.append(sb);
+            }
+            w.write("]}");
+        }
+        return to - from;
+    }
+
+    private long query(HttpExchange exchange, Map<String, String> params) throws IOException {
+        int offset = intParam(params, "offset", 0, 0, Integer.MAX_VALUE - MAX_PAGE - 1);
+        int limit = intParam(params, "limit", DEFAULT_PAGE, 0, MAX_PAGE);
+        MovieQuery q = query(params);
+        MovieManager.QueryResult r = manager.search(q, offset + limit + 1, () -> false);
+        int from = Math.min(offset, r.rows.length);
+        int to = Math.min(from + limit, r.rows.length);
+        return page(exchange, r, from, to, "\"offset\":" + offset + ",\"limit\":" + limit
+                + ",\"more\":" + (r.rows.length > to), false);
+    }
+
+    private long scariest(HttpExchange exchange, Map<String, String> params) throws IOException {
+        int k = intParam(params, "k", 10, 0, MAX_PAGE);
+        MovieManager.QueryResult r = manager.scariest(k);
+        return page(exchange, r, 0, r.rows.length, "\"k\":" + k, true);
+    }
+
+    private long get(HttpExchange exchange, int id) throws IOException {
+        MovieStore snapshot = manager.getStore();
+        int row = snapshot.rowOf(id);
+        if (row < 0) throw new HttpError(404, "No movie with id " + id);
+        StringBuilder sb = new StringBuilder(256);
+        movie(sb, snapshot, row, false);
+        send(exchange, 200, sb.toString());
+        return 1;
+    }
+
+    private void add(HttpExchange exchange) throws IOException {
+        Movie m = movie(body(exchange), null);
+        int id = manager.addMovie(m);
+        exchange.getResponseHeaders().set("Location", CONTEXT + "/" + id);
+        send(exchange, 201, "{\"id\":" + id + "}");
+    }
+
+    private void update(HttpExchange exchange, int id) throws IOException {
+        Map<String, Object> fields = body(exchange);
+        Movie old = manager.getById(id);
+        if (old == null || !manager.updateMovie(id, movie(fields, old))) {
+            throw new HttpError(404, "No movie with id " + id);
+        }
+        send(exchange, 200, "{\"id\":" + id + "}");
+    }
+
+    private void remove(HttpExchange exchange, int id) throws IOException {
+        if (!manager.removeById(id)) throw new HttpError(404, "No movie with id " + id);
+        exchange.sendResponseHeaders(204, -1);
+    }
+
+    /**
+     * Streams rows[from, to) of a result as {"count":..., extra, "movies":[...]}.
+     */
+    private static long page(HttpExchange exchange, MovieManager.QueryResult r, int from, int to,
+                             String extra, boolean scariness) throws IOException {
+        try (Writer w = stream(exchange, 200)) {
+            w.write("{\"count\":" + (to - from) + "," + extra + ",\"movies\":[");
+            StringBuilder sb = new StringBuilder(256);
+            for (int i = from; i < to; i++) {
+                sb.setLength(0);
+                if (i > from) sb.append(',');
+                movie(sb, r.store, r.rows[i], scariness);
+                w.append(sb);
+            }
+            w.write("]}");
+        }
+        return to - from;
+    }
+
+    // ----- Requests -----
+
+    private static int parseId(String text) {
+        try {
+            return Integer.parseInt(text);
+        } catch (NumberFormatException e) {
+            throw new HttpError(404, "No such resource: " + CONTEXT + "/" + text);
+        }
+    }
+
+    private static Map<String, String> params(String rawQuery) {
+        Map<String, String> params = new HashMap<>();
+        if (rawQuery == null || rawQuery.isEmpty()) return params;
+        for (String pair : rawQuery.split("&")) {
+            if (pair.isEmpty()) continue;
+            int eq = pair.indexOf('=');
+            String key = URLDecoder.decode(eq < 0 ? pair : pair.substring(0, eq), StandardCharsets.UTF_8);
+            String value = eq < 0 ? "" : URLDecoder.decode(pair.substring(eq + 1), StandardCharsets.UTF_8);
+            params.put(key, value);
+        }
+        return params;
+    }
+
+    private static int intParam(Map<String, String> params, String name, int def, int min, int max) {
+        String value = params.get(name);
+        if (value == null) return def;
+        try {
+            int n = Integer.parseInt(value.trim());
+            if (n < min || n > max) throw new IllegalArgumentException(name + " must be between " + min + " and " + max);
+            return n;
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException(name + " is not a whole number: '" + value + "'");
+        }
+    }
+
+    private static double doubleParam(Map<String, String> params, String name, double def) {
+        String value = params.get(name);
+        if (value == null) return def;
+        try {
+            return Double.parseDouble(value.trim());
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException(name + " is not a number: '" + value + "'");
+        }
+    }
+
+    private static final List<String> MOVIE_FIELDS = List.of(
+            "title", "year", "director", "rating", "runtimeMinutes", "votes", "watched");
+
+    private static final List<String> QUERY_PARAMS = List.of("title", "titlePrefix", "director", "contains",
+            "minYear", "maxYear", "minRating", "maxRating", "watched", "sort", "offset", "limit");
+
+    /**
+     * Builds a MovieQuery from the query string of GET /movies/query.
+     */
+    static MovieQuery query(Map<String, String> params) {
+        for (String name : params.keySet()) {
+            if (!QUERY_PARAMS.contains(name)) throw new IllegalArgumentException("Unknown parameter '" + name + "'");
+        }
+        MovieQuery q = MovieQuery.all();
+        if (params.containsKey("title")) q.title(params.get("title"));
+        if (params.containsKey("titlePrefix")) q.titleStartsWith(params.get("titlePrefix"));
+        if (params.containsKey("director")) q.director(params.get("director"));
+        if (params.containsKey("contains")) q.titleOrDirectorContains(params.get("contains"));
+        if (params.containsKey("minYear") || params.containsKey("maxYear")) {
+            q.yearBetween(intParam(params, "minYear", Integer.MIN_VALUE, Integer.MIN_VALUE, Integer.MAX_VALUE),
+                    intParam(params, "maxYear", Integer.MAX_VALUE, Integer.MIN_VALUE, Integer.MAX_VALUE));
+        }
+        if (params.containsKey("minRating") || params.containsKey("maxRating")) {
+            q.ratingBetween(doubleParam(params, "minRating", Double.NEGATIVE_INFINITY),
+                    doubleParam(params, "maxRating", Double.POSITIVE_INFINITY));
+        }
+        String watched = params.get("watched");
+        if (watched != null) {
+            if (!watched.equals("true") && !watched.equals("false")) {
+                throw new IllegalArgumentException("watched must be true or false");
+            }
+            q.watched(watched.equals("true"));
+        }
+        String sort = params.get("sort");
+        if (sort != null) {
+            boolean descending = false;
+            int colon = sort.indexOf(':');
+            if (colon >= 0) {
+                String direction = sort.substring(colon + 1);
+                if (!direction.equals("desc") && !direction.equals("asc")) {
+                    throw new IllegalArgumentException("Sort direction must be asc or desc: '" + direction + "'");
+                }
+                descending = direction.equals("desc");
+                sort = sort.substring(0, colon);
+            }
+            q.orderBy(sortKey(sort), descending);
+        }
+        return q;
+    }
+
+    private static MovieQuery.SortKey sortKey(String column) {
+        return switch (column) {
+            case "title" -> MovieQuery.SortKey.TITLE;
+            case "year" -> MovieQuery.SortKey.YEAR;
+            case "director" -> MovieQuery.SortKey.DIRECTOR;
+            case "rating" -> MovieQuery.SortKey.RATING;
+            case "runtime", "runtimeMinutes" -> MovieQuery.SortKey.RUNTIME;
+            case "votes" -> MovieQuery.SortKey.VOTES;
+            case "watched" -> MovieQuery.SortKey.WATCHED;
+            default -> throw new IllegalArgumentException("Cannot sort by '" + column + "'");
+        };
+    }
+
+    private static Map<String, Object> body(HttpExchange exchange) throws IOException {
+        byte[] bytes = exchange.getRequestBody().readNBytes(MAX_BODY + 1);
+        if (bytes.length > MAX_BODY) throw new HttpError(413, "Request body larger than " + MAX_BODY + " bytes");
+        return new JsonObjectReader(new String(bytes, StandardCharsets.UTF_8)).read();
+    }
+
+    /**
+     * Builds a movie from the fields of a request body. Fields missing from the body are
+     * taken from base, or are an error when base is null. The values are checked by the
+     * same rules as a CSV line (MovieCsvParser.validate), so the API accepts exactly what
+     * an import would, and are stored as given: a rating of 7.25 stays 7.25.
+     */
+    static Movie movie(Map<String, Object> fields, Movie base) {
+        for (String name : fields.keySet()) {
+            if (!MOVIE_FIELDS.contains(name)) throw new IllegalArgumentException("Unknown field '" + name + "'");
+        }
+        return MovieCsvParser.validate(
+                stringField(fields, "title", base == null ? null : base.getTitle()),
+                wholeField(fields, "year", base == null ? null : (long) base.getYear()),
+                stringField(fields, "director", base == null ? null : base.getDirector()),
+                numberField(fields, "rating", base == null ? null : base.getRating()),
+                wholeField(fields, "runtimeMinutes", base == null ? null : (long) base.getRuntimeMinutes()),
+                wholeField(fields, "votes", base == null ? null : (long) base.getVotes()),
+                booleanField(fields, "watched", base == null ? null : base.isWatched()));
+    }
+
+    private static Object field(Map<String, Object> fields, String name, Object def) {
+        Object value = fields.containsKey(name) ? fields.get(name) : def;
+        if (value == null) throw new IllegalArgumentException("Missing field '" + name + "'");
+        return value;
+    }
+
+    private static String stringField(Map<String, Object> fields, String name, String def) {
+        if (field(fields, name, def) instanceof String s) return s;
+        throw new IllegalArgumentException("Field '" + name + "' must be a string");
+    }
+
+    private static double numberField(Map<String, Object> fields, String name, Double def) {
+        if (field(fields, name, def) instanceof Double d) return d;
+        throw new IllegalArgumentException("Field '" + name + "' must be a number");
+    }
+
+    private static long wholeField(Map<String, Object> fields, String name, Long def) {
+        Object value = field(fields, name, def == null ? null : def.doubleValue());
+        if (value instanceof Double d && d == Math.rint(d) && Math.abs(d) <= Integer.MAX_VALUE) return d.longValue();
+        throw new IllegalArgumentException("Field '" + name + "' must be a whole number");
+    }
+
+    private static boolean booleanField(Map<String, Object> fields, String name, Boolean def) {
+        if (field(fields, name, def) instanceof Boolean b) return b;
+        throw new IllegalArgumentException("Field '" + name + "' must be true or false");
+    }
+
+    /**
+     * Reads one flat JSON object: string, number, true, false and null values, no nesting.
+     * Numbers come back as Double.
+     */
+    static final class JsonObjectReader {
+        private final String s;
+        private int pos;
+
+        JsonObjectReader(String s) { this.s = s; }
+
+        Map<String, Object> read() {
+            Map<String, Object> fields = new HashMap<>();
+            expect('{');
+            if (peek() == '}') {
+                pos++;
+            } else {
+                while (true) {
+                    String key = string();
+                    expect(':');
+                    if (fields.containsKey(key)) throw fail("Duplicate field '" + key + "'");
+                    fields.put(key, value());
+                    char c = next();
+                    if (c == '}') break;
+                    if (c != ',') throw fail("Expected ',' or '}'");
+                }
+            }
+            if (peek() != 0) throw fail("Unexpected text after the object");
+            return fields;
+        }
+
+        private Object value() {
+            char c = peek();
+            if (c == '"') return string();
+            if (s.startsWith("true", pos)) { pos += 4; return Boolean.TRUE; }
+            if (s.startsWith("false", pos)) { pos += 5; return Boolean.FALSE; }
+            if (s.startsWith("null", pos)) { pos += 4; return null; }
+            if (c == '-' || c >= '0' && c <= '9') {
+                int start = pos;
+                while (pos < s.length() && "+-0123456789.eE".indexOf(s.charAt(pos)) >= 0) pos++;
+                try {
+                    return Double.parseDouble(s.substring(start, pos));
+                } catch (NumberFormatException e) {
+                    throw fail("Bad number '" + s.substring(start, pos) + "'");
+                }
+            }
+            if (c == '{' || c == '[') throw fail("Nested values are not supported");
+            throw fail("Expected a value");
+        }
+
+        private String string() {
+            expect('"');
+            StringBuilder sb = new StringBuilder();
+            while (true) {
+                if (pos >= s.length()) throw fail("Unterminated string");
+                char c = s.charAt(pos++);
+                if (c == '"') return sb.toString();
+                if (c != '\\') {
+                    sb.append(c);
+                    continue;
+                }
+                if (pos >= s.length()) throw fail("Unterminated string");
+                char e = s.charAt(pos++);
+                switch (e) {
+                    case '"', '\\', '/' -> sb.append(e);
+                    case 'b' -> sb.append('\b');
+                    case 'f' -> sb.append('\f');
+                    case 'n' -> sb.append('\n');
+                    case 'r' -> sb.append('\r');
+                    case 't' -> sb.append('\t');
+                    case 'u' -> {
+                        if (pos + 4 > s.length()) throw fail("Bad \\u escape");
+                        try {
+                            sb.append((char) Integer.parseInt(s.substring(pos, pos + 4), 16));
+                        } catch (NumberFormatException ex) {
+                            throw fail("Bad \\u escape");
+                        }
+                        pos += 4;
+                    }
+                    default -> throw fail("Bad escape '\\" + e + "'");
+                }
+            }
+        }
+
+        private void expect(char c) {
+            if (next() != c) throw fail("Expected '" + c + "'");
+        }
+
+        /** Next non-blank character, consumed; 0 at the end. */
+        private char next() {
+            char c = peek();
+            if (c != 0) pos++;
+            return c;
+        }
+
+        /** Next non-blank character, not consumed; 0 at the end. */
+        private char peek() {
+            while (pos < s.length() && Character.isWhitespace(s.charAt(pos))) pos++;
+            return pos < s.length() ? s.charAt(pos) : 0;
+        }
+
+        private IllegalArgumentException fail(String message) {
+            return new IllegalArgumentException("Bad JSON at offset " + pos + ": " + message);
+        }
+    }
+
+    // ----- Responses -----
+
+    private static void send(HttpExchange exchange, int status, String json) throws IOException {
+        byte[] bytes = json.getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().set("Content-Type", "application/json; charset=utf-8");
+        exchange.sendResponseHeaders(status, bytes.length);
+        exchange.getResponseBody().write(bytes);
+    }
+
+    /**
+     * Starts a chunked response; the caller writes the body and closes the writer.
+     */
+    private static Writer stream(HttpExchange exchange, int status) throws IOException {
+        exchange.getResponseHeaders().set("Content-Type", "application/json; charset=utf-8");
+        exchange.sendResponseHeaders(status, 0);
+        return new BufferedWriter(new OutputStreamWriter(exchange.getResponseBody(), StandardCharsets.UTF_8), 16 * 1024);
+    }
+
+    /**
+     * Appends one row as a JSON object. Numbers use Double.toString, which does not
+     * depend on the default locale.
+     */
+    static void movie(StringBuilder sb, MovieStore store, int row, boolean scariness) {
+        sb.append("{\"id\":").append(store.id(row)).append(",\"title\":");
+        quote(sb, store.title(row));
+        sb.append(",\"year\":").append(store.year(row)).append(",\"director\":");
+        quote(sb, store.director(row));
+        sb.append(",\"rating\":").append(store.rating(row))
+                .append(",\"runtimeMinutes\":").append(store.runtimeMinutes(row))
+                .append(",\"votes\":").append(store.votes(row))
+                .append(",\"watched\":").append(store.watched(row));
+        if (scariness) sb.append(",\"scariness\":").append(store.scariness(row));
+        sb.append('}');
+    }
+
+    static void quote(StringBuilder sb, String s) {
+        sb.append('"');
+        for (int i = 0; i < s.length(); i++) {
+            char c = s.charAt(i);
+            switch (c) {
+                case '"' -> sb.append("\\\"");
+                case '\\' -> sb.append("\\\\");
+                case '\n' -> sb.append("\\n");
+                case '\r' -> sb.append("\\r");
+                case '\t' -> sb.append("\\t");
+                default -> {
+                    if (c < 0x20) sb.append(String.format(Locale.ROOT, "\\u%04x", (int) c));
+                    else sb.append(c);
+                }
+            }
+        }
+        sb.append('"');
+    }
+}
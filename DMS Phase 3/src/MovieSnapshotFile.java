@@ -0,0 +1,303 @@
+// ============================================
+// MovieSnapshotFile.java
+// Memory-mapped columnar binary snapshot of the movie catalog
+// ============================================
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.AbstractList;
+import java.util.List;
+import java.util.RandomAccess;
+
+/**
+ * Versioned binary catalog format read through FileChannel.map.
+ *
+ * Layout (big-endian):
+ *   header    : magic, version, rowCount, heapBytes, then the byte offset of each section
+ *   year      : int[rowCount]
+ *   rating    : double[rowCount]
+ *   runtime   : int[rowCount]
+ *   votes     : int[rowCount]
+ *   watched   : long[(rowCount + 63) / 64] bitset
+ *   titles    : int[rowCount + 1] start offsets into the string heap
+ *   directors : int[rowCount + 1] start offsets into the string heap
+ *   heap      : UTF-8 bytes of all titles and directors
+ *
+ * Opening a file only maps it; Movie objects are created when a row is read.
+ */
+public class MovieSnapshotFile {
+
+    /** File extension that makes MovieManager use this format instead of CSV. */
+    public static final String EXTENSION = ".bin";
+
+    private static final int MAGIC = 0x4D4F5642; // "MOVB"
+    private static final int VERSION = 1;
+    private static final int SECTIONS = 8;
+    private static final int HEADER_BYTES = 16 + SECTIONS * 8;
+
+    private final MappedByteBuffer map;
+    private final int rowCount;
+    private final int yearAt, ratingAt, runtimeAt, votesAt, watchedAt, titlesAt, directorsAt, heapAt;
+    private volatile double[] scores; // scariness per row, computed on first use
+
+    private MovieSnapshotFile(MappedByteBuffer map) throws IOException {
+        this.map = map;
+        if (map.capacity() < HEADER_BYTES || map.getInt(0) != MAGIC) throw new IOException("Not a movie snapshot file");
+        int version = map.getInt(4);
+        if (version != VERSION) throw new IOException("Unsupported snapshot version " + version);
+        this.rowCount = map.getInt(8);
+        this.yearAt = section(0);
+        this.ratingAt = section(1);
+        this.runtimeAt = section(2);
+        this.votesAt = section(3);
+        this.watchedAt = section(4);
+        this.titlesAt = section(5);
+        this.directorsAt = section(6);
+        this.heapAt = section(7);
+
+        // A truncated or damaged file must fail here, not with an IndexOutOfBoundsException
+        // on some later row read
+        int heapBytes = map.getInt(12);
+        if (rowCount < 0 || heapBytes < 0) throw new IOException("Corrupted snapshot header");
+        long n = rowCount;
+        long[] sizes = {4 * n, 8 * n, 4 * n, 4 * n, 8 * ((n + 63) / 64), 4 * (n + 1), 4 * (n + 1), heapBytes};
+        for (int i = 0; i < SECTIONS; i++) {
+            if (section(i) + sizes[i] > map.capacity()) {
+                throw new IOException("Snapshot is truncated: section " + i + " ends past the end of the file");
+            }
+        }
+        int titlesEnd = map.getInt(titlesAt + rowCount * 4);
+        if (map.getInt(titlesAt) != 0 || map.getInt(directorsAt) != titlesEnd
+                || map.getInt(directorsAt + rowCount * 4) != heapBytes) {
+            throw new IOException("Corrupted snapshot string offsets");
+        }
+    }
+
+    private int section(int i) throws IOException {
+        long offset = map.getLong(16 + i * 8);
+        if (offset < HEADER_BYTES || offset > map.capacity()) throw new IOException("Corrupted snapshot header");
+        return (int) offset;
+    }
+
+    public static boolean isSnapshotPath(String path) {
+        return path.toLowerCase().endsWith(EXTENSION);
+    }
+
+    // ----- Reading -----
+
+    /**
+     * Maps a snapshot file read-only. The mapping stays valid after the channel is closed.
+     */
+    public static MovieSnapshotFile open(Path path) throws IOException {
+        try (FileChannel ch = FileChannel.open(path, StandardOpenOption.READ)) {
+            if (ch.size() > Integer.MAX_VALUE) throw new IOException("Snapshot larger than 2 GB is not supported");
+            return new MovieSnapshotFile(ch.map(FileChannel.MapMode.READ_ONLY, 0, ch.size()));
+        }
+    }
+
+    public int size() { return rowCount; }
+
+    public int year(int row) { return map.getInt(yearAt + row * 4); }
+    public double rating(int row) { return map.getDouble(ratingAt + row * 8); }
+    public int runtimeMinutes(int row) { return map.getInt(runtimeAt + row * 4); }
+    public int votes(int row) { return map.getInt(votesAt + row * 4); }
+
+    public boolean watched(int row) {
+        return (map.getLong(watchedAt + (row >>> 6) * 8) & (1L << row)) != 0;
+    }
+
+    public String title(int row) { return string(titlesAt, row); }
+    public String director(int row) { return string(directorsAt, row); }
+
+    private String string(int offsetsAt, int row) {
+        int start = map.getInt(offsetsAt + row * 4);
+        int end = map.getInt(offsetsAt + (row + 1) * 4);
+        byte[] bytes = new byte[end - start];
+        map.get(heapAt + start, bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Score of every row under the rule. Scariness scores are computed once and shared
+     * by all stores reading this file, so callers must not modify the returned array.
+     */
+    double[] scores(ScoringRule rule) {
+        boolean builtIn = rule == ScoringRule.SCARINESS;
+        double[] s = builtIn ? scores : null;
+        if (s != null) return s;
+        s = new double[rowCount];
+        int block = 1024; // a multiple of 64, so each block starts on a watched word
+        double[] ratings = new double[block];
+        int[] votes = new int[block];
+        int[] runtimes = new int[block];
+        long[] watched = new long[block / 64];
+        int[] years = new int[block];
+        double[] out = new double[block];
+        for (int first = 0; first < rowCount; first += block) {
+            int n = Math.min(block, rowCount - first);
+            for (int i = 0; i < n; i++) {
+                int row = first + i;
+                ratings[i] = rating(row);
+                votes[i] = votes(row);
+                runtimes[i] = runtimeMinutes(row);
+                years[i] = year(row);
+            }
+            for (int w = 0; w < (n + 63) / 64; w++) watched[w] = map.getLong(watchedAt + (first / 64 + w) * 8);
+            rule.scoreAll(ratings, votes, runtimes, years, watched, out, n);
+            System.arraycopy(out, 0, s, first, n);
+        }
+        if (builtIn) scores = s;
+        return s;
+    }
+
+    /**
+     * Materializes one row as a Movie.
+     */
+    public Movie get(int row) {
+        if (row < 0 || row >= rowCount) throw new IndexOutOfBoundsException("Row " + row + " of " + rowCount);
+        return new Movie(title(row), year(row), director(row), rating(row), runtimeMinutes(row), votes(row), watched(row));
+    }
+
+    /**
+     * Read-only List view that creates Movie objects on access.
+     */
+    public List<Movie> asList() {
+        return new RowList();
+    }
+
+    private class RowList extends AbstractList<Movie> implements RandomAccess {
+        @Override public Movie get(int index) { return MovieSnapshotFile.this.get(index); }
+        @Override public int size() { return rowCount; }
+    }
+
+    // ----- Writing -----
+
+    /**
+     * Writes the movies in the snapshot format and forces the file to disk.
+     */
+    public static void write(Path path, List<Movie> movies) throws IOException {
+        int n = movies.size();
+        int[] titleOffsets = new int[n + 1];
+        int[] directorOffsets = new int[n + 1];
+        long heap = 0;
+        for (int i = 0; i < n; i++) {
+            titleOffsets[i] = (int) heap;
+            heap += utf8Length(movies.get(i).getTitle());
+        }
+        titleOffsets[n] = (int) heap;
+        for (int i = 0; i < n; i++) {
+            directorOffsets[i] = (int) heap;
+            heap += utf8Length(movies.get(i).getDirector());
+        }
+        directorOffsets[n] = (int) heap;
+
+        long[] sections = new long[SECTIONS];
+        long pos = HEADER_BYTES;
+        long[] sizes = {4L * n, 8L * n, 4L * n, 4L * n, 8L * ((n + 63) / 64), 4L * (n + 1), 4L * (n + 1), heap};
+        for (int i = 0; i < SECTIONS; i++) {
+            pos = (pos + 7) & ~7L; // keep 8-byte alignment for doubles/longs
+            sections[i] = pos;
+            pos += sizes[i];
+        }
+        if (pos > Integer.MAX_VALUE) throw new IOException("Catalog too large for a single snapshot file");
+
+        try (FileChannel ch = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING)) {
+            Out out = new Out(ch);
+            out.putInt(MAGIC);
+            out.putInt(VERSION);
+            out.putInt(n);
+            out.putInt((int) heap);
+            for (long s : sections) out.putLong(s);
+
+            out.padTo(sections[0]);
+            for (Movie m : movies) out.putInt(m.getYear());
+            out.padTo(sections[1]);
+            for (Movie m : movies) out.putDouble(m.getRating());
+            out.padTo(sections[2]);
+            for (Movie m : movies) out.putInt(m.getRuntimeMinutes());
+            out.padTo(sections[3]);
+            for (Movie m : movies) out.putInt(m.getVotes());
+            out.padTo(sections[4]);
+            long word = 0;
+            for (int i = 0; i < n; i++) {
+                if (movies.get(i).isWatched()) word |= 1L << i;
+                if ((i & 63) == 63) {
+                    out.putLong(word);
+                    word = 0;
+                }
+            }
+            if ((n & 63) != 0) out.putLong(word);
+            out.padTo(sections[5]);
+            for (int off : titleOffsets) out.putInt(off);
+            out.padTo(sections[6]);
+            for (int off : directorOffsets) out.putInt(off);
+            out.padTo(sections[7]);
+            for (Movie m : movies) out.putBytes(m.getTitle().getBytes(StandardCharsets.UTF_8));
+            for (Movie m : movies) out.putBytes(m.getDirector().getBytes(StandardCharsets.UTF_8));
+            out.flush();
+            ch.force(true);
+        }
+    }
+
+    private static int utf8Length(String s) {
+        int len = 0;
+        for (int i = 0; i < s.length(); i++) {
+            char c = s.charAt(i);
+            if (c < 0x80) len++;
+            else if (c < 0x800) len += 2;
+            else if (Character.isHighSurrogate(c) && i + 1 < s.length() && Character.isLowSurrogate(s.charAt(i + 1))) {
+                len += 4;
+                i++;
+            } else len += 3;
+        }
+        return len;
+    }
+
+    /**
+     * Small buffered writer over a FileChannel.
+     */
+    private static class Out {
+        private final FileChannel ch;
+        private final ByteBuffer buf = ByteBuffer.allocateDirect(1 << 20);
+        private long written;
+
+        Out(FileChannel ch) { this.ch = ch; }
+
+        void putInt(int v) throws IOException { ensure(4); buf.putInt(v); }
+        void putLong(long v) throws IOException { ensure(8); buf.putLong(v); }
+        void putDouble(double v) throws IOException { ensure(8); buf.putDouble(v); }
+
+        void putBytes(byte[] bytes) throws IOException {
+            int off = 0;
+            while (off < bytes.length) {
+                ensure(1);
+                int len = Math.min(buf.remaining(), bytes.length - off);
+                buf.put(bytes, off, len);
+                off += len;
+            }
+        }
+
+        void padTo(long offset) throws IOException {
+            while (written + buf.position() < offset) {
+                ensure(1);
+                buf.put((byte) 0);
+            }
+        }
+
+        private void ensure(int bytes) throws IOException {
+            if (buf.remaining() < bytes) flush();
+        }
+
+        void flush() throws IOException {
+            buf.flip();
+            while (buf.hasRemaining()) written += ch.write(buf);
+            buf.clear();
+        }
+    }
+}
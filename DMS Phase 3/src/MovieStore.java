@@ -0,0 +1,769 @@
+// ============================================
+// MovieStore.java
+// Column-oriented in-memory storage for the movie catalog
+// ============================================
+
+import java.util.AbstractList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.RandomAccess;
+import java.util.Set;
+
+/**
+ * Stores movies as parallel primitive arrays instead of a List of Movie objects.
+ * Numbers live in int[]/double[] columns, watched flags in a long[] bitset and directors
+ * in a deduplicated dictionary, so a row costs roughly its title plus ~40 bytes instead of
+ * a Movie object and two Strings. Movie objects are created on demand by get().
+ *
+ * Rows are kept in chunks of CHUNK_SIZE. Removing a row only shifts the rows of its own
+ * chunk, and chunks are copy-on-write: snapshot() returns a read-only version that shares
+ * every chunk with the store, and the store copies a chunk the first time it changes it
+ * afterwards. Taking a snapshot therefore costs one reference per chunk, and the snapshot
+ * never changes, so other threads can read it without locking.
+ *
+ * Every row also gets an id that stays the same while other rows are added or removed
+ * (ids are handed out in load order and are not persisted). rowOf(id) maps it back to
+ * the current row position.
+ *
+ * A store can also start out as a read-only view of a mapped MovieSnapshotFile; the
+ * columns are only copied into memory when the store is first modified.
+ *
+ * Scariness scores are computed a chunk at a time by a plain loop over the primitive
+ * columns and kept with the chunk. A change copies or clears only its own chunk's scores,
+ * so every other chunk keeps its cached scores across snapshots.
+ *
+ * The store itself is not thread-safe; only its snapshots may be shared.
+ */
+public class MovieStore {
+
+    static final int CHUNK_BITS = 10;
+    static final int CHUNK_SIZE = 1 << CHUNK_BITS;
+    private static final int PAGE_BITS = 10;
+    private static final int PAGE_SIZE = 1 << PAGE_BITS;
+
+    /**
+     * Up to CHUNK_SIZE consecutive rows, owned by the store generation that created it.
+     */
+    private static final class Chunk {
+        final int gen;
+        int count;
+        final String[] titles;
+        final int[] years;
+        final int[] directorIds;
+        final double[] ratings;
+        final int[] runtimes;
+        final int[] votes;
+        final int[] ids;
+        final long[] watched;
+        volatile double[] scores;   // scariness per slot, computed on first use
+
+        Chunk(int gen) {
+            this.gen = gen;
+            titles = new String[CHUNK_SIZE];
+            years = new int[CHUNK_SIZE];
+            directorIds = new int[CHUNK_SIZE];
+            ratings = new double[CHUNK_SIZE];
+            runtimes = new int[CHUNK_SIZE];
+            votes = new int[CHUNK_SIZE];
+            ids = new int[CHUNK_SIZE];
+            watched = new long[CHUNK_SIZE / 64];
+        }
+
+        Chunk(int gen, Chunk other) {
+            this.gen = gen;
+            count = other.count;
+            titles = other.titles.clone();
+            years = other.years.clone();
+            directorIds = other.directorIds.clone();
+            ratings = other.ratings.clone();
+            runtimes = other.runtimes.clone();
+            votes = other.votes.clone();
+            ids = other.ids.clone();
+            watched = other.watched.clone();
+        }
+
+        boolean isWatched(int slot) {
+            return (watched[slot >>> 6] & (1L << slot)) != 0;
+        }
+
+        void setWatched(int slot, boolean value) {
+            if (value) watched[slot >>> 6] |= 1L << slot;
+            else watched[slot >>> 6] &= ~(1L << slot);
+        }
+
+        double[] scores() {
+            double[] s = scores;
+            if (s == null) {
+                s = new double[count];
+                scariness(ratings, votes, runtimes, watched, s, count);
+                scores = s;
+            }
+            return s;
+        }
+    }
+
+    private final boolean readOnly; // true for versions returned by snapshot()
+    private int gen;                // chunks and pages of older generations are shared
+
+    private Chunk[] chunks = new Chunk[4];
+    private int[] starts = new int[4]; // starts[c] = number of rows before chunk c
+    private int chunkCount;
+    private int size;
+
+    // id -> (chunk << CHUNK_BITS | slot), -1 once removed; copy-on-write pages
+    private int[][] locPages = new int[0][];
+    private int[] pageGens = new int[0];
+    private int nextId;
+
+    // Director dictionary: id -> name (only appended to, shared with snapshots) and name -> id
+    private String[] directors = new String[16];
+    private int directorCount;
+    private final Map<String, Integer> directorIndex;
+
+    private MovieSnapshotFile base; // non-null while reading straight from a mapped snapshot
+
+    // ----- Constructors -----
+
+    public MovieStore() {
+        this(false);
+    }
+
+    private MovieStore(boolean readOnly) {
+        this.readOnly = readOnly;
+        this.directorIndex = readOnly ? null : new HashMap<>();
+    }
+
+    /**
+     * Creates a store that reads rows from the mapped snapshot until it is modified.
+     */
+    public static MovieStore fromSnapshot(MovieSnapshotFile snapshot) {
+        MovieStore store = new MovieStore();
+        store.base = snapshot;
+        store.size = snapshot.size();
+        store.nextId = snapshot.size(); // row i has id i until materialized
+        return store;
+    }
+
+    // ----- Reading -----
+
+    public int size() { return size; }
+
+    /**
+     * Creates a Movie for the given row.
+     */
+    public Movie get(int row) {
+        checkIndex(row);
+        if (base != null) return base.get(row);
+        int c = chunkOf(row);
+        Chunk ch = chunks[c];
+        int s = row - starts[c];
+        return new Movie(ch.titles[s], ch.years[s], directors[ch.directorIds[s]], ch.ratings[s],
+                ch.runtimes[s], ch.votes[s], ch.isWatched(s));
+    }
+
+    public String title(int row) {
+        checkIndex(row);
+        if (base != null) return base.title(row);
+        int c = chunkOf(row);
+        return chunks[c].titles[row - starts[c]];
+    }
+
+    public int year(int row) {
+        checkIndex(row);
+        if (base != null) return base.year(row);
+        int c = chunkOf(row);
+        return chunks[c].years[row - starts[c]];
+    }
+
+    public String director(int row) {
+        checkIndex(row);
+        if (base != null) return base.director(row);
+        int c = chunkOf(row);
+        return directors[chunks[c].directorIds[row - starts[c]]];
+    }
+
+    public double rating(int row) {
+        checkIndex(row);
+        if (base != null) return base.rating(row);
+        int c = chunkOf(row);
+        return chunks[c].ratings[row - starts[c]];
+    }
+
+    public int runtimeMinutes(int row) {
+        checkIndex(row);
+        if (base != null) return base.runtimeMinutes(row);
+        int c = chunkOf(row);
+        return chunks[c].runtimes[row - starts[c]];
+    }
+
+    public int votes(int row) {
+        checkIndex(row);
+        if (base != null) return base.votes(row);
+        int c = chunkOf(row);
+        return chunks[c].votes[row - starts[c]];
+    }
+
+    public boolean watched(int row) {
+        checkIndex(row);
+        if (base != null) return base.watched(row);
+        int c = chunkOf(row);
+        return chunks[c].isWatched(row - starts[c]);
+    }
+
+    /**
+     * Stable id of the movie currently at the given row.
+     */
+    public int id(int row) {
+        checkIndex(row);
+        if (base != null) return row;
+        int c = chunkOf(row);
+        return chunks[c].ids[row - starts[c]];
+    }
+
+    /**
+     * Current row of the movie with the given id, or -1 if it does not exist.
+     */
+    public int rowOf(int id) {
+        if (id < 0 || id >= nextId) return -1;
+        if (base != null) return id < size ? id : -1; // ids past size were handed out after a restore()
+        int loc = loc(id);
+        return loc < 0 ? -1 : starts[loc >>> CHUNK_BITS] + (loc & (CHUNK_SIZE - 1));
+    }
+
+    /**
+     * Number of ids handed out so far; every id is below this value.
+     */
+    public int idLimit() { return nextId; }
+
+    /**
+     * True if a movie with this id is in the store.
+     */
+    public boolean contains(int id) {
+        return rowOf(id) >= 0;
+    }
+
+    /**
+     * Creates a Movie for the given id.
+     */
+    public Movie getById(int id) {
+        int row = rowOf(id);
+        if (row < 0) throw new IllegalArgumentException("No movie with id " + id);
+        return get(row);
+    }
+
+    /**
+     * Read-only List view; each get() creates a new Movie.
+     */
+    public List<Movie> asList() {
+        return new RowList();
+    }
+
+    private class RowList extends AbstractList<Movie> implements RandomAccess {
+        @Override public Movie get(int index) { return MovieStore.this.get(index); }
+        @Override public int size() { return size; }
+    }
+
+    /**
+     * Last chunk starting at or before the row. An empty chunk starts where the next one
+     * does, so it is never picked for an existing row.
+     */
+    private int chunkOf(int row) {
+        int lo = 0, hi = chunkCount - 1;
+        while (lo < hi) {
+            int mid = (lo + hi + 1) >>> 1;
+            if (starts[mid] <= row) lo = mid;
+            else hi = mid - 1;
+        }
+        return lo;
+    }
+
+    private int loc(int id) {
+        int p = id >>> PAGE_BITS;
+        return p < locPages.length && locPages[p] != null ? locPages[p][id & (PAGE_SIZE - 1)] : -1;
+    }
+
+    // ----- Writing -----
+
+    /**
+     * Appends a movie and returns its new id.
+     */
+    public int add(Movie m) {
+        materialize();
+        return append(m.getTitle(), m.getYear(), m.getDirector(), m.getRating(),
+                m.getRuntimeMinutes(), m.getVotes(), m.isWatched());
+    }
+
+    /**
+     * Appends several movies; their ids are id(size() - movies.size()) onwards.
+     */
+    public void addAll(List<Movie> movies) {
+        materialize();
+        for (Movie m : movies) {
+            append(m.getTitle(), m.getYear(), m.getDirector(), m.getRating(),
+                    m.getRuntimeMinutes(), m.getVotes(), m.isWatched());
+        }
+    }
+
+    public void set(int row, Movie m) {
+        checkIndex(row);
+        materialize();
+        int c = chunkOf(row);
+        Chunk ch = writableChunk(c);
+        int s = row - starts[c];
+        ch.titles[s] = m.getTitle();
+        ch.years[s] = m.getYear();
+        ch.directorIds[s] = directorId(m.getDirector());
+        ch.ratings[s] = m.getRating();
+        ch.runtimes[s] = m.getRuntimeMinutes();
+        ch.votes[s] = m.getVotes();
+        ch.setWatched(s, m.isWatched());
+    }
+
+    /**
+     * Replaces the movie with the given id in place.
+     */
+    public void setById(int id, Movie m) {
+        int row = rowOf(id);
+        if (row < 0) throw new IllegalArgumentException("No movie with id " + id);
+        set(row, m);
+    }
+
+    /**
+     * Removes the movie with the given id; later rows move up by one.
+     */
+    public void removeById(int id) {
+        int row = rowOf(id);
+        if (row < 0) throw new IllegalArgumentException("No movie with id " + id);
+        remove(row);
+    }
+
+    /**
+     * Removes a row, shifting later rows down by one like ArrayList.remove.
+     * Only the rows of the row's own chunk are moved.
+     */
+    public void remove(int row) {
+        checkIndex(row);
+        materialize();
+        int c = chunkOf(row);
+        Chunk ch = writableChunk(c);
+        int slot = row - starts[c];
+        int tail = ch.count - slot - 1;
+        setLoc(ch.ids[slot], -1);
+        System.arraycopy(ch.titles, slot + 1, ch.titles, slot, tail);
+        System.arraycopy(ch.years, slot + 1, ch.years, slot, tail);
+        System.arraycopy(ch.directorIds, slot + 1, ch.directorIds, slot, tail);
+        System.arraycopy(ch.ratings, slot + 1, ch.ratings, slot, tail);
+        System.arraycopy(ch.runtimes, slot + 1, ch.runtimes, slot, tail);
+        System.arraycopy(ch.votes, slot + 1, ch.votes, slot, tail);
+        System.arraycopy(ch.ids, slot + 1, ch.ids, slot, tail);
+        for (int s = slot; s < ch.count - 1; s++) {
+            ch.setWatched(s, ch.isWatched(s + 1));
+            setLoc(ch.ids[s], (c << CHUNK_BITS) | s);
+        }
+        ch.count--;
+        ch.titles[ch.count] = null;
+        ch.setWatched(ch.count, false);
+        size--;
+        for (int i = c + 1; i < chunkCount; i++) starts[i]--;
+
+        // Lots of half-empty chunks waste memory and slow down row lookups
+        if ((long) chunkCount * CHUNK_SIZE > 2L * size + 8L * CHUNK_SIZE) repack();
+    }
+
+    public void clear() {
+        if (readOnly) throw new UnsupportedOperationException("Store snapshot is read-only");
+        base = null;
+        chunks = new Chunk[4];
+        starts = new int[4];
+        chunkCount = 0;
+        size = 0;
+        locPages = new int[0][];
+        pageGens = new int[0];
+    }
+
+    /**
+     * Returns a read-only version of the store as it is now. It shares all chunks with
+     * the store and never changes, so other threads can read it while this store keeps
+     * being modified. The director dictionary is shared since it is only ever appended to.
+     */
+    public MovieStore snapshot() {
+        MovieStore c = new MovieStore(true);
+        c.base = base;
+        c.size = size;
+        c.nextId = nextId;
+        c.chunks = Arrays.copyOf(chunks, Math.max(chunkCount, 1));
+        c.starts = Arrays.copyOf(starts, Math.max(chunkCount, 1));
+        c.chunkCount = chunkCount;
+        c.locPages = locPages.clone();
+        c.directors = directors;
+        c.directorCount = directorCount;
+        gen++; // everything handed out so far is shared from now on
+        return c;
+    }
+
+    /**
+     * Returns this store to the state of an earlier snapshot() of it, e.g. to undo
+     * changes that could not be saved. Ids handed out since then are not reused.
+     */
+    public void restore(MovieStore snapshot) {
+        if (readOnly) throw new UnsupportedOperationException("Store snapshot is read-only");
+        base = snapshot.base;
+        size = snapshot.size;
+        chunkCount = snapshot.chunkCount;
+        chunks = Arrays.copyOf(snapshot.chunks, Math.max(chunkCount, 4));
+        starts = Arrays.copyOf(snapshot.starts, chunks.length);
+        locPages = snapshot.locPages.clone();
+        pageGens = new int[locPages.length];
+        gen++; // the snapshot's chunks and pages are shared
+    }
+
+    private int append(String title, int year, String director, double rating, int runtime, int votes, boolean watched) {
+        if (chunkCount == 0 || chunks[chunkCount - 1].count == CHUNK_SIZE) addChunk();
+        int c = chunkCount - 1;
+        Chunk ch = writableChunk(c);
+        int s = ch.count++;
+        int id = nextId++;
+        ch.ids[s] = id;
+        ch.titles[s] = title;
+        ch.years[s] = year;
+        ch.directorIds[s] = directorId(director);
+        ch.ratings[s] = rating;
+        ch.runtimes[s] = runtime;
+        ch.votes[s] = votes;
+        ch.setWatched(s, watched);
+        setLoc(id, (c << CHUNK_BITS) | s);
+        size++;
+        return id;
+    }
+
+    private void addChunk() {
+        if (chunkCount == chunks.length) {
+            chunks = Arrays.copyOf(chunks, chunkCount * 2);
+            starts = Arrays.copyOf(starts, chunkCount * 2);
+        }
+        chunks[chunkCount] = new Chunk(gen);
+        starts[chunkCount] = size;
+        chunkCount++;
+    }
+
+    private Chunk writableChunk(int c) {
+        Chunk ch = chunks[c];
+        if (ch.gen != gen) {
+            ch = new Chunk(gen, ch);
+            chunks[c] = ch;
+        } else {
+            ch.scores = null; // about to change
+        }
+        return ch;
+    }
+
+    private void setLoc(int id, int loc) {
+        int p = id >>> PAGE_BITS;
+        if (p >= locPages.length) {
+            int pages = Math.max(p + 1, locPages.length * 2);
+            locPages = Arrays.copyOf(locPages, pages);
+            pageGens = Arrays.copyOf(pageGens, pages);
+        }
+        int[] page = locPages[p];
+        if (page == null) {
+            page = new int[PAGE_SIZE];
+            Arrays.fill(page, -1);
+        } else if (pageGens[p] != gen) {
+            page = page.clone();
+        } else {
+            page[id & (PAGE_SIZE - 1)] = loc;
+            return;
+        }
+        locPages[p] = page;
+        pageGens[p] = gen;
+        page[id & (PAGE_SIZE - 1)] = loc;
+    }
+
+    private int directorId(String name) {
+        Integer id = directorIndex.get(name);
+        if (id != null) return id;
+        if (directorCount == directors.length) directors = Arrays.copyOf(directors, directorCount * 2);
+        directors[directorCount] = name;
+        directorIndex.put(name, directorCount);
+        return directorCount++;
+    }
+
+    /**
+     * Moves all rows into full chunks, keeping their order and ids.
+     */
+    private void repack() {
+        Chunk[] old = Arrays.copyOf(chunks, chunkCount);
+        chunks = new Chunk[Math.max(4, (size + CHUNK_SIZE - 1) / CHUNK_SIZE)];
+        starts = new int[chunks.length];
+        chunkCount = 0;
+        size = 0;
+        for (Chunk from : old) {
+            for (int s = 0; s < from.count; s++) {
+                if (chunkCount == 0 || chunks[chunkCount - 1].count == CHUNK_SIZE) addChunk();
+                int c = chunkCount - 1;
+                Chunk to = chunks[c];
+                int t = to.count++;
+                to.ids[t] = from.ids[s];
+                to.titles[t] = from.titles[s];
+                to.years[t] = from.years[s];
+                to.directorIds[t] = from.directorIds[s];
+                to.ratings[t] = from.ratings[s];
+                to.runtimes[t] = from.runtimes[s];
+                to.votes[t] = from.votes[s];
+                to.setWatched(t, from.isWatched(s));
+                setLoc(from.ids[s], (c << CHUNK_BITS) | t);
+                size++;
+            }
+        }
+    }
+
+    /**
+     * Copies a mapped snapshot into the in-memory columns before the first change.
+     */
+    private void materialize() {
+        if (readOnly) throw new UnsupportedOperationException("Store snapshot is read-only");
+        if (base == null) return;
+        MovieSnapshotFile snapshot = base;
+        int n = size;
+        int next = nextId; // past n after restore() undid changes to the mapped rows
+        base = null;
+        size = 0;
+        nextId = 0;
+        for (int i = 0; i < n; i++) {
+            append(snapshot.title(i), snapshot.year(i), snapshot.director(i), snapshot.rating(i),
+                    snapshot.runtimeMinutes(i), snapshot.votes(i), snapshot.watched(i));
+        }
+        nextId = next;
+    }
+
+    private void checkIndex(int row) {
+        if (row < 0 || row >= size) throw new IndexOutOfBoundsException("Index " + row + " out of bounds for length " + size);
+    }
+
+    // ----- Scores -----
+
+    /**
+     * Scariness of a row; the same value as get(row).getScariness().
+     */
+    public double scariness(int row) {
+        checkIndex(row);
+        if (base != null) return base.scores(ScoringRule.SCARINESS)[row];
+        int c = chunkOf(row);
+        return chunks[c].scores()[row - starts[c]];
+    }
+
+    /**
+     * Scariness of every row, in row order.
+     */
+    public double[] scariness() {
+        return scores(ScoringRule.SCARINESS);
+    }
+
+    /**
+     * Score of every row under the given rule, in row order. Scores of the built-in
+     * ScoringRule.SCARINESS come from the per-chunk cache; other rules are evaluated a
+     * chunk at a time through ScoringRule.scoreAll.
+     */
+    public double[] scores(ScoringRule rule) {
+        double[] out = new double[size];
+        forEachScoreBlock(rule, (scores, first, count) -> System.arraycopy(scores, 0, out, first, count));
+        return out;
+    }
+
+    /**
+     * Rows of the k scariest movies, scariest first; equal scores keep row order.
+     */
+    public int[] scariestRows(int k) {
+        return topRows(ScoringRule.SCARINESS, k);
+    }
+
+    /**
+     * Rows of the k highest scores under the rule, highest first; equal scores keep row
+     * order and NaN scores rank last. Keeps the best k in a min-heap while the scores
+     * are computed, so the whole catalog is never sorted.
+     */
+    public int[] topRows(ScoringRule rule, int k) {
+        TopScores top = new TopScores(Math.max(0, Math.min(k, size)));
+        forEachScoreBlock(rule, (scores, first, count) -> {
+            for (int s = 0; s < count; s++) top.offer(scores[s], first + s);
+        });
+        return top.rows();
+    }
+
+    /**
+     * Number of movies per score range: the 0-10 scale is cut into equal buckets and a
+     * score of exactly 10 counts towards the last one.
+     */
+    public int[] scarinessHistogram(int buckets) {
+        return histogram(ScoringRule.SCARINESS, buckets, 0, 10);
+    }
+
+    /**
+     * Number of movies per score range: [min, max] is cut into equal buckets, scores
+     * outside it count towards the first or last bucket and NaN scores are skipped.
+     */
+    public int[] histogram(ScoringRule rule, int buckets, double min, double max) {
+        if (buckets <= 0) throw new IllegalArgumentException("Bucket count must be positive");
+        if (!(max > min)) throw new IllegalArgumentException("Histogram range is empty");
+        int[] counts = new int[buckets];
+        double scale = buckets / (max - min);
+        forEachScoreBlock(rule, (scores, first, count) -> {
+            for (int s = 0; s < count; s++) {
+                double score = scores[s];
+                if (score != score) continue;
+                int bucket = (int) ((score - min) * scale);
+                counts[Math.max(0, Math.min(bucket, buckets - 1))]++;
+            }
+        });
+        return counts;
+    }
+
+    /** Receives the scores of count consecutive rows starting at row first. */
+    private interface ScoreBlock {
+        void accept(double[] scores, int first, int count);
+    }
+
+    private void forEachScoreBlock(ScoringRule rule, ScoreBlock block) {
+        if (base != null) {
+            block.accept(base.scores(rule), 0, size);
+            return;
+        }
+        double[] buffer = rule == ScoringRule.SCARINESS ? null : new double[CHUNK_SIZE];
+        for (int c = 0; c < chunkCount; c++) {
+            Chunk ch = chunks[c];
+            if (buffer == null) {
+                block.accept(ch.scores(), starts[c], ch.count);
+            } else {
+                rule.scoreAll(ch.ratings, ch.votes, ch.runtimes, ch.years, ch.watched, buffer, ch.count);
+                block.accept(buffer, starts[c], ch.count);
+            }
+        }
+    }
+
+    /**
+     * Bounded min-heap of (score, row) keeping the k best; the root is the worst kept.
+     */
+    private static final class TopScores {
+        private final double[] scores;
+        private final int[] rows;
+        private int n;
+
+        TopScores(int k) {
+            scores = new double[k];
+            rows = new int[k];
+        }
+
+        void offer(double score, int row) {
+            if (score != score) score = Double.NEGATIVE_INFINITY; // NaN ranks last
+            if (n == scores.length) {
+                if (n == 0 || score <= scores[0]) return; // the usual case: not among the best
+                siftDown(0, score, row, n);
+            } else {
+                int i = n++;
+                while (i > 0 && worse(score, row, scores[(i - 1) / 2], rows[(i - 1) / 2])) {
+                    scores[i] = scores[(i - 1) / 2];
+                    rows[i] = rows[(i - 1) / 2];
+                    i = (i - 1) / 2;
+                }
+                scores[i] = score;
+                rows[i] = row;
+            }
+        }
+
+        /** Empties the heap from the back: each step takes out the worst remaining row. */
+        int[] rows() {
+            int[] top = new int[n];
+            for (int end = n - 1; end >= 0; end--) {
+                top[end] = rows[0];
+                siftDown(0, scores[end], rows[end], end);
+            }
+            return top;
+        }
+
+        private void siftDown(int i, double score, int row, int size) {
+            while (true) {
+                int child = 2 * i + 1;
+                if (child >= size) break;
+                if (child + 1 < size && worse(scores[child + 1], rows[child + 1], scores[child], rows[child])) child++;
+                if (!worse(scores[child], rows[child], score, row)) break;
+                scores[i] = scores[child];
+                rows[i] = rows[child];
+                i = child;
+            }
+            scores[i] = score;
+            rows[i] = row;
+        }
+
+        /** True if (score a, row a) ranks below (score b, row b): lower score, or later row on a tie. */
+        private static boolean worse(double scoreA, int rowA, double scoreB, int rowB) {
+            return scoreA != scoreB ? scoreA < scoreB : rowA > rowB;
+        }
+    }
+
+    /**
+     * Computes Movie.getScariness for n rows of primitive columns. The loop has no
+     * branches or method calls besides min/max, so the JIT can compile it to SIMD code.
+     * Adding 0 for a rule that does not apply leaves the sum exactly as in getScariness.
+     */
+    static void scariness(double[] ratings, int[] votes, int[] runtimes, long[] watched, double[] out, int n) {
+        scariness(ratings, votes, runtimes, watched, 0, out, n);
+    }
+
+    /**
+     * Same for rows first..first+n-1 of the columns, written to out[0..n).
+     */
+    static void scariness(double[] ratings, int[] votes, int[] runtimes, long[] watched, int first,
+                          double[] out, int n) {
+        for (int i = 0; i < n; i++) {
+            int row = first + i;
+            double score = ratings[row]
+                    + Math.min(votes[row] / 500000.0, 2)
+                    + (runtimes[row] > 120 ? 1 : 0)
+                    - (int) ((watched[row >>> 6] >>> row) & 1);
+            out[i] = Math.min(Math.max(score, 0), 10);
+        }
+    }
+
+    // ----- Memory Estimates -----
+
+    /**
+     * Approximate heap bytes per row of this store (64-bit JVM, compressed oops,
+     * Latin-1 compact strings), counting each distinct director once.
+     */
+    public double estimatedBytesPerRow() {
+        if (size == 0) return 0;
+        long bytes = 0;
+        Set<String> distinct = new HashSet<>();
+        for (int i = 0; i < size; i++) {
+            bytes += stringBytes(title(i));
+            if (distinct.add(director(i))) bytes += 4 + 48 + stringBytes(director(i)); // dictionary + map entry
+        }
+        long slots = base != null ? size : (long) chunkCount * CHUNK_SIZE;
+        bytes += slots * (4 + 4 + 4 + 8 + 4 + 4 + 4); // title ref, year, director id, rating, runtime, votes, id
+        bytes += slots / 8;                           // watched bits
+        bytes += (long) nextId * 4;                   // id -> location pages
+        return (double) bytes / size;
+    }
+
+    /**
+     * Approximate heap bytes per row of the same movies held as an ArrayList of Movie
+     * objects, where every row has its own title and director Strings.
+     */
+    public double estimatedListBytesPerRow() {
+        if (size == 0) return 0;
+        long bytes = 0;
+        for (int i = 0; i < size; i++) bytes += 4 + 48 + stringBytes(title(i)) + stringBytes(director(i));
+        return (double) bytes / size;
+    }
+
+    /** String object (24 bytes) plus its byte[] (16-byte header, 8-byte aligned). */
+    private static long stringBytes(String s) {
+        boolean latin1 = true;
+        for (int i = 0; i < s.length() && latin1; i++) latin1 = s.charAt(i) < 256;
+        long data = (long) s.length() * (latin1 ? 1 : 2);
+        return 24 + ((16 + data + 7) & ~7L);
+    }
+}
@@ -0,0 +1,395 @@
+// ============================================
+// MovieStressTest.java
+// Multi-threaded consistency check of MovieManager under concurrent writers and readers
+// ============================================
+
+import java.io.*;
+import java.nio.file.*;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Stress test for MovieManager's concurrency guarantees (no test framework needed).
+ * Writer threads add, update and remove their own movies while reader threads check
+ * every snapshot they get. The process exits with status 1 on the first violation
+ * (after printing up to 20 of them) and 0 if none was found.
+ *
+ * Each writer owns the movies directed by "Writer w" plus a marker movie. Every
+ * operation runs in a batch that also stamps the marker with the writer's operation
+ * number k and a global sequence number taken inside the batch, that is, in the order
+ * the writers hold the lock. Before committing, the writer records the row count and
+ * an order-independent digest of its movies after operation k. Readers then check:
+ *
+ *   - per writer: the snapshot holds exactly the writer's movies after operation k,
+ *     where k is read from the marker (no lost, partial or phantom writes)
+ *   - serial history: no writer has an operation numbered at or below the highest
+ *     global sequence number in the snapshot that the snapshot lacks, and the snapshot
+ *     size is the sum of the writers' counts, so it is one prefix of a single order
+ *   - monotonic reads: k never goes back between two snapshots read by one thread
+ *   - ids: rows are in ascending id order, and rowOf(id(row)) == row and
+ *     getById(id(row)) is the movie at row for every row
+ *   - indexed queries: director(...) results form the same kind of consistent state
+ *
+ * Writers check that they read their own writes right after each commit. At the end
+ * the catalog must equal the writers' final states, also after closing and reloading it.
+ *
+ * Usage:
+ *   java MovieStressTest [--writers 16] [--readers 16] [--ops 500]
+ */
+public class MovieStressTest {
+
+    private static final int MAX_REPORTED = 20;
+
+    private final MovieManager manager;
+    private final int writers, ops;
+    private final AtomicInteger globalSeq = new AtomicInteger();
+    private final ConcurrentLinkedQueue<String> violations = new ConcurrentLinkedQueue<>();
+    private final AtomicLong snapshotsChecked = new AtomicLong();
+    private volatile boolean writing = true;
+
+    // Written by writer w before the commit that publishes operation k, read by readers
+    // after they see that commit; the lock and the volatile snapshot order the accesses
+    private final int[] markerIds;
+    private final int[][] counts;
+    private final long[][] digests;
+    private final int[][] seqs;
+    private final List<Map<Integer, Movie>> finalStates;
+
+    public MovieStressTest(MovieManager manager, int writers, int ops) {
+        this.manager = manager;
+        this.writers = writers;
+        this.ops = ops;
+        this.markerIds = new int[writers];
+        this.counts = new int[writers][ops + 1];
+        this.digests = new long[writers][ops + 1];
+        this.seqs = new int[writers][ops + 2];
+        this.finalStates = new ArrayList<>();
+        for (int w = 0; w < writers; w++) finalStates.add(null);
+    }
+
+    // ----- Entry Point -----
+
+    public static void main(String[] args) throws Exception {
+        int writers = 16, readers = 16, ops = 500;
+        for (int i = 0; i + 1 < args.length; i += 2) {
+            switch (args[i]) {
+                case "--writers" -> writers = Integer.parseInt(args[i + 1]);
+                case "--readers" -> readers = Integer.parseInt(args[i + 1]);
+                case "--ops" -> ops = Integer.parseInt(args[i + 1]);
+                default -> {
+                    System.out.println("Unknown option: " + args[i]);
+                    return;
+                }
+            }
+        }
+
+        Path dir = Files.createTempDirectory("movie-stress");
+        boolean ok;
+        try {
+            String path = dir.resolve("catalog.csv").toString();
+            MovieManager manager = new MovieManager(path);
+            MovieStressTest test = new MovieStressTest(manager, writers, ops);
+            long start = System.nanoTime();
+            test.run(readers);
+            manager.close();
+            test.checkReload(path);
+            ok = test.report(readers, (System.nanoTime() - start) / 1e9);
+        } finally {
+            deleteRecursively(dir);
+        }
+        System.exit(ok ? 0 : 1);
+    }
+
+    // ----- Run -----
+
+    /**
+     * Runs all writers and readers to completion, then checks the final catalog.
+     */
+    public void run(int readers) throws InterruptedException {
+        for (int w = 0; w < writers; w++) {
+            markerIds[w] = manager.addMovie(marker(w, 0, 0));
+            counts[w][0] = 1;
+            digests[w][0] = digest(markerIds[w], marker(w, 0, 0));
+        }
+
+        CountDownLatch start = new CountDownLatch(1);
+        List<Thread> writerThreads = new ArrayList<>();
+        List<Thread> readerThreads = new ArrayList<>();
+        for (int w = 0; w < writers; w++) {
+            int writer = w;
+            writerThreads.add(thread("stress-writer-" + w, start, () -> write(writer)));
+        }
+        for (int r = 0; r < readers; r++) {
+            long seed = r;
+            readerThreads.add(thread("stress-reader-" + r, start, () -> read(new Random(seed))));
+        }
+        start.countDown();
+        for (Thread t : writerThreads) t.join();
+        writing = false;
+        for (Thread t : readerThreads) t.join();
+
+        checkFinal(manager.getStore());
+    }
+
+    private Thread thread(String name, CountDownLatch start, Runnable body) {
+        Thread t = new Thread(() -> {
+            try {
+                start.await();
+                body.run();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            } catch (RuntimeException e) {
+                violation(Thread.currentThread().getName() + " failed: " + e);
+            }
+        }, name);
+        t.start();
+        return t;
+    }
+
+    // ----- Writers -----
+
+    private void write(int w) {
+        Random random = new Random(1000 + w);
+        Map<Integer, Movie> own = new HashMap<>();
+        List<Integer> ids = new ArrayList<>();
+        long digest = 0;    // of the writer's movies without the marker
+        for (int k = 1; k <= ops; k++) {
+            int choice = ids.size() < 8 ? 0 : random.nextInt(3);
+            int id;
+            Movie m = null;
+            manager.beginBatch();
+            try {
+                int seq = globalSeq.incrementAndGet();
+                seqs[w][k] = seq;
+                if (choice == 0) {
+                    m = movie(w, k);
+                    id = manager.addMovie(m);
+                    own.put(id, m);
+                    ids.add(id);
+                    digest += digest(id, m);
+                } else {
+                    int slot = random.nextInt(ids.size());
+                    id = ids.get(slot);
+                    digest -= digest(id, own.get(id));
+                    if (choice == 1) {
+                        m = movie(w, k);
+                        if (!manager.updateMovie(id, m)) violation("Writer " + w + ": update of own id " + id + " failed");
+                        own.put(id, m);
+                        digest += digest(id, m);
+                    } else {
+                        if (!manager.removeById(id)) violation("Writer " + w + ": remove of own id " + id + " failed");
+                        own.remove(id);
+                        ids.set(slot, ids.get(ids.size() - 1));
+                        ids.remove(ids.size() - 1);
+                    }
+                }
+                Movie marker = marker(w, k, seq);
+                manager.updateMovie(markerIds[w], marker);
+                counts[w][k] = own.size() + 1;
+                digests[w][k] = digest + digest(markerIds[w], marker);
+            } finally {
+                if (!manager.commit()) violation("Writer " + w + " op " + k + ": commit failed");
+            }
+
+            Movie seen = manager.getById(id);
+            if (m == null ? seen != null : seen == null || !seen.toString().equals(m.toString())) {
+                violation("Writer " + w + " op " + k + ": read " + seen + " for id " + id + " instead of " + m);
+            }
+        }
+        synchronized (finalStates) {
+            finalStates.set(w, own);
+        }
+    }
+
+    /** A movie of writer w; the fields vary with k so updates are visible. */
+    private static Movie movie(int w, int k) {
+        return new Movie("W" + w + " movie " + k, 1950 + k % 70, "Writer " + w, (k % 101) / 10.0,
+                60 + k % 120, k, k % 2 == 0);
+    }
+
+    /** Marker of writer w after operation k, which took global sequence number seq. */
+    private static Movie marker(int w, int k, int seq) {
+        return new Movie("W" + w + " marker", 2000, "Writer " + w, 0.0, seq + 1, k, false);
+    }
+
+    private static long digest(int id, Movie m) {
+        long h = id * 0x9E3779B97F4A7C15L + m.toString().hashCode();
+        h ^= h >>> 33;
+        h *= 0xFF51AFD7ED558CCDL;
+        return h ^ (h >>> 33);
+    }
+
+    // ----- Readers -----
+
+    private void read(Random random) {
+        int[] lastK = new int[writers];
+        while (writing && violations.isEmpty()) {
+            MovieStore snapshot = manager.getStore();
+            checkSnapshot(snapshot, lastK);
+            checkIds(snapshot, random);
+
+            int w = random.nextInt(writers);
+            MovieManager.QueryResult r = manager.search(MovieQuery.all().director("Writer " + w),
+                    Integer.MAX_VALUE, () -> false);
+            checkWriter(r.store, r.rows, w, "query");
+            snapshotsChecked.incrementAndGet();
+        }
+    }
+
+    /**
+     * Checks that a snapshot is the state after one prefix of the serial history.
+     */
+    private void checkSnapshot(MovieStore s, int[] lastK) {
+        int[] k = new int[writers];
+        int[] count = new int[writers];
+        long[] digest = new long[writers];
+        int maxSeq = 0;
+        for (int row = 0; row < s.size(); row++) {
+            int w = writerOf(s.director(row));
+            if (w < 0) {
+                violation("Row " + row + " belongs to no writer: " + s.get(row));
+                return;
+            }
+            count[w]++;
+            digest[w] += digest(s.id(row), s.get(row));
+            if (s.id(row) == markerIds[w]) {
+                k[w] = s.votes(row);
+                maxSeq = Math.max(maxSeq, s.runtimeMinutes(row) - 1);
+            }
+        }
+        long expectedSize = 0;
+        for (int w = 0; w < writers; w++) {
+            expectedSize += counts[w][k[w]];
+            if (count[w] != counts[w][k[w]] || digest[w] != digests[w][k[w]]) {
+                violation("Snapshot: writer " + w + " has " + count[w] + " movies, not its state after op " + k[w]
+                        + " (" + counts[w][k[w]] + " movies)");
+            }
+            if (k[w] < lastK[w]) violation("Snapshot: writer " + w + " went back from op " + lastK[w] + " to " + k[w]);
+            lastK[w] = k[w];
+            // the writer's next operation must come after every operation in this snapshot
+            int next = k[w] < ops ? seqs[w][k[w] + 1] : 0;
+            if (next != 0 && next <= maxSeq) {
+                violation("Snapshot: has global op " + maxSeq + " but not writer " + w + "'s op " + (k[w] + 1)
+                        + " (global op " + next + ")");
+            }
+        }
+        if (s.size() != expectedSize) violation("Snapshot size " + s.size() + " instead of " + expectedSize);
+    }
+
+    /**
+     * Checks that the rows of a query result are exactly writer w's state after the
+     * operation its marker shows.
+     */
+    private void checkWriter(MovieStore s, int[] rows, int w, String what) {
+        int k = -1, count = 0;
+        long digest = 0;
+        for (int row : rows) {
+            if (writerOf(s.director(row)) != w) {
+                violation(what + ": director(Writer " + w + ") returned " + s.get(row));
+                return;
+            }
+            count++;
+            digest += digest(s.id(row), s.get(row));
+            if (s.id(row) == markerIds[w]) k = s.votes(row);
+        }
+        if (k < 0) violation(what + ": writer " + w + "'s marker is missing");
+        else if (count != counts[w][k] || digest != digests[w][k]) {
+            violation(what + ": writer " + w + " has " + count + " movies, not its state after op " + k);
+        }
+    }
+
+    /**
+     * Checks id order and id lookups on a few random rows and the neighbours of each.
+     */
+    private void checkIds(MovieStore s, Random random) {
+        for (int i = 0; i < 64 && s.size() > 1; i++) {
+            int row = random.nextInt(s.size() - 1);
+            int id = s.id(row);
+            if (s.id(row + 1) <= id) violation("Ids not ascending at row " + row + ": " + id + ", " + s.id(row + 1));
+            if (s.rowOf(id) != row) violation("rowOf(" + id + ") = " + s.rowOf(id) + " instead of " + row);
+            Movie byId = s.getById(id);
+            if (byId == null || !byId.toString().equals(s.get(row).toString())) {
+                violation("getById(" + id + ") = " + byId + " instead of " + s.get(row));
+            }
+        }
+    }
+
+    private static int writerOf(String director) {
+        if (!director.startsWith("Writer ")) return -1;
+        try {
+            return Integer.parseInt(director.substring(7));
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    // ----- Final State -----
+
+    private void checkFinal(MovieStore s) {
+        int expected = 0;
+        for (int w = 0; w < writers; w++) {
+            Map<Integer, Movie> own;
+            synchronized (finalStates) {
+                own = finalStates.get(w);
+            }
+            if (own == null) continue; // the writer failed and was reported
+            expected += own.size() + 1;
+            for (Map.Entry<Integer, Movie> e : own.entrySet()) {
+                Movie m = s.getById(e.getKey());
+                if (m == null || !m.toString().equals(e.getValue().toString())) {
+                    violation("Final: id " + e.getKey() + " is " + m + " instead of " + e.getValue());
+                }
+            }
+        }
+        if (s.size() != expected) violation("Final: " + s.size() + " movies instead of " + expected);
+    }
+
+    /**
+     * Reopens the saved catalog and compares it with the final in-memory state. Ids are
+     * reassigned on load, so movies are compared as text.
+     */
+    private void checkReload(String path) throws IOException {
+        List<String> expected = new ArrayList<>();
+        for (Movie m : manager.getAll()) expected.add(m.toString());
+        MovieManager reloaded = new MovieManager(path);
+        List<String> actual = new ArrayList<>();
+        for (Movie m : reloaded.getAll()) actual.add(m.toString());
+        reloaded.close();
+        if (!actual.equals(expected)) {
+            violation("Reload: " + actual.size() + " movies differ from the " + expected.size() + " in memory");
+        }
+    }
+
+    private void violation(String message) {
+        violations.add(message);
+    }
+
+    private boolean report(int readers, double seconds) {
+        System.out.println(String.format(java.util.Locale.ROOT,
+                "%d writers x %d ops, %d readers: %d snapshots checked in %.1f s, %d violations",
+                writers, ops, readers, snapshotsChecked.get(), seconds, violations.size()));
+        int shown = 0;
+        for (String v : violations) {
+            if (shown++ == MAX_REPORTED) break;
+            System.out.println("  " + v);
+        }
+        return violations.isEmpty();
+    }
+
+    private static void deleteRecursively(Path dir) throws IOException {
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(dir)) {
+            for (Path f : files) {
+                if (Files.isDirectory(f)) deleteRecursively(f);
+                else Files.delete(f);
+            }
+        }
+        Files.delete(dir);
+    }
+}
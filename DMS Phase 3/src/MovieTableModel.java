@@ -0,0 +1,157 @@
+// ============================================
+// MovieTableModel.java
+// Table model that reads cells straight from the manager's MovieStore
+// ============================================
+
+import javax.swing.table.AbstractTableModel;
+
+/**
+ * JTable model backed by a read-only MovieStore snapshot from MovieManager.getStore().
+ * No rows are copied: JTable only asks for the cells it paints, and each cell is read
+ * from the store's columns when requested, so the model costs the same at 100 rows or
+ * millions.
+ *
+ * After a change through the manager, call the matching method below. It switches to
+ * the manager's newest snapshot and fires an insert/update/delete event for just the
+ * affected rows instead of rebuilding the table.
+ *
+ * The model can also show a search result (showResult): then only the matching rows
+ * are listed, in the result's order, until showAll() is called. While a result is shown
+ * the change methods do nothing; the caller re-runs the search instead.
+ * All methods must be called on the Swing event thread.
+ */
+public class MovieTableModel extends AbstractTableModel {
+
+    private static final long serialVersionUID = 1L;
+
+    private static final String[] COLUMNS = {"Title", "Year", "Director", "Rating", "Runtime", "Votes", "Watched"};
+    private static final MovieQuery.SortKey[] SORT_KEYS = {   // sort key of each column
+            MovieQuery.SortKey.TITLE, MovieQuery.SortKey.YEAR, MovieQuery.SortKey.DIRECTOR, MovieQuery.SortKey.RATING,
+            MovieQuery.SortKey.RUNTIME, MovieQuery.SortKey.VOTES, MovieQuery.SortKey.WATCHED
+    };
+
+    private final MovieManager manager;
+    private MovieStore store;
+    private int[] rows;     // store rows in display order, or null to show every row
+
+    public MovieTableModel(MovieManager manager) {
+        this.manager = manager;
+        this.store = manager.getStore();
+    }
+
+    // ----- Table Model -----
+
+    @Override
+    public int getRowCount() { return rows != null ? rows.length : store.size(); }
+
+    @Override
+    public int getColumnCount() { return COLUMNS.length; }
+
+    @Override
+    public String getColumnName(int column) { return COLUMNS[column]; }
+
+    @Override
+    public boolean isCellEditable(int row, int column) { return false; }
+
+    /**
+     * Key a search is sorted by to order the table by the given column.
+     */
+    public MovieQuery.SortKey sortKey(int column) { return SORT_KEYS[column]; }
+
+    @Override
+    public Object getValueAt(int row, int column) {
+        if (rows != null) row = rows[row];
+        return switch (column) {
+            case 0 -> store.title(row);
+            case 1 -> store.year(row);
+            case 2 -> store.director(row);
+            case 3 -> store.rating(row);
+            case 4 -> store.runtimeMinutes(row);
+            case 5 -> store.votes(row);
+            case 6 -> store.watched(row) ? "Yes" : "No";
+            default -> throw new IndexOutOfBoundsException("Column " + column);
+        };
+    }
+
+    // ----- Rows -----
+
+    /**
+     * Stable id of the movie shown in the given row, as used by MovieManager.getById.
+     *
+     * @return movie id, or -1 if row invalid
+     */
+    public int idAt(int row) {
+        if (row < 0 || row >= getRowCount()) return -1;
+        return store.id(rows != null ? rows[row] : row);
+    }
+
+    // ----- Search Results -----
+
+    /**
+     * True while a search result is shown instead of the whole catalog.
+     */
+    public boolean isFiltered() { return rows != null; }
+
+    /**
+     * Shows only the rows of a search result, in its order.
+     */
+    public void showResult(MovieManager.QueryResult result) {
+        store = result.store;
+        rows = result.rows;
+        fireTableDataChanged();
+    }
+
+    /**
+     * Goes back to listing the whole catalog in catalog order.
+     */
+    public void showAll() {
+        rows = null;
+        reload();
+    }
+
+    // ----- Change Events -----
+
+    /**
+     * Shows movies appended by addMovie or an upload. If the row count did not grow
+     * (nothing was added, or other changes made up for it), every row is redrawn, since
+     * which rows changed is not known here.
+     */
+    public void moviesAdded() {
+        if (rows != null) return;
+        MovieStore old = store;
+        store = manager.getStore();
+        if (store.size() > old.size()) fireTableRowsInserted(old.size(), store.size() - 1);
+        else if (store.size() < old.size()) fireTableDataChanged();
+        else if (store != old && store.size() > 0) fireTableRowsUpdated(0, store.size() - 1);
+    }
+
+    /**
+     * Shows the new data of an edited movie.
+     */
+    public void movieUpdated(int id) {
+        if (rows != null) return;
+        store = manager.getStore();
+        int row = store.rowOf(id);
+        if (row >= 0) fireTableRowsUpdated(row, row);
+    }
+
+    /**
+     * Shows that the movie with the given id was removed.
+     */
+    public void movieRemoved(int id) {
+        if (rows != null) return;
+        int row = store.rowOf(id);
+        int oldSize = store.size();
+        store = manager.getStore();
+        if (row >= 0 && store.size() == oldSize - 1) fireTableRowsDeleted(row, row);
+        else fireTableDataChanged();
+    }
+
+    /**
+     * Switches to the newest snapshot and redraws everything, e.g. after loadMovies.
+     */
+    public void reload() {
+        store = manager.getStore();
+        fireTableDataChanged();
+    }
+}
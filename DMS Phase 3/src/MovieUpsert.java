@@ -0,0 +1,286 @@
+// ============================================
+// MovieUpsert.java
+// Matches imported movies against the catalog by (title, year, director)
+// ============================================
+
+import java.text.Normalizer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.stream.IntStream;
+
+/**
+ * Decides, for an upsert import, which imported movies are new, which update a movie
+ * already in the catalog and which are duplicates.
+ *
+ * Movies are matched on a key of normalized title, year and normalized director (see
+ * normalize). Keys are hashed to 64 bits and kept in an open-addressing table of
+ * primitive arrays, so a plan takes one pass over the catalog and one over the file
+ * whatever their sizes. A hash hit is confirmed by comparing the normalized fields, so
+ * two different movies are never merged because their hashes collide.
+ */
+public class MovieUpsert {
+
+    /** What happens when an imported movie matches one already in the catalog. */
+    public enum Mode {
+        /** No matching: every imported movie is added (the plain uploadCSV behaviour). */
+        APPEND,
+        /** The catalog's movie is kept and the imported row is counted as a duplicate. */
+        KEEP_EXISTING,
+        /** The imported row replaces the catalog's movie in place. */
+        OVERWRITE,
+        /**
+         * The catalog's movie is kept, but if the imported row has more votes its votes
+         * and rating are taken over (a newer export of the same movie).
+         */
+        MERGE_VOTES
+    }
+
+    /**
+     * The result of matching: movies to add, movies to replace and the counts for the
+     * upload report. Every valid imported row is counted exactly once.
+     */
+    public static class Plan {
+        public final List<Movie> inserts = new ArrayList<>();
+        public final IntList updateRows = new IntList();       // catalog rows to replace...
+        public final List<Movie> updates = new ArrayList<>();  // ...with these movies
+        public int inserted;
+        public int updated;
+        public int duplicates;
+    }
+
+    private static final long FNV_OFFSET = 0xcbf29ce484222325L;
+    private static final long FNV_PRIME = 0x100000001b3L;
+
+    private final MovieStore store;
+    private final Mode mode;
+    private final Plan plan = new Plan();
+
+    private final long[] hashes;  // 0 = empty slot
+    private final int[] refs;     // catalog row (>= 0) or pending insert -(i + 1)
+    private final int[] updateOf; // index + 1 into plan.updates for a catalog row, 0 = none
+    private final int mask;
+
+    private MovieUpsert(MovieStore store, int rows, Mode mode) {
+        this.store = store;
+        this.mode = mode;
+        long want = Math.max(16, 2L * (store.size() + (long) rows));
+        int capacity = Integer.highestOneBit((int) Math.min(want, 1 << 30));
+        if (capacity < want && capacity < (1 << 30)) capacity <<= 1;
+        hashes = new long[capacity];
+        refs = new int[capacity];
+        updateOf = new int[capacity];
+        mask = capacity - 1;
+    }
+
+    // ----- Planning -----
+
+    /**
+     * Matches imported movies against a store. The store must not change until the plan
+     * has been applied (MovieManager plans and applies under its write lock).
+     *
+     * @param store the catalog
+     * @param rows  parsed movies in file order
+     * @param mode  what to do with matches
+     */
+    public static Plan plan(MovieStore store, List<Movie> rows, Mode mode) {
+        if (mode == Mode.APPEND) {
+            Plan plan = new Plan();
+            plan.inserts.addAll(rows);
+            plan.inserted = rows.size();
+            return plan;
+        }
+        MovieUpsert upsert = new MovieUpsert(store, rows.size(), mode);
+
+        // Normalizing and hashing is most of the work and needs no shared state.
+        long[] storeHashes = new long[store.size()];
+        IntStream.range(0, storeHashes.length).parallel()
+                .forEach(r -> storeHashes[r] = hash(store.title(r), store.year(r), store.director(r)));
+        long[] rowHashes = new long[rows.size()];
+        IntStream.range(0, rowHashes.length).parallel()
+                .forEach(i -> rowHashes[i] = hash(rows.get(i)));
+
+        for (int r = 0; r < storeHashes.length; r++) upsert.addExisting(storeHashes[r], r);
+        for (int i = 0; i < rowHashes.length; i++) upsert.addImported(rowHashes[i], rows.get(i));
+        return upsert.plan;
+    }
+
+    /**
+     * Puts a catalog row into the table. If the catalog already holds the same movie
+     * twice, imports are matched against the first one.
+     */
+    private void addExisting(long h, int row) {
+        int slot = (int) h & mask;
+        while (hashes[slot] != 0) {
+            if (hashes[slot] == h && refs[slot] >= 0
+                    && sameKey(store.title(refs[slot]), store.year(refs[slot]), store.director(refs[slot]),
+                               store.title(row), store.year(row), store.director(row))) return;
+            slot = (slot + 1) & mask;
+        }
+        hashes[slot] = h;
+        refs[slot] = row;
+    }
+
+    /**
+     * Matches one imported movie and records what to do with it.
+     */
+    private void addImported(long h, Movie m) {
+        int slot = (int) h & mask;
+        while (hashes[slot] != 0) {
+            if (hashes[slot] == h && matches(slot, m)) {
+                resolve(slot, m);
+                return;
+            }
+            slot = (slot + 1) & mask;
+        }
+        hashes[slot] = h;
+        refs[slot] = -(plan.inserts.size() + 1);
+        plan.inserts.add(m);
+        plan.inserted++;
+    }
+
+    /** True if the movie in a slot has the same key as m; keys never change in a plan. */
+    private boolean matches(int slot, Movie m) {
+        int ref = refs[slot];
+        if (ref < 0) return sameKey(plan.inserts.get(-ref - 1), m);
+        return sameKey(store.title(ref), store.year(ref), store.director(ref),
+                       m.getTitle(), m.getYear(), m.getDirector());
+    }
+
+    /** The movie a slot stands for, including changes planned so far. */
+    private Movie current(int slot) {
+        int ref = refs[slot];
+        if (ref < 0) return plan.inserts.get(-ref - 1);
+        if (updateOf[slot] != 0) return plan.updates.get(updateOf[slot] - 1);
+        return store.get(ref);
+    }
+
+    /**
+     * Applies the mode to an imported movie that matches a slot. A second row for a
+     * movie that is already being inserted or updated by this import changes the planned
+     * movie but is counted as a duplicate.
+     */
+    private void resolve(int slot, Movie m) {
+        if (mode == Mode.KEEP_EXISTING) {
+            plan.duplicates++;
+            return;
+        }
+        Movie existing = current(slot);
+        Movie merged = switch (mode) {
+            case OVERWRITE -> m;
+            case MERGE_VOTES -> m.getVotes() > existing.getVotes()
+                    ? new Movie(existing.getTitle(), existing.getYear(), existing.getDirector(), m.getRating(),
+                                existing.getRuntimeMinutes(), m.getVotes(), existing.isWatched())
+                    : existing;
+            default -> existing;
+        };
+        int ref = refs[slot];
+        if (merged == existing || sameValues(merged, existing)) {
+            plan.duplicates++;
+        } else if (ref < 0) {
+            plan.inserts.set(-ref - 1, merged);
+            plan.duplicates++;
+        } else if (updateOf[slot] != 0) {
+            plan.updates.set(updateOf[slot] - 1, merged);
+            plan.duplicates++;
+        } else {
+            plan.updateRows.add(ref);
+            plan.updates.add(merged);
+            updateOf[slot] = plan.updates.size();
+            plan.updated++;
+        }
+    }
+
+    // ----- Keys -----
+
+    /**
+     * Normalizes a title or director for matching: Unicode compatibility forms are
+     * folded (NFKC), surrounding whitespace is dropped, inner whitespace runs become one
+     * space and letters are lower-cased. "The  Thing " and "the thing" match.
+     */
+    public static String normalize(String s) {
+        if (s == null) return "";
+        for (int i = 0; i < s.length(); i++) {
+            if (s.charAt(i) >= 0x80) {
+                s = Normalizer.normalize(s, Normalizer.Form.NFKC);
+                break;
+            }
+        }
+        StringBuilder out = new StringBuilder(s.length());
+        boolean space = false;
+        for (int i = 0; i < s.length(); i++) {
+            char c = s.charAt(i);
+            if (Character.isWhitespace(c)) {
+                space = out.length() > 0;
+            } else {
+                if (space) out.append(' ');
+                space = false;
+                out.append(Character.toLowerCase(c));
+            }
+        }
+        return out.toString();
+    }
+
+    static long hash(Movie m) {
+        return hash(m.getTitle(), m.getYear(), m.getDirector());
+    }
+
+    /**
+     * 64-bit FNV-1a hash of the normalized key; never 0, which marks an empty slot.
+     */
+    static long hash(String title, int year, String director) {
+        long h = FNV_OFFSET;
+        h = mix(h, title);
+        h = (h ^ year) * FNV_PRIME;
+        h = mix(h, director);
+        h ^= h >>> 29; // spread the high bits into the slot index
+        return h == 0 ? 1 : h;
+    }
+
+    /**
+     * Hashes normalize(s) followed by a field separator. ASCII text, the common case,
+     * is normalized on the fly without building a string.
+     */
+    private static long mix(long h, String s) {
+        if (s == null) s = "";
+        for (int i = 0; i < s.length(); i++) {
+            if (s.charAt(i) >= 0x80) {
+                String n = normalize(s);
+                for (int j = 0; j < n.length(); j++) h = (h ^ n.charAt(j)) * FNV_PRIME;
+                return (h ^ 0xff) * FNV_PRIME;
+            }
+        }
+        boolean space = false, started = false;
+        for (int i = 0; i < s.length(); i++) {
+            char c = s.charAt(i);
+            if (Character.isWhitespace(c)) {
+                space = started;
+            } else {
+                if (space) h = (h ^ ' ') * FNV_PRIME;
+                space = false;
+                started = true;
+                h = (h ^ Character.toLowerCase(c)) * FNV_PRIME;
+            }
+        }
+        return (h ^ 0xff) * FNV_PRIME; // field separator
+    }
+
+    private static boolean sameKey(Movie a, Movie b) {
+        return sameKey(a.getTitle(), a.getYear(), a.getDirector(), b.getTitle(), b.getYear(), b.getDirector());
+    }
+
+    private static boolean sameKey(String titleA, int yearA, String directorA,
+                                   String titleB, int yearB, String directorB) {
+        return yearA == yearB && sameText(titleA, titleB) && sameText(directorA, directorB);
+    }
+
+    private static boolean sameText(String a, String b) {
+        return a != null && a.equals(b) || normalize(a).equals(normalize(b));
+    }
+
+    private static boolean sameValues(Movie a, Movie b) {
+        return a.getTitle().equals(b.getTitle()) && a.getYear() == b.getYear()
+                && a.getDirector().equals(b.getDirector()) && a.getRating() == b.getRating()
+                && a.getRuntimeMinutes() == b.getRuntimeMinutes() && a.getVotes() == b.getVotes()
+                && a.isWatched() == b.isWatched();
+    }
+}
@@ -0,0 +1,391 @@
+// ============================================
+// ParallelCsvImporter.java
+// Splits a CSV file into line-aligned chunks and parses them on a fork-join pool
+// ============================================
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.file.*;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.BooleanSupplier;
+import java.util.function.Consumer;
+
+/**
+ * Parallel bulk import for MovieManager.uploadCSV.
+ * The file is cut into byte ranges that end on a newline, each range is decoded and run
+ * through Movie.fromCSV on a ForkJoinPool, and the per-chunk results are merged back in
+ * file order so that movies and error line numbers match the sequential import.
+ * A stream that cannot be split by offset, such as a compressed file being inflated, is
+ * cut into chunks as it is read instead.
+ */
+public class ParallelCsvImporter {
+
+    /** Files smaller than this are imported sequentially. */
+    public static final long MIN_PARALLEL_BYTES = 1L << 20;
+
+    private static final long TARGET_CHUNK_BYTES = 8L << 20;
+    /** A chunk is decoded into one String, so it must stay far below 2 GB of chars. */
+    private static final long MAX_CHUNK_BYTES = 256L << 20;
+    private static final long PROGRESS_INTERVAL_MS = 250;
+
+    /**
+     * Progress snapshot handed to the caller while an import is running.
+     */
+    public static class Progress {
+        public final long rowsParsed;
+        public final long errors;
+        public final double rowsPerSecond;
+
+        public Progress(long rowsParsed, long errors, double rowsPerSecond) {
+            this.rowsParsed = rowsParsed;
+            this.errors = errors;
+            this.rowsPerSecond = rowsPerSecond;
+        }
+    }
+
+    /**
+     * Parsed movies and error messages in source order.
+     */
+    public static class Result {
+        public final List<Movie> movies;
+        public final List<String> errors;
+
+        public Result(List<Movie> movies, List<String> errors) {
+            this.movies = movies;
+            this.errors = errors;
+        }
+    }
+
+    /** Output of a single chunk; line numbers are relative to the chunk start. */
+    private static class ChunkResult {
+        final List<Movie> movies = new ArrayList<>();
+        final List<Integer> errorLines = new ArrayList<>();
+        final List<String> errorMessages = new ArrayList<>();
+        int lineCount;
+    }
+
+    private final ForkJoinPool pool;
+    private final Charset charset;
+
+    // ----- Constructors -----
+
+    /**
+     * Uses the common fork-join pool and the platform charset (same as FileReader).
+     */
+    public ParallelCsvImporter() {
+        this(ForkJoinPool.commonPool(), Charset.defaultCharset());
+    }
+
+    public ParallelCsvImporter(ForkJoinPool pool, Charset charset) {
+        this.pool = pool;
+        this.charset = charset;
+    }
+
+    // ----- Import -----
+
+    /**
+     * Parses the whole file in parallel.
+     *
+     * @param path     CSV file to read
+     * @param progress receives progress snapshots on the calling thread (may be null)
+     * @return movies and errors in file order
+     */
+    public Result parse(Path path, Consumer<Progress> progress) throws IOException {
+        return parse(path, progress, () -> false);
+    }
+
+    /**
+     * Parses the whole file in parallel, stopping early once cancelled returns true.
+     * The flag is polled by the workers every few thousand rows and by the calling thread
+     * at every progress interval, so no thread needs to be interrupted.
+     *
+     * @throws CancellationException if the import was cancelled
+     */
+    public Result parse(Path path, Consumer<Progress> progress, BooleanSupplier cancelled) throws IOException {
+        List<long[]> ranges = split(path);
+        AtomicLong rows = new AtomicLong();
+        AtomicLong errorCount = new AtomicLong();
+        long start = System.nanoTime();
+
+        List<ForkJoinTask<ChunkResult>> tasks = new ArrayList<>(ranges.size());
+        for (int i = 0; i < ranges.size(); i++) {
+            long[] r = ranges.get(i);
+            boolean first = i == 0;
+            tasks.add(pool.submit(() -> parseChunk(path, r[0], r[1], first, rows, errorCount, cancelled)));
+        }
+
+        List<ChunkResult> results = new ArrayList<>(tasks.size());
+        for (ForkJoinTask<ChunkResult> task : tasks) {
+            results.add(await(task, tasks, progress, rows, errorCount, start, cancelled));
+        }
+        if (cancelled.getAsBoolean()) throw new CancellationException("Import cancelled");
+        report(progress, rows, errorCount, start);
+        return merge(results);
+    }
+
+    /**
+     * Parses a stream in parallel, for input that cannot be split by offset such as a
+     * decompressing stream. The calling thread reads the stream and cuts it after a
+     * newline outside quotes into chunks that are parsed on the pool while it reads on.
+     * At most a few chunks per worker are held in memory at a time.
+     *
+     * @param in       CSV bytes; read to the end but not closed
+     * @param progress receives progress snapshots on the calling thread (may be null)
+     * @throws CancellationException if the import was cancelled
+     */
+    public Result parse(InputStream in, Consumer<Progress> progress, BooleanSupplier cancelled) throws IOException {
+        AtomicLong rows = new AtomicLong();
+        AtomicLong errorCount = new AtomicLong();
+        long start = System.nanoTime();
+        int window = Math.max(2, pool.getParallelism() * 2);
+        ArrayDeque<ForkJoinTask<ChunkResult>> inFlight = new ArrayDeque<>();
+        List<ChunkResult> results = new ArrayList<>();
+
+        byte[] buf = new byte[(int) TARGET_CHUNK_BYTES + 64 * 1024];
+        int want = (int) TARGET_CHUNK_BYTES;
+        int len = 0;
+        boolean eof = false, first = true;
+        try {
+            while (!eof || len > 0) {
+                while (!eof && len < want) {
+                    int n = in.read(buf, len, buf.length - len);
+                    if (n < 0) eof = true;
+                    else len += n;
+                }
+                int cut = eof ? len : recordsEnd(buf, len);
+                if (cut == 0) {
+                    // One record longer than a whole chunk: read more before cutting
+                    if (buf.length >= MAX_CHUNK_BYTES) throw noLineBreak(MAX_CHUNK_BYTES);
+                    buf = Arrays.copyOf(buf, buf.length * 2);
+                    want = buf.length - 64 * 1024;
+                    continue;
+                }
+                byte[] chunk = Arrays.copyOf(buf, cut);
+                System.arraycopy(buf, cut, buf, 0, len - cut);
+                len -= cut;
+
+                if (cancelled.getAsBoolean()) throw new CancellationException("Import cancelled");
+                boolean firstChunk = first;
+                first = false;
+                inFlight.add(pool.submit(() -> parseBytes(ByteBuffer.wrap(chunk), firstChunk, rows, errorCount,
+                        cancelled)));
+                while (inFlight.size() >= window) {
+                    results.add(await(inFlight.peek(), inFlight, progress, rows, errorCount, start, cancelled));
+                    inFlight.poll();
+                }
+            }
+            while (!inFlight.isEmpty()) {
+                results.add(await(inFlight.peek(), inFlight, progress, rows, errorCount, start, cancelled));
+                inFlight.poll();
+            }
+        } finally {
+            for (ForkJoinTask<ChunkResult> task : inFlight) task.cancel(true);
+        }
+        if (cancelled.getAsBoolean()) throw new CancellationException("Import cancelled");
+        report(progress, rows, errorCount, start);
+        return merge(results);
+    }
+
+    /**
+     * Waits for one chunk, reporting progress while it waits. On cancellation or a
+     * failure every task in all is cancelled.
+     */
+    private ChunkResult await(ForkJoinTask<ChunkResult> task, Collection<ForkJoinTask<ChunkResult>> all,
+                              Consumer<Progress> progress, AtomicLong rows, AtomicLong errorCount, long start,
+                              BooleanSupplier cancelled) throws IOException {
+        try {
+            while (true) {
+                try {
+                    return task.get(PROGRESS_INTERVAL_MS, TimeUnit.MILLISECONDS);
+                } catch (TimeoutException e) {
+                    if (cancelled.getAsBoolean()) {
+                        for (ForkJoinTask<ChunkResult> t : all) t.cancel(true);
+                        throw new CancellationException("Import cancelled");
+                    }
+                    report(progress, rows, errorCount, start);
+                }
+            }
+        } catch (InterruptedException e) {
+            for (ForkJoinTask<ChunkResult> t : all) t.cancel(true);
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Import interrupted");
+        } catch (ExecutionException e) {
+            for (ForkJoinTask<ChunkResult> t : all) t.cancel(true);
+            Throwable cause = e.getCause();
+            if (cause instanceof CancellationException) throw (CancellationException) cause;
+            if (cause instanceof UncheckedIOException) throw ((UncheckedIOException) cause).getCause();
+            throw new IOException(cause);
+        }
+    }
+
+    private void report(Consumer<Progress> progress, AtomicLong rows, AtomicLong errors, long start) {
+        if (progress == null) return;
+        double seconds = Math.max((System.nanoTime() - start) / 1e9, 1e-9);
+        long parsed = rows.get();
+        progress.accept(new Progress(parsed, errors.get(), parsed / seconds));
+    }
+
+    /**
+     * Concatenates chunk results and turns chunk-relative line numbers into file line numbers.
+     */
+    private Result merge(List<ChunkResult> results) {
+        int totalMovies = 0, totalErrors = 0;
+        for (ChunkResult r : results) {
+            totalMovies += r.movies.size();
+            totalErrors += r.errorMessages.size();
+        }
+        List<Movie> movies = new ArrayList<>(totalMovies);
+        List<String> errors = new ArrayList<>(totalErrors);
+        int lineOffset = 0;
+        for (ChunkResult r : results) {
+            movies.addAll(r.movies);
+            for (int i = 0; i < r.errorMessages.size(); i++) {
+                errors.add("Line " + (lineOffset + r.errorLines.get(i)) + ": " + r.errorMessages.get(i));
+            }
+            lineOffset += r.lineCount;
+        }
+        return new Result(movies, errors);
+    }
+
+    // ----- Chunking -----
+
+    /**
+     * Splits the file into [start, end) byte ranges, each ending just after a '\n' that
+     * is outside a quoted field. Quotes are tracked from the start of the file with the
+     * same rules as MovieCsvReader, so a record with an embedded newline is never cut in
+     * half and a stray quote inside a plain field does not shift the cuts.
+     */
+    List<long[]> split(Path path) throws IOException {
+        List<long[]> ranges = new ArrayList<>();
+        try (FileChannel ch = FileChannel.open(path, StandardOpenOption.READ)) {
+            long size = ch.size();
+            long chunks = Math.max(size / TARGET_CHUNK_BYTES + 1, pool.getParallelism() * 4L);
+            long step = Math.max(64 * 1024, size / chunks);
+            ByteBuffer buf = ByteBuffer.allocateDirect(64 * 1024);
+
+            long start = 0;
+            long target = step;
+            int state = MovieCsvReader.FIELD_START;
+            long recordStart = 0;
+            long pos = 0;
+            while (pos < size) {
+                buf.clear();
+                int n = ch.read(buf, pos);
+                if (n <= 0) break;
+                for (int i = 0; i < n; i++) {
+                    int b = buf.get(i) & 0xFF;
+                    if (b != '\n') {
+                        state = MovieCsvReader.step(state, b);
+                    } else if (state == MovieCsvReader.QUOTED
+                            && pos + i - recordStart < MovieCsvReader.MAX_RECORD_LENGTH) {
+                        // line break inside a quoted field
+                    } else {
+                        state = MovieCsvReader.FIELD_START;
+                        recordStart = pos + i + 1;
+                        if (recordStart >= target) {
+                            ranges.add(new long[]{start, recordStart});
+                            start = recordStart;
+                            target = recordStart + step;
+                        }
+                    }
+                }
+                pos += n;
+            }
+            if (start < size) ranges.add(new long[]{start, size});
+        }
+        for (long[] r : ranges) {
+            if (r[1] - r[0] > MAX_CHUNK_BYTES) throw noLineBreak(r[1] - r[0]);
+        }
+        return ranges;
+    }
+
+    private static IOException noLineBreak(long bytes) {
+        return new IOException("No line break in " + (bytes >> 20) + " MB of input; is this a CSV file?");
+    }
+
+    /**
+     * Length of the complete records at the start of buf: the offset just after the last
+     * '\n' outside quotes, or 0 if there is none. buf starts at a record boundary.
+     */
+    static int recordsEnd(byte[] buf, int len) {
+        int state = MovieCsvReader.FIELD_START;
+        int end = 0;
+        for (int i = 0; i < len; i++) {
+            int b = buf[i] & 0xFF;
+            if (b != '\n') state = MovieCsvReader.step(state, b);
+            else if (state != MovieCsvReader.QUOTED || i - end >= MovieCsvReader.MAX_RECORD_LENGTH) {
+                state = MovieCsvReader.FIELD_START;
+                end = i + 1;
+            }
+        }
+        return end;
+    }
+
+    /**
+     * Reads one byte range and parses it.
+     */
+    private ChunkResult parseChunk(Path path, long start, long end, boolean firstChunk,
+                                   AtomicLong rows, AtomicLong errorCount, BooleanSupplier cancelled) {
+        ByteBuffer bytes = ByteBuffer.allocate(Math.toIntExact(end - start));
+        try (FileChannel ch = FileChannel.open(path, StandardOpenOption.READ)) {
+            long pos = start;
+            while (bytes.hasRemaining()) {
+                int n = ch.read(bytes, pos);
+                if (n < 0) break;
+                pos += n;
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        bytes.flip();
+        return parseBytes(bytes, firstChunk, rows, errorCount, cancelled);
+    }
+
+    /**
+     * Decodes a chunk of whole records and parses its lines with the same rules as uploadCSV.
+     */
+    private ChunkResult parseBytes(ByteBuffer bytes, boolean firstChunk,
+                                   AtomicLong rows, AtomicLong errorCount, BooleanSupplier cancelled) {
+        ChunkResult result = new ChunkResult();
+        try (MovieCsvReader reader = new MovieCsvReader(new StringReader(charset.decode(bytes).toString()))) {
+            String line;
+            int pending = 0, accepted = 0;
+            while ((line = reader.next()) != null) {
+                int lineNum = reader.recordLine();
+                line = line.trim();
+                if (line.isEmpty()) continue;
+                if (firstChunk && lineNum == 1 && line.toLowerCase().contains("title")) continue;
+
+                try {
+                    result.movies.add(Movie.fromCSV(line));
+                    accepted++;
+                } catch (IllegalArgumentException ex) {
+                    if (reader.retryAsLines()) continue;
+                    MovieMetrics.rejected(ex);
+                    result.errorLines.add(lineNum);
+                    result.errorMessages.add(ex.getMessage());
+                    errorCount.incrementAndGet();
+                }
+                if (++pending == 4096) {
+                    rows.addAndGet(accepted);
+                    pending = 0;
+                    accepted = 0;
+                    if (Thread.interrupted() || cancelled.getAsBoolean()) throw new CancellationException();
+                }
+            }
+            rows.addAndGet(accepted);
+            result.lineCount = reader.lineCount();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return result;
+    }
+}
@@ -0,0 +1,502 @@
+// ============================================
+// ScoreExpression.java
+// Small expression language for custom scoring rules, compiled to column loops
+// ============================================
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A ScoringRule written as an arithmetic expression, for example the built-in scariness:
+ *
+ *   clamp(rating + min(votes / 500000, 2) + (runtime > 120 ? 1 : 0) - watched, 0, 10)
+ *
+ * Variables: rating, votes, runtime, year, watched (1 or 0), and scariness (the value
+ * of Movie.getScariness).
+ * Operators, loosest first: ?: , ||, &&, == != < <= > >=, + -, * / %, unary - and !.
+ * Comparisons and logic yield 1 or 0, and any non-zero value counts as true.
+ * Functions: min, max, clamp(x, lo, hi), abs, sqrt, log, log10, exp, pow, floor, ceil.
+ * All arithmetic is done in doubles.
+ *
+ * The text is parsed once. Constant parts are folded, and every remaining node becomes a
+ * lambda that runs one tight loop over a block of up to BLOCK rows. The per-node call
+ * overhead is therefore paid once per block instead of once per row.
+ * Instances are immutable and thread-safe.
+ */
+public final class ScoreExpression implements ScoringRule {
+
+    private static final int BLOCK = 1024;
+
+    /** Parsed expression node: a constant, a variable, or an operator with arguments. */
+    private static final class Node {
+        final String op;        // "const", a variable name, an operator or a function name
+        final double value;     // for "const"
+        final Node[] args;
+
+        Node(String op, double value, Node... args) {
+            this.op = op;
+            this.value = value;
+            this.args = args;
+        }
+
+        boolean isConst() { return op.equals("const"); }
+    }
+
+    /** Input columns of the block being scored and scratch buffers for the nodes. */
+    private static final class Frame {
+        double[] ratings;
+        int[] votes, runtimes, years;
+        long[] watched;
+        int first;              // first row of the current block
+        final double[][] temps;
+        final double[] result = new double[BLOCK];
+
+        Frame(int temps) {
+            this.temps = new double[temps][BLOCK];
+        }
+    }
+
+    /** A compiled node: writes its value for n rows of the frame's block into out. */
+    private interface Op {
+        void eval(Frame f, double[] out, int n);
+    }
+
+    private final String source;
+    private final Node tree;
+    private final Op root;
+    private final ThreadLocal<Frame> frames;
+
+    private ScoreExpression(String source, Node tree) {
+        this.source = source;
+        this.tree = tree;
+        int[] temps = new int[1];
+        this.root = compile(tree, 0, temps);
+        int tempCount = temps[0];
+        this.frames = ThreadLocal.withInitial(() -> new Frame(tempCount));
+    }
+
+    /**
+     * Parses and compiles a scoring expression.
+     *
+     * @throws IllegalArgumentException if the text is not a valid expression
+     */
+    public static ScoreExpression parse(String text) {
+        Parser p = new Parser(text);
+        Node tree = p.ternary();
+        p.skipSpaces();
+        if (p.pos < text.length()) throw p.error("Unexpected '" + text.charAt(p.pos) + "'");
+        return new ScoreExpression(text.trim(), tree);
+    }
+
+    // ----- Evaluation -----
+
+    @Override
+    public double score(double rating, int votes, int runtimeMinutes, int year, boolean watched) {
+        double[] out = new double[1];
+        scoreAll(new double[]{rating}, new int[]{votes}, new int[]{runtimeMinutes}, new int[]{year},
+                new long[]{watched ? 1 : 0}, out, 1);
+        return out[0];
+    }
+
+    @Override
+    public void scoreAll(double[] ratings, int[] votes, int[] runtimes, int[] years, long[] watched,
+                         double[] out, int n) {
+        Frame f = frames.get();
+        f.ratings = ratings;
+        f.votes = votes;
+        f.runtimes = runtimes;
+        f.years = years;
+        f.watched = watched;
+        for (int first = 0; first < n; first += BLOCK) {
+            int len = Math.min(BLOCK, n - first);
+            f.first = first;
+            root.eval(f, f.result, len);
+            System.arraycopy(f.result, 0, out, first, len);
+        }
+        f.ratings = null; // don't keep the caller's columns reachable
+        f.votes = f.runtimes = f.years = null;
+        f.watched = null;
+    }
+
+    @Override
+    public String toString() {
+        return source;
+    }
+
+    /**
+     * Years outside of which the expression is zero, as far as comparisons of year with a
+     * constant joined by && at the top level tell: "year >= 1990 && rating > 7" gives
+     * {1990, Integer.MAX_VALUE}. Any other expression leaves the range open. Used to skip
+     * catalog segments (see MoviePartitions).
+     *
+     * @return {min, max}, inclusive; min > max if no year can match
+     */
+    public int[] yearRange() {
+        return yearRange(tree);
+    }
+
+    private static int[] yearRange(Node node) {
+        int[] range = {Integer.MIN_VALUE, Integer.MAX_VALUE};
+        if (node.op.equals("&&")) {
+            int[] a = yearRange(node.args[0]), b = yearRange(node.args[1]);
+            return new int[]{Math.max(a[0], b[0]), Math.min(a[1], b[1])};
+        }
+        if (node.args.length != 2) return range;
+        String op = node.op;
+        Node variable = node.args[0], constant = node.args[1];
+        if (variable.isConst() && constant.op.equals("year")) {
+            variable = node.args[1];
+            constant = node.args[0];
+            op = switch (op) {
+                case "<" -> ">";
+                case "<=" -> ">=";
+                case ">" -> "<";
+                case ">=" -> "<=";
+                default -> op;
+            };
+        }
+        if (!variable.op.equals("year") || !constant.isConst() || Double.isNaN(constant.value)) return range;
+        double v = constant.value;
+        switch (op) {
+            case "==" -> {
+                range[0] = (int) Math.ceil(v);
+                range[1] = (int) Math.floor(v);
+            }
+            case ">=" -> range[0] = (int) Math.ceil(v);
+            case ">" -> range[0] = (int) (Math.floor(v) + 1);
+            case "<=" -> range[1] = (int) Math.floor(v);
+            case "<" -> range[1] = (int) (Math.ceil(v) - 1);
+            default -> { }
+        }
+        return range;
+    }
+
+    // ----- Compilation -----
+
+    /**
+     * Compiles a node whose scratch buffers start at temps[depth]. The first argument of
+     * an operator is evaluated straight into out, argument k (k >= 1) into
+     * temps[depth + k - 1], and that argument's own scratch starts above it.
+     *
+     * @param maxTemps receives the number of scratch buffers needed
+     */
+    private static Op compile(Node node, int depth, int[] maxTemps) {
+        switch (node.op) {
+            case "const" -> {
+                double c = node.value;
+                return (f, out, n) -> {
+                    for (int i = 0; i < n; i++) out[i] = c;
+                };
+            }
+            case "rating" -> {
+                return (f, out, n) -> System.arraycopy(f.ratings, f.first, out, 0, n);
+            }
+            case "votes" -> {
+                return (f, out, n) -> copy(f.votes, f.first, out, n);
+            }
+            case "runtime" -> {
+                return (f, out, n) -> copy(f.runtimes, f.first, out, n);
+            }
+            case "year" -> {
+                return (f, out, n) -> copy(f.years, f.first, out, n);
+            }
+            case "scariness" -> {
+                return (f, out, n) -> MovieStore.scariness(f.ratings, f.votes, f.runtimes, f.watched, f.first, out, n);
+            }
+            case "watched" -> {
+                return (f, out, n) -> {
+                    long[] bits = f.watched;
+                    int first = f.first;
+                    for (int i = 0; i < n; i++) {
+                        int row = first + i;
+                        out[i] = (bits[row >>> 6] >>> row) & 1;
+                    }
+                };
+            }
+        }
+
+        Op[] args = new Op[node.args.length];
+        args[0] = compile(node.args[0], depth, maxTemps);
+        for (int k = 1; k < args.length; k++) args[k] = compile(node.args[k], depth + k, maxTemps);
+        maxTemps[0] = Math.max(maxTemps[0], depth + args.length - 1);
+
+        if (args.length == 1) {
+            Op a = args[0];
+            return switch (node.op) {
+                case "neg" -> (f, out, n) -> { a.eval(f, out, n); for (int i = 0; i < n; i++) out[i] = -out[i]; };
+                case "!" -> (f, out, n) -> { a.eval(f, out, n); for (int i = 0; i < n; i++) out[i] = out[i] == 0 ? 1 : 0; };
+                case "abs" -> (f, out, n) -> { a.eval(f, out, n); for (int i = 0; i < n; i++) out[i] = Math.abs(out[i]); };
+                case "sqrt" -> (f, out, n) -> { a.eval(f, out, n); for (int i = 0; i < n; i++) out[i] = Math.sqrt(out[i]); };
+                case "log" -> (f, out, n) -> { a.eval(f, out, n); for (int i = 0; i < n; i++) out[i] = Math.log(out[i]); };
+                case "log10" -> (f, out, n) -> { a.eval(f, out, n); for (int i = 0; i < n; i++) out[i] = Math.log10(out[i]); };
+                case "exp" -> (f, out, n) -> { a.eval(f, out, n); for (int i = 0; i < n; i++) out[i] = Math.exp(out[i]); };
+                case "floor" -> (f, out, n) -> { a.eval(f, out, n); for (int i = 0; i < n; i++) out[i] = Math.floor(out[i]); };
+                case "ceil" -> (f, out, n) -> { a.eval(f, out, n); for (int i = 0; i < n; i++) out[i] = Math.ceil(out[i]); };
+                default -> throw new IllegalStateException(node.op);
+            };
+        }
+
+        Op a = args[0], b = args[1];
+        int t = depth;
+        if (args.length == 3) {
+            Op c = args[2];
+            return switch (node.op) {
+                case "?" -> (f, out, n) -> {
+                    a.eval(f, out, n);
+                    b.eval(f, f.temps[t], n);
+                    c.eval(f, f.temps[t + 1], n);
+                    double[] x = f.temps[t], y = f.temps[t + 1];
+                    for (int i = 0; i < n; i++) out[i] = out[i] != 0 ? x[i] : y[i];
+                };
+                case "clamp" -> (f, out, n) -> {
+                    a.eval(f, out, n);
+                    b.eval(f, f.temps[t], n);
+                    c.eval(f, f.temps[t + 1], n);
+                    double[] lo = f.temps[t], hi = f.temps[t + 1];
+                    for (int i = 0; i < n; i++) out[i] = Math.min(Math.max(out[i], lo[i]), hi[i]);
+                };
+                default -> throw new IllegalStateException(node.op);
+            };
+        }
+
+        return switch (node.op) {
+            case "+" -> (f, out, n) -> { a.eval(f, out, n); double[] y = f.temps[t]; b.eval(f, y, n); for (int i = 0; i < n; i++) out[i] = out[i] + y[i]; };
+            case "-" -> (f, out, n) -> { a.eval(f, out, n); double[] y = f.temps[t]; b.eval(f, y, n); for (int i = 0; i < n; i++) out[i] = out[i] - y[i]; };
+            case "*" -> (f, out, n) -> { a.eval(f, out, n); double[] y = f.temps[t]; b.eval(f, y, n); for (int i = 0; i < n; i++) out[i] = out[i] * y[i]; };
+            case "/" -> (f, out, n) -> { a.eval(f, out, n); double[] y = f.temps[t]; b.eval(f, y, n); for (int i = 0; i < n; i++) out[i] = out[i] / y[i]; };
+            case "%" -> (f, out, n) -> { a.eval(f, out, n); double[] y = f.temps[t]; b.eval(f, y, n); for (int i = 0; i < n; i++) out[i] = out[i] % y[i]; };
+            case "min" -> (f, out, n) -> { a.eval(f, out, n); double[] y = f.temps[t]; b.eval(f, y, n); for (int i = 0; i < n; i++) out[i] = Math.min(out[i], y[i]); };
+            case "max" -> (f, out, n) -> { a.eval(f, out, n); double[] y = f.temps[t]; b.eval(f, y, n); for (int i = 0; i < n; i++) out[i] = Math.max(out[i], y[i]); };
+            case "pow" -> (f, out, n) -> { a.eval(f, out, n); double[] y = f.temps[t]; b.eval(f, y, n); for (int i = 0; i < n; i++) out[i] = Math.pow(out[i], y[i]); };
+            case "==" -> (f, out, n) -> { a.eval(f, out, n); double[] y = f.temps[t]; b.eval(f, y, n); for (int i = 0; i < n; i++) out[i] = out[i] == y[i] ? 1 : 0; };
+            case "!=" -> (f, out, n) -> { a.eval(f, out, n); double[] y = f.temps[t]; b.eval(f, y, n); for (int i = 0; i < n; i++) out[i] = out[i] != y[i] ? 1 : 0; };
+            case "<" -> (f, out, n) -> { a.eval(f, out, n); double[] y = f.temps[t]; b.eval(f, y, n); for (int i = 0; i < n; i++) out[i] = out[i] < y[i] ? 1 : 0; };
+            case "<=" -> (f, out, n) -> { a.eval(f, out, n); double[] y = f.temps[t]; b.eval(f, y, n); for (int i = 0; i < n; i++) out[i] = out[i] <= y[i] ? 1 : 0; };
+            case ">" -> (f, out, n) -> { a.eval(f, out, n); double[] y = f.temps[t]; b.eval(f, y, n); for (int i = 0; i < n; i++) out[i] = out[i] > y[i] ? 1 : 0; };
+            case ">=" -> (f, out, n) -> { a.eval(f, out, n); double[] y = f.temps[t]; b.eval(f, y, n); for (int i = 0; i < n; i++) out[i] = out[i] >= y[i] ? 1 : 0; };
+            case "&&" -> (f, out, n) -> { a.eval(f, out, n); double[] y = f.temps[t]; b.eval(f, y, n); for (int i = 0; i < n; i++) out[i] = out[i] != 0 && y[i] != 0 ? 1 : 0; };
+            case "||" -> (f, out, n) -> { a.eval(f, out, n); double[] y = f.temps[t]; b.eval(f, y, n); for (int i = 0; i < n; i++) out[i] = out[i] != 0 || y[i] != 0 ? 1 : 0; };
+            default -> throw new IllegalStateException(node.op);
+        };
+    }
+
+    private static void copy(int[] col, int first, double[] out, int n) {
+        for (int i = 0; i < n; i++) out[i] = col[first + i];
+    }
+
+    /**
+     * Value of an operator applied to constants, used to fold constant sub-expressions.
+     */
+    private static double fold(String op, double[] v) {
+        return switch (op) {
+            case "neg" -> -v[0];
+            case "!" -> v[0] == 0 ? 1 : 0;
+            case "abs" -> Math.abs(v[0]);
+            case "sqrt" -> Math.sqrt(v[0]);
+            case "log" -> Math.log(v[0]);
+            case "log10" -> Math.log10(v[0]);
+            case "exp" -> Math.exp(v[0]);
+            case "floor" -> Math.floor(v[0]);
+            case "ceil" -> Math.ceil(v[0]);
+            case "?" -> v[0] != 0 ? v[1] : v[2];
+            case "clamp" -> Math.min(Math.max(v[0], v[1]), v[2]);
+            case "+" -> v[0] + v[1];
+            case "-" -> v[0] - v[1];
+            case "*" -> v[0] * v[1];
+            case "/" -> v[0] / v[1];
+            case "%" -> v[0] % v[1];
+            case "min" -> Math.min(v[0], v[1]);
+            case "max" -> Math.max(v[0], v[1]);
+            case "pow" -> Math.pow(v[0], v[1]);
+            case "==" -> v[0] == v[1] ? 1 : 0;
+            case "!=" -> v[0] != v[1] ? 1 : 0;
+            case "<" -> v[0] < v[1] ? 1 : 0;
+            case "<=" -> v[0] <= v[1] ? 1 : 0;
+            case ">" -> v[0] > v[1] ? 1 : 0;
+            case ">=" -> v[0] >= v[1] ? 1 : 0;
+            case "&&" -> v[0] != 0 && v[1] != 0 ? 1 : 0;
+            case "||" -> v[0] != 0 || v[1] != 0 ? 1 : 0;
+            default -> throw new IllegalStateException(op);
+        };
+    }
+
+    // ----- Parsing -----
+
+    /**
+     * Recursive-descent parser; one method per precedence level.
+     */
+    private static final class Parser {
+        private final String text;
+        private int pos;
+
+        Parser(String text) {
+            this.text = text;
+        }
+
+        Node ternary() {
+            Node cond = or();
+            if (!accept("?")) return cond;
+            Node a = ternary();
+            expect(":");
+            Node b = ternary();
+            return node("?", cond, a, b);
+        }
+
+        Node or() {
+            Node left = and();
+            while (accept("||")) left = node("||", left, and());
+            return left;
+        }
+
+        Node and() {
+            Node left = comparison();
+            while (accept("&&")) left = node("&&", left, comparison());
+            return left;
+        }
+
+        Node comparison() {
+            Node left = additive();
+            while (true) {
+                String op = acceptAny("==", "!=", "<=", ">=", "<", ">");
+                if (op == null) return left;
+                left = node(op, left, additive());
+            }
+        }
+
+        Node additive() {
+            Node left = multiplicative();
+            while (true) {
+                String op = acceptAny("+", "-");
+                if (op == null) return left;
+                left = node(op, left, multiplicative());
+            }
+        }
+
+        Node multiplicative() {
+            Node left = unary();
+            while (true) {
+                String op = acceptAny("*", "/", "%");
+                if (op == null) return left;
+                left = node(op, left, unary());
+            }
+        }
+
+        Node unary() {
+            if (accept("-")) return node("neg", unary());
+            if (accept("+")) return unary();
+            if (peek("!") && !peek("!=")) {
+                accept("!");
+                return node("!", unary());
+            }
+            return primary();
+        }
+
+        Node primary() {
+            skipSpaces();
+            if (pos >= text.length()) throw error("Unexpected end of expression");
+            char c = text.charAt(pos);
+            if (accept("(")) {
+                Node inner = ternary();
+                expect(")");
+                return inner;
+            }
+            if (Character.isDigit(c) || c == '.') return number();
+            if (Character.isLetter(c)) {
+                int start = pos;
+                while (pos < text.length() && (Character.isLetterOrDigit(text.charAt(pos)) || text.charAt(pos) == '_')) pos++;
+                String name = text.substring(start, pos);
+                if (peek("(")) return call(name, start);
+                return switch (name) {
+                    case "rating", "votes", "year", "watched", "scariness" -> new Node(name, 0);
+                    case "runtime", "runtimeMinutes" -> new Node("runtime", 0);
+                    case "true" -> new Node("const", 1);
+                    case "false" -> new Node("const", 0);
+                    default -> {
+                        pos = start;
+                        throw error("Unknown variable '" + name + "'");
+                    }
+                };
+            }
+            throw error("Unexpected '" + c + "'");
+        }
+
+        private Node call(String name, int start) {
+            int arity = switch (name) {
+                case "abs", "sqrt", "log", "log10", "exp", "floor", "ceil" -> 1;
+                case "min", "max", "pow" -> 2;
+                case "clamp" -> 3;
+                default -> {
+                    pos = start;
+                    throw error("Unknown function '" + name + "'");
+                }
+            };
+            expect("(");
+            List<Node> args = new ArrayList<>();
+            if (!accept(")")) {
+                do args.add(ternary()); while (accept(","));
+                expect(")");
+            }
+            if (args.size() != arity) {
+                pos = start;
+                throw error(name + "() takes " + arity + " argument" + (arity == 1 ? "" : "s") + ", got " + args.size());
+            }
+            return node(name, args.toArray(new Node[0]));
+        }
+
+        private Node number() {
+            int start = pos;
+            while (pos < text.length() && (Character.isDigit(text.charAt(pos)) || text.charAt(pos) == '.' || text.charAt(pos) == '_')) pos++;
+            if (pos < text.length() && (text.charAt(pos) == 'e' || text.charAt(pos) == 'E')) {
+                pos++;
+                if (pos < text.length() && (text.charAt(pos) == '+' || text.charAt(pos) == '-')) pos++;
+                while (pos < text.length() && Character.isDigit(text.charAt(pos))) pos++;
+            }
+            try {
+                return new Node("const", Double.parseDouble(text.substring(start, pos).replace("_", "")));
+            } catch (NumberFormatException e) {
+                pos = start;
+                throw error("Invalid number");
+            }
+        }
+
+        /** Creates an operator node, folding it to a constant if all arguments are constants. */
+        private static Node node(String op, Node... args) {
+            double[] values = new double[args.length];
+            for (int i = 0; i < args.length; i++) {
+                if (!args[i].isConst()) return new Node(op, 0, args);
+                values[i] = args[i].value;
+            }
+            return new Node("const", fold(op, values));
+        }
+
+        void skipSpaces() {
+            while (pos < text.length() && Character.isWhitespace(text.charAt(pos))) pos++;
+        }
+
+        private boolean peek(String token) {
+            skipSpaces();
+            return text.startsWith(token, pos);
+        }
+
+        private boolean accept(String token) {
+            if (!peek(token)) return false;
+            pos += token.length();
+            return true;
+        }
+
+        private String acceptAny(String... tokens) {
+            for (String token : tokens) {
+                if (accept(token)) return token; // longer tokens come first, e.g. "<=" before "<"
+            }
+            return null;
+        }
+
+        private void expect(String token) {
+            if (!accept(token)) throw error("Expected '" + token + "'");
+        }
+
+        IllegalArgumentException error(String message) {
+            return new IllegalArgumentException(message + " at position " + (pos + 1) + " in \"" + text + "\"");
+        }
+    }
+}
@@ -0,0 +1,58 @@
+// ============================================
+// ScoringRule.java
+// Pluggable per-movie score, evaluated over the store's primitive columns
+// ============================================
+
+/**
+ * Computes a score for a movie from its numeric fields.
+ * A rule can be a lambda, e.g. (rating, votes, runtime, year, watched) -> rating * 2,
+ * or an expression compiled by ScoreExpression.parse.
+ *
+ * MovieStore scores a whole chunk of rows at once through scoreAll, so rules that can
+ * work on columns should override it with a plain loop.
+ */
+@FunctionalInterface
+public interface ScoringRule {
+
+    /**
+     * The built-in scariness score, the same as Movie.getScariness().
+     * Its scores are cached by MovieStore.
+     */
+    ScoringRule SCARINESS = new ScoringRule() {
+        @Override
+        public double score(double rating, int votes, int runtimeMinutes, int year, boolean watched) {
+            return new Movie("", year, "", rating, runtimeMinutes, votes, watched).getScariness();
+        }
+
+        @Override
+        public void scoreAll(double[] ratings, int[] votes, int[] runtimes, int[] years, long[] watched,
+                             double[] out, int n) {
+            MovieStore.scariness(ratings, votes, runtimes, watched, out, n);
+        }
+
+        @Override
+        public String toString() {
+            return "scariness";
+        }
+    };
+
+    /**
+     * Score of a single movie.
+     */
+    double score(double rating, int votes, int runtimeMinutes, int year, boolean watched);
+
+    default double score(Movie m) {
+        return score(m.getRating(), m.getVotes(), m.getRuntimeMinutes(), m.getYear(), m.isWatched());
+    }
+
+    /**
+     * Scores rows 0..n-1 of primitive columns into out. Watched flags are a bitset
+     * (row i is bit i % 64 of watched[i / 64]).
+     */
+    default void scoreAll(double[] ratings, int[] votes, int[] runtimes, int[] years, long[] watched,
+                          double[] out, int n) {
+        for (int i = 0; i < n; i++) {
+            out[i] = score(ratings[i], votes[i], runtimes[i], years[i], ((watched[i >>> 6] >>> i) & 1) != 0);
+        }
+    }
+}